@@ -0,0 +1,65 @@
+package raytracer.bench;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import raytracer.core.OBJReader;
+import raytracer.core.def.BVH;
+import raytracer.core.def.LBVH;
+import raytracer.core.def.SAHBVH;
+import raytracer.core.def.StandardMesh;
+import raytracer.math.Color;
+import raytracer.math.Vec3;
+import raytracer.shade.SingleColor;
+
+/**
+ * Measures building a hierarchy over the triangles of obj/bunny.obj (read
+ * once, outside of the measurement). Must be run from the project directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BVHBuildBenchmark {
+
+	@Param({ "sah", "lbvh" })
+	public String builder;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private StandardMesh mesh;
+
+	@Setup
+	public void setup() throws FileNotFoundException {
+		mesh = new StandardMesh(
+				OBJReader.readMesh("obj/bunny.obj", 25, Vec3.ZERO),
+				new SingleColor(Color.WHITE));
+	}
+
+	@Benchmark
+	public BVH build() {
+		final BVH bvh = builder.equals("lbvh") ? new LBVH() : new SAHBVH();
+		mesh.addTo(bvh);
+		if (parallel) {
+			bvh.buildBVHParallel();
+		} else {
+			bvh.buildBVH();
+		}
+		return bvh;
+	}
+}
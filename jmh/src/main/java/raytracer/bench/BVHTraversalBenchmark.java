@@ -0,0 +1,89 @@
+package raytracer.bench;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import raytracer.core.HitRecord;
+import raytracer.core.OBJReader;
+import raytracer.core.def.Accelerator;
+import raytracer.core.def.BVH;
+import raytracer.core.def.LinearBVH;
+import raytracer.core.def.SAHBVH;
+import raytracer.core.def.StandardMesh;
+import raytracer.core.def.WideBVH;
+import raytracer.math.Color;
+import raytracer.math.Ray;
+import raytracer.math.Vec3;
+import raytracer.shade.SingleColor;
+
+/**
+ * Measures tracing random rays through a hierarchy over obj/bunny.obj in each
+ * of its layouts, both for the nearest hit and for shadow rays. Must be run
+ * from the project directory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BVHTraversalBenchmark {
+
+	@Param({ "bvh", "linear", "wide4", "wide8" })
+	public String layout;
+
+	private Accelerator accel;
+	private Ray[] rays;
+	private int next;
+	private final HitRecord rec = new HitRecord();
+
+	@Setup
+	public void setup() throws FileNotFoundException {
+		final BVH bvh = new SAHBVH();
+		new StandardMesh(OBJReader.readMesh("obj/bunny.obj", 25, Vec3.ZERO),
+				new SingleColor(Color.WHITE)).addTo(bvh);
+		bvh.buildBVHParallel();
+		switch (layout) {
+		case "linear":
+			accel = new LinearBVH(bvh);
+			break;
+		case "wide4":
+			accel = new WideBVH(bvh, 4);
+			break;
+		case "wide8":
+			accel = new WideBVH(bvh, 8);
+			break;
+		default:
+			accel = bvh;
+		}
+		rays = RandomRays.create(bvh.bbox());
+	}
+
+	private Ray nextRay() {
+		return rays[next++ & (RandomRays.COUNT - 1)];
+	}
+
+	@Benchmark
+	public boolean nearest() {
+		rec.reset();
+		return accel.intersect(nextRay(), null, 0, Float.POSITIVE_INFINITY,
+				rec);
+	}
+
+	@Benchmark
+	public boolean occluded() {
+		return accel.occluded(nextRay(), 0, Float.POSITIVE_INFINITY);
+	}
+}
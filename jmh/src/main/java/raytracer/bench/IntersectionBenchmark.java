@@ -0,0 +1,74 @@
+package raytracer.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import raytracer.core.HitRecord;
+import raytracer.geom.BBox;
+import raytracer.geom.GeomFactory;
+import raytracer.geom.Primitive;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+
+/**
+ * Measures single ray intersections with a box, a triangle and a sphere. Every
+ * call tests the next ray of a fixed random set, about half of them hit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmark {
+
+	private Ray[] rays;
+	private int next;
+	private BBox box;
+	private Primitive triangle;
+	private Primitive sphere;
+	private final HitRecord rec = new HitRecord();
+
+	@Setup
+	public void setup() {
+		box = BBox.create(new Point(-1, -1, -1), new Point(1, 1, 1));
+		triangle = GeomFactory.createTriangle(new Point(-1, -1, 0),
+				new Point(1, -1, 0), new Point(0, 1, 0));
+		sphere = GeomFactory.createSphere(Point.ORIGIN, 1);
+		rays = RandomRays.create(BBox.create(new Point(-1.5f, -1.5f, -1.5f),
+				new Point(1.5f, 1.5f, 1.5f)));
+	}
+
+	private Ray nextRay() {
+		return rays[next++ & (RandomRays.COUNT - 1)];
+	}
+
+	@Benchmark
+	public boolean rayBox() {
+		return box.hit(nextRay(), 0, Float.POSITIVE_INFINITY).hits();
+	}
+
+	@Benchmark
+	public boolean rayTriangle() {
+		rec.reset();
+		return triangle.intersect(nextRay(), null, 0, Float.POSITIVE_INFINITY,
+				rec);
+	}
+
+	@Benchmark
+	public boolean raySphere() {
+		rec.reset();
+		return sphere.intersect(nextRay(), null, 0, Float.POSITIVE_INFINITY,
+				rec);
+	}
+}
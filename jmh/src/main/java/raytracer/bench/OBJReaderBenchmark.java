@@ -0,0 +1,108 @@
+package raytracer.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import raytracer.core.OBJReader;
+import raytracer.geom.TriangleMesh;
+import raytracer.math.Vec3;
+
+/**
+ * Measures loading an OBJ file into a triangle mesh, either from a stream on
+ * one thread or memory-mapped in parallel chunks. The model is obj/bunny.obj
+ * or a generated grid of about the given number of faces. Must be run from
+ * the project directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OBJReaderBenchmark {
+
+	@Param({ "bunny", "1000000", "10000000" })
+	public String model;
+
+	@Param({ "stream", "mapped" })
+	public String reader;
+
+	private Path file;
+	private boolean generated;
+
+	@Setup
+	public void setup() throws IOException {
+		generated = !model.equals("bunny");
+		if (generated) {
+			file = Files.createTempFile("grid", ".obj");
+			writeGrid(file, Integer.parseInt(model));
+		} else {
+			file = Paths.get("obj", "bunny.obj");
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if (generated) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Benchmark
+	public TriangleMesh read() throws IOException {
+		if (reader.equals("mapped")) {
+			return OBJReader.readMesh(file.toString(), 1, Vec3.ZERO);
+		}
+		try (InputStream in = Files.newInputStream(file)) {
+			return OBJReader.readMesh(in, 1, Vec3.ZERO);
+		}
+	}
+
+	/**
+	 * Writes a grid of n x n quads (two triangles each) with six decimal
+	 * places, like most exporters
+	 */
+	private static void writeGrid(final Path file, final int faces)
+			throws IOException {
+		final int n = Math.max(1, (int) Math.sqrt(faces / 2));
+		try (BufferedWriter out = Files.newBufferedWriter(file,
+				StandardCharsets.US_ASCII)) {
+			out.write("# grid of " + 2 * n * n + " triangles\n");
+			for (int y = 0; y <= n; y++) {
+				for (int x = 0; x <= n; x++) {
+					out.write(String.format(Locale.ENGLISH, "v %.6f %.6f %.6f\n",
+							(float) x / n, Math.sin(x * 0.1) * Math.cos(y * 0.1),
+							(float) -y / n));
+				}
+			}
+			for (int y = 0; y < n; y++) {
+				for (int x = 0; x < n; x++) {
+					final int a = y * (n + 1) + x + 1;
+					final int b = a + n + 1;
+					out.write("f " + a + " " + (a + 1) + " " + b + "\n");
+					out.write("f " + (a + 1) + " " + (b + 1) + " " + b + "\n");
+				}
+			}
+		}
+	}
+}
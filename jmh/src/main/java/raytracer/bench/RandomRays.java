@@ -0,0 +1,52 @@
+package raytracer.bench;
+
+import prog2.tests.pub.RandomGenerator;
+import raytracer.geom.BBox;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec3;
+
+/**
+ * Creates the rays used by the benchmarks. The rays start on the surface of a
+ * sphere around a target box and point at random points inside the box, so
+ * most but not all of them hit the objects in the box.
+ */
+final class RandomRays {
+
+	/**
+	 * The number of rays of a set, a power of two so the benchmarks can cycle
+	 * through them with a mask
+	 */
+	static final int COUNT = 4096;
+
+	private RandomRays() {
+	}
+
+	/**
+	 * Creates {@link #COUNT} random rays aimed at the given box
+	 *
+	 * @param target
+	 *            The box to aim at
+	 * @return The rays
+	 */
+	static Ray[] create(final BBox target) {
+		final Point min = target.getMin();
+		final Vec3 extent = target.getMax().sub(min);
+		final Point center = min.add(extent.scale(0.5f));
+		final float radius = 2 * extent.norm();
+
+		final Ray[] rays = new Ray[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			final Vec3 offset = new Vec3(RandomGenerator.nextFloat(2) - 1,
+					RandomGenerator.nextFloat(2) - 1,
+					RandomGenerator.nextFloat(2) - 1);
+			final Point base = center.add(offset.normalized().scale(radius));
+			final Point aim = min.add(new Vec3(
+					RandomGenerator.nextFloat(extent.x()),
+					RandomGenerator.nextFloat(extent.y()),
+					RandomGenerator.nextFloat(extent.z())));
+			rays[i] = new Ray(base, aim.sub(base).normalized());
+		}
+		return rays;
+	}
+}
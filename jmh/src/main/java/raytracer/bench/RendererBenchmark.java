@@ -0,0 +1,53 @@
+package raytracer.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import raytracer.core.Renderer;
+import raytracer.core.def.Main;
+
+/**
+ * Measures rendering full frames of the scene of {@link Main} on one thread.
+ * Must be run from the project directory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Djava.awt.headless=true")
+public class RendererBenchmark {
+
+	@Param({ "320" })
+	public int width;
+
+	@Param({ "240" })
+	public int height;
+
+	@Param({ "1", "2" })
+	public int superSample;
+
+	private Renderer renderer;
+
+	@Setup
+	public void setup() throws IOException {
+		renderer = new Renderer(Main.createScene(), width, height, superSample);
+	}
+
+	@Benchmark
+	public int[] frame() {
+		return renderer.renderTile(0, 0, width, height).pixels;
+	}
+}
@@ -0,0 +1,174 @@
+package raytracer.core;
+
+import raytracer.geom.Primitive;
+import raytracer.math.Ray;
+
+/**
+ * Represents a mutable record of the nearest intersection found so far. The
+ * record is filled in place by
+ * {@link Primitive#intersect(Ray, Obj, float, float, HitRecord)}, so testing
+ * candidates does not allocate anything. A {@link Hit} is only created for the
+ * final record by {@link #toHit(Ray)}, usually not before it is shaded. A
+ * record is meant to be owned by a single thread and reused for many rays,
+ * see {@link Trace#primary(Scene, Ray, HitRecord)}.
+ */
+public final class HitRecord {
+
+	private float t, u, v;
+	private int id;
+	private Primitive primitive;
+	private Obj obj;
+	private Hit hit;
+
+	/**
+	 * Creates a new empty record
+	 */
+	public HitRecord() {
+		reset();
+	}
+
+	/**
+	 * Clears the record
+	 */
+	public void reset() {
+		t = Float.POSITIVE_INFINITY;
+		u = 0;
+		v = 0;
+		id = -1;
+		primitive = null;
+		obj = null;
+		hit = null;
+	}
+
+	/**
+	 * Stores an intersection computed on raw floats
+	 *
+	 * @param t
+	 *            The distance of the hit
+	 * @param u
+	 *            The first surface coordinate of the hit
+	 * @param v
+	 *            The second surface coordinate of the hit
+	 * @param primitive
+	 *            The hit primitive, used to create the hit
+	 * @param obj
+	 *            The hit object
+	 */
+	public void set(final float t, final float u, final float v,
+			final Primitive primitive, final Obj obj) {
+		set(t, u, v, -1, primitive, obj);
+	}
+
+	/**
+	 * Stores an intersection computed on raw floats
+	 *
+	 * @param t
+	 *            The distance of the hit
+	 * @param u
+	 *            The first surface coordinate of the hit
+	 * @param v
+	 *            The second surface coordinate of the hit
+	 * @param id
+	 *            The id of the hit primitive inside its container (e.g. the
+	 *            index of a triangle in a mesh) or -1
+	 * @param primitive
+	 *            The hit primitive, used to create the hit
+	 * @param obj
+	 *            The hit object
+	 */
+	public void set(final float t, final float u, final float v, final int id,
+			final Primitive primitive, final Obj obj) {
+		this.t = t;
+		this.u = u;
+		this.v = v;
+		this.id = id;
+		this.primitive = primitive;
+		this.obj = obj;
+		this.hit = null;
+	}
+
+	/**
+	 * Stores an already computed hit
+	 *
+	 * @param hit
+	 *            The hit, which has to hit something
+	 */
+	public void set(final Hit hit) {
+		this.t = hit.getParameter();
+		this.u = 0;
+		this.v = 0;
+		this.id = -1;
+		this.primitive = null;
+		this.obj = hit.get();
+		this.hit = hit;
+	}
+
+	/**
+	 * Returns true if the record holds an intersection
+	 *
+	 * @return True if the record holds an intersection
+	 */
+	public boolean hits() {
+		return primitive != null || hit != null;
+	}
+
+	/**
+	 * Returns the distance of the hit
+	 *
+	 * @return The distance of the hit
+	 */
+	public float getParameter() {
+		return t;
+	}
+
+	/**
+	 * Returns the first surface coordinate of the hit
+	 *
+	 * @return The first surface coordinate
+	 */
+	public float getU() {
+		return u;
+	}
+
+	/**
+	 * Returns the second surface coordinate of the hit
+	 *
+	 * @return The second surface coordinate
+	 */
+	public float getV() {
+		return v;
+	}
+
+	/**
+	 * Returns the id of the hit primitive inside its container
+	 *
+	 * @return The id of the hit primitive or -1
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the hit object
+	 *
+	 * @return The hit object
+	 */
+	public Obj getObj() {
+		return obj;
+	}
+
+	/**
+	 * Creates the hit described by this record
+	 *
+	 * @param ray
+	 *            The ray the record was computed for
+	 * @return The hit or {@link Hit.No} if the record is empty
+	 */
+	public Hit toHit(final Ray ray) {
+		if (hit != null)
+			return hit;
+		if (primitive == null)
+			return Hit.No.get();
+		return primitive.createHit(ray, obj, this);
+	}
+}
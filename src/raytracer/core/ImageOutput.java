@@ -0,0 +1,23 @@
+package raytracer.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Represents the destination of a rendered image. The finished pieces of the
+ * image are passed in any order and possibly from several threads at once;
+ * the image is complete when the output is closed.
+ */
+public interface ImageOutput extends Closeable {
+
+	/**
+	 * Writes a finished piece of the image
+	 *
+	 * @param work
+	 *            The finished piece
+	 * @throws IOException
+	 *             If writing fails
+	 */
+	void write(Renderer.Work work) throws IOException;
+
+}
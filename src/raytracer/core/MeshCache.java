@@ -0,0 +1,471 @@
+package raytracer.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import raytracer.core.def.BVH;
+import raytracer.core.def.LinearBVH;
+import raytracer.core.def.StandardMesh;
+import raytracer.geom.TriangleMesh;
+import raytracer.math.Vec3;
+
+/**
+ * Represents the parsed content of an OBJ file backed by a binary cache file
+ * next to it (the name of the OBJ file with {@value #EXTENSION} appended).
+ * The cache holds the untransformed vertex positions, normals and texture
+ * coordinates, the vertex indices and optionally the topology of a
+ * {@link LinearBVH} over the triangles. It
+ * is written when the OBJ file is parsed and memory-mapped on later loads
+ * as long as the size, the modification time and the CRC32 checksum of the
+ * OBJ file match the ones recorded in the cache and the rest of the cache
+ * matches its own checksum.
+ * <p>
+ * All numbers are stored little endian: a header of {@value #HEADER_SIZE}
+ * bytes (magic, version, size, modification time and checksum of the OBJ
+ * file, number of vertices, triangles and hierarchy nodes, flags telling
+ * whether there are normals and texture coordinates, checksum of the data
+ * following the header and the builder of the hierarchy) followed by the
+ * positions, the normals, the texture coordinates, the indices, the nodes
+ * and the order of the triangles in the leaves of the hierarchy. The
+ * builder is the hash code of the class name of the {@link BVH} the
+ * topology was built with.
+ */
+public final class MeshCache {
+
+  /**
+   * The extension appended to the name of the OBJ file
+   */
+  public static final String EXTENSION = ".rtmesh";
+
+  /**
+   * The size of the header in bytes
+   */
+  public static final int HEADER_SIZE = 60;
+
+  private static final int MAGIC = 0x48534d52; // "RMSH"
+  private static final int VERSION = 3;
+  private static final int NORMALS = 1, UVS = 2;
+
+  private final Path file;
+  private final long size, modified, checksum;
+  private final float[] positions, normals, uvs;
+  private final int[] indices;
+  private int[] nodes, order;
+  private int builder;
+  private final boolean cached;
+
+  private MeshCache(
+    final Path file,
+    final long size,
+    final long modified,
+    final long checksum,
+    final float[] positions,
+    final float[] normals,
+    final float[] uvs,
+    final int[] indices,
+    final int[] nodes,
+    final int[] order,
+    final int builder,
+    final boolean cached
+  ) {
+    this.file = file;
+    this.size = size;
+    this.modified = modified;
+    this.checksum = checksum;
+    this.positions = positions;
+    this.normals = normals;
+    this.uvs = uvs;
+    this.indices = indices;
+    this.nodes = nodes;
+    this.order = order;
+    this.builder = builder;
+    this.cached = cached;
+  }
+
+  /**
+   * Loads an OBJ file from its cache or, if there is no valid cache, parses
+   * it with {@link OBJReader#readMesh(String, float, Vec3)} and writes the
+   * cache. A cache which cannot be written is skipped.
+   *
+   * @param filename
+   *            The OBJ file to read the data from
+   * @return The content of the OBJ file
+   * @throws IOException
+   *             If the OBJ file cannot be read
+   * @throws IllegalArgumentException
+   *             If the filename is null or the empty string
+   */
+  public static MeshCache open(final String filename) throws IOException {
+    if (filename == null || filename.isEmpty()) {
+      throw new IllegalArgumentException("Filename cannot be null or empty.");
+    }
+    final Path obj = Paths.get(filename);
+    final Path file = Paths.get(filename + EXTENSION);
+    final long size = Files.size(obj);
+    final long modified = Files.getLastModifiedTime(obj).toMillis();
+    final long checksum = checksum(obj);
+
+    if (Files.isRegularFile(file)) {
+      final MeshCache cache = read(file, size, modified, checksum);
+      if (cache != null) {
+        return cache;
+      }
+    }
+
+    final TriangleMesh mesh = OBJReader.readMesh(filename, 1, Vec3.ZERO);
+    final MeshCache cache = new MeshCache(
+      file,
+      size,
+      modified,
+      checksum,
+      mesh.getPositions(),
+      mesh.getNormals(),
+      mesh.getUVs(),
+      mesh.getIndices(),
+      null,
+      null,
+      0,
+      false
+    );
+    cache.write();
+    return cache;
+  }
+
+  private static long checksum(final Path obj) throws IOException {
+    try (FileChannel channel = FileChannel.open(obj, StandardOpenOption.READ)) {
+      final CRC32 crc = new CRC32();
+      crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      return crc.getValue();
+    }
+  }
+
+  /**
+   * Reads the cache file or returns null if it does not belong to the
+   * current OBJ file or is damaged
+   */
+  private static MeshCache read(
+    final Path file,
+    final long size,
+    final long modified,
+    final long checksum
+  ) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE) {
+        return null;
+      }
+      final MappedByteBuffer buf = channel.map(
+        FileChannel.MapMode.READ_ONLY,
+        0,
+        channel.size()
+      );
+      buf.order(ByteOrder.LITTLE_ENDIAN);
+      if (
+        buf.getInt(0) != MAGIC ||
+        buf.getInt(4) != VERSION ||
+        buf.getLong(8) != size ||
+        buf.getLong(16) != modified ||
+        buf.getLong(24) != checksum
+      ) {
+        return null;
+      }
+      final int vertexCount = buf.getInt(32);
+      final int triangleCount = buf.getInt(36);
+      final int nodeCount = buf.getInt(40);
+      final int flags = buf.getInt(44);
+      final long expected =
+        HEADER_SIZE +
+        4L *
+        (3L * vertexCount +
+          ((flags & NORMALS) != 0 ? 3L * vertexCount : 0) +
+          ((flags & UVS) != 0 ? 2L * vertexCount : 0) +
+          3L * triangleCount +
+          2L * nodeCount +
+          (nodeCount > 0 ? triangleCount : 0));
+      if (
+        vertexCount < 0 ||
+        triangleCount < 0 ||
+        nodeCount < 0 ||
+        channel.size() != expected ||
+        buf.getLong(48) != payloadChecksum(buf)
+      ) {
+        return null;
+      }
+
+      buf.position(HEADER_SIZE);
+      final float[] positions = getFloats(buf, 3 * vertexCount);
+      final float[] normals = (flags & NORMALS) != 0
+        ? getFloats(buf, 3 * vertexCount)
+        : null;
+      final float[] uvs = (flags & UVS) != 0
+        ? getFloats(buf, 2 * vertexCount)
+        : null;
+      final int[] indices = getInts(buf, 3 * triangleCount);
+      for (final int index : indices) {
+        if (index < 0 || index >= vertexCount) {
+          return null;
+        }
+      }
+      int[] nodes = null, order = null;
+      if (nodeCount > 0) {
+        nodes = getInts(buf, 2 * nodeCount);
+        order = getInts(buf, triangleCount);
+        // every triangle has to appear exactly once in the leaves
+        final boolean[] seen = new boolean[triangleCount];
+        for (final int triangle : order) {
+          if (triangle < 0 || triangle >= triangleCount || seen[triangle]) {
+            return null;
+          }
+          seen[triangle] = true;
+        }
+      }
+      return new MeshCache(
+        file,
+        size,
+        modified,
+        checksum,
+        positions,
+        normals,
+        uvs,
+        indices,
+        nodes,
+        order,
+        buf.getInt(56),
+        true
+      );
+    }
+  }
+
+  /**
+   * Writes the cache to a temporary file which replaces the cache file, so
+   * a concurrent reader never sees a partial cache
+   */
+  private void write() {
+    final long length =
+      HEADER_SIZE +
+      4L *
+      (positions.length +
+        (normals != null ? normals.length : 0) +
+        (uvs != null ? uvs.length : 0) +
+        indices.length +
+        (nodes != null ? nodes.length + order.length : 0));
+    Path tmp = null;
+    try {
+      tmp =
+        file.resolveSibling(
+          file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp"
+        );
+      try (
+        FileChannel channel = FileChannel.open(
+          tmp,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.READ,
+          StandardOpenOption.WRITE
+        )
+      ) {
+        final MappedByteBuffer buf = channel.map(
+          FileChannel.MapMode.READ_WRITE,
+          0,
+          length
+        );
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf
+          .putInt(MAGIC)
+          .putInt(VERSION)
+          .putLong(size)
+          .putLong(modified)
+          .putLong(checksum)
+          .putInt(positions.length / 3)
+          .putInt(indices.length / 3)
+          .putInt(nodes != null ? nodes.length / 2 : 0)
+          .putInt((normals != null ? NORMALS : 0) | (uvs != null ? UVS : 0))
+          .putLong(0)
+          .putInt(builder);
+        putFloats(buf, positions);
+        if (normals != null) {
+          putFloats(buf, normals);
+        }
+        if (uvs != null) {
+          putFloats(buf, uvs);
+        }
+        putInts(buf, indices);
+        if (nodes != null) {
+          putInts(buf, nodes);
+          putInts(buf, order);
+        }
+        buf.putLong(48, payloadChecksum(buf));
+        buf.force();
+      }
+      Files.move(
+        tmp,
+        file,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+    } catch (final IOException | UnsupportedOperationException e) {
+      // the cache only speeds up later loads
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (final IOException ignored) {}
+      }
+    }
+  }
+
+  /**
+   * Computes the checksum of the data following the header
+   */
+  private static long payloadChecksum(final ByteBuffer buf) {
+    final CRC32 crc = new CRC32();
+    crc.update(buf.duplicate().limit(buf.capacity()).position(HEADER_SIZE));
+    return crc.getValue();
+  }
+
+  private static int[] getInts(final ByteBuffer buf, final int length) {
+    final int[] values = new int[length];
+    buf.asIntBuffer().get(values);
+    buf.position(buf.position() + 4 * length);
+    return values;
+  }
+
+  private static float[] getFloats(final ByteBuffer buf, final int length) {
+    final float[] values = new float[length];
+    buf.asFloatBuffer().get(values);
+    buf.position(buf.position() + 4 * length);
+    return values;
+  }
+
+  private static void putFloats(final ByteBuffer buf, final float[] values) {
+    buf.asFloatBuffer().put(values);
+    buf.position(buf.position() + 4 * values.length);
+  }
+
+  private static void putInts(final ByteBuffer buf, final int[] values) {
+    buf.asIntBuffer().put(values);
+    buf.position(buf.position() + 4 * values.length);
+  }
+
+  /**
+   * Returns true if the data was loaded from the cache file instead of
+   * parsing the OBJ file
+   *
+   * @return True if the cache file was used
+   */
+  public boolean isCached() {
+    return cached;
+  }
+
+  /**
+   * Returns true if the cache holds the topology of a hierarchy
+   *
+   * @return True if the cache holds a hierarchy
+   */
+  public boolean hasHierarchy() {
+    return nodes != null;
+  }
+
+  /**
+   * Creates a triangle mesh with the vertices transformed like by
+   * {@link OBJReader#readMesh(String, float, Vec3)}
+   *
+   * @param scale
+   *            The scale factor which is responsible for scaling the model
+   * @param translate
+   *            A vector representing the translation coordinate with which
+   *            all coordinates have to be translated
+   * @return The triangle mesh
+   * @throws IllegalArgumentException
+   *             If the translate vector is null, the translate vector is not
+   *             finite or scale does not represent a legal (finite) floating
+   *             point number
+   */
+  public TriangleMesh createMesh(final float scale, final Vec3 translate) {
+    if (translate == null) {
+      throw new IllegalArgumentException("Translate vector cannot be null.");
+    }
+    if (!Float.isFinite(scale) || !translate.isFinite()) {
+      throw new IllegalArgumentException(
+        "Scale and translate vector must be finite."
+      );
+    }
+    final float[] transformed = new float[positions.length];
+    for (int i = 0; i < positions.length; i += 3) {
+      transformed[i] = positions[i] * scale + translate.x();
+      transformed[i + 1] = positions[i + 1] * scale + translate.y();
+      transformed[i + 2] = positions[i + 2] * scale + translate.z();
+    }
+    final float[] turned = normals != null ? normals.clone() : null;
+    if (turned != null && scale < 0) {
+      // a mirroring scale flips the normals
+      for (int i = 0; i < turned.length; i++) {
+        turned[i] = -turned[i];
+      }
+    }
+    return new TriangleMesh(
+      transformed,
+      turned,
+      uvs != null ? uvs.clone() : null,
+      indices.clone()
+    );
+  }
+
+  /**
+   * Creates a linear hierarchy over the triangles of a mesh created by
+   * {@link #createMesh(float, Vec3)}. The topology is taken from the cache
+   * if it holds a valid one built by the same class of hierarchy as the
+   * given one. Otherwise the triangles are added to the given empty
+   * hierarchy, which is built and compiled, and its topology is stored in
+   * the cache.
+   *
+   * @param mesh
+   *            The mesh created from this cache
+   * @param bvh
+   *            The empty hierarchy to build if the cache holds no topology
+   * @return The linear hierarchy over the triangles of the mesh
+   * @throws IllegalArgumentException
+   *             If the mesh or the hierarchy is null or the mesh has a
+   *             different number of triangles
+   */
+  public LinearBVH createHierarchy(final StandardMesh mesh, final BVH bvh) {
+    if (mesh == null || bvh == null) {
+      throw new IllegalArgumentException("Mesh and BVH cannot be null.");
+    }
+    final int triangleCount = indices.length / 3;
+    if (mesh.getTriangles().getTriangleCount() != triangleCount) {
+      throw new IllegalArgumentException("Mesh does not belong to the cache.");
+    }
+
+    final int kind = bvh.getClass().getName().hashCode();
+    if (nodes != null && builder == kind) {
+      final StandardMesh.Face[] faces = new StandardMesh.Face[triangleCount];
+      for (int i = 0; i < triangleCount; i++) {
+        faces[i] = mesh.getFace(order[i]);
+      }
+      try {
+        return new LinearBVH(nodes, faces);
+      } catch (final IllegalArgumentException e) {
+        // a damaged topology is rebuilt like a missing one
+      }
+    }
+
+    mesh.addTo(bvh);
+    bvh.buildBVHParallel();
+    final LinearBVH linear = new LinearBVH(bvh);
+    builder = kind;
+    nodes = linear.getNodes();
+    order = new int[linear.getObjectCount()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = ((StandardMesh.Face) linear.getObject(i)).getIndex();
+    }
+    write();
+    return linear;
+  }
+}
@@ -0,0 +1,820 @@
+package raytracer.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import raytracer.geom.TriangleMesh;
+import raytracer.math.Vec3;
+
+/**
+ * Parses the vertices and faces of OBJ data directly from bytes.
+ * The input is read in large blocks and numbers are converted without
+ * creating any strings: a decimal number with at most 24 bits of mantissa
+ * and at most 10 decimal places (which covers the usual OBJ output) is
+ * converted with a single float multiplication or division, which is exact
+ * and rounds like {@link Float#parseFloat(String)}; other numbers fall back
+ * to {@link Float#parseFloat(String)}.
+ * <p>
+ * Vertices ({@code v}), texture coordinates ({@code vt}), normals
+ * ({@code vn}) and faces ({@code f}) are read, all other lines are skipped.
+ * The corners of a face may have the forms {@code v}, {@code v/vt},
+ * {@code v//vn} and {@code v/vt/vn}; negative (relative) indices refer to the
+ * elements defined before the face, -1 being the last one. Faces with more
+ * than three corners are split into a fan of triangles around the first
+ * corner, which is correct for convex polygons (the usual quads and n-gons).
+ * <p>
+ * A file is split into line aligned chunks which are memory-mapped and parsed
+ * in parallel, see {@link #parse(Path, float, Vec3)}. Each chunk is parsed by
+ * its own parser; since the vertices of a chunk follow the ones of all
+ * earlier chunks, the relative indices of a chunk are resolved when the
+ * chunks are merged.
+ */
+final class OBJParser {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final long MIN_CHUNK_SIZE = 1 << 20;
+  private static final long MAX_CHUNK_SIZE = 1 << 30;
+  private static final int MAX_MANTISSA = 1 << 24;
+  private static final int NONE = Integer.MIN_VALUE;
+  private static final int VERTEX = 0, UV = 1, NORMAL = 2;
+  private static final float[] POWERS = {
+    1e0f,
+    1e1f,
+    1e2f,
+    1e3f,
+    1e4f,
+    1e5f,
+    1e6f,
+    1e7f,
+    1e8f,
+    1e9f,
+    1e10f,
+  };
+
+  private final float scale, tx, ty, tz;
+
+  private float[] positions = new float[3 * 1024];
+  private float[] uvs = new float[0];
+  private float[] normals = new float[0];
+  private int vertexCount, uvCount, normalCount;
+  // per triangle corner, the texture coordinate and normal indices are only
+  // allocated once a face uses them (and are NONE for corners without)
+  private int[] indices = new int[3 * 1024];
+  private int[] uvIndices, normalIndices;
+  private int indexCount;
+  // the relative indices (their position in the index arrays times four plus
+  // their kind), which are resolved against the counts of this parser
+  private long[] relative = new long[16];
+  private int relativeCount;
+  private Malformed failure;
+
+  // the indices of the corners of the face being parsed (v, vt, vn)
+  private int[] corners = new int[3 * 8];
+  private boolean[] relativeCorners = new boolean[3 * 8];
+
+  // the line being parsed
+  private byte[] buf;
+  private int pos, end, line;
+
+  /**
+   * Creates a new parser transforming all vertices
+   *
+   * @param scale
+   *            The scale factor of the vertices
+   * @param translate
+   *            The translation of the vertices
+   */
+  OBJParser(final float scale, final Vec3 translate) {
+    this.scale = scale;
+    this.tx = translate.x();
+    this.ty = translate.y();
+    this.tz = translate.z();
+  }
+
+  /**
+   * Parses a file by splitting it into line aligned chunks which are
+   * memory-mapped and parsed in parallel on the common fork/join pool. The
+   * result is the same as parsing the whole file with
+   * {@link #parse(InputStream)}.
+   *
+   * @param file
+   *            The OBJ file
+   * @param scale
+   *            The scale factor of the vertices
+   * @param translate
+   *            The translation of the vertices
+   * @return The parser holding the content of the whole file
+   * @throws IOException
+   *             If the file cannot be read
+   * @throws IllegalArgumentException
+   *             If a vertex or face line is malformed
+   */
+  static OBJParser parse(
+    final Path file,
+    final float scale,
+    final Vec3 translate
+  ) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long[] bounds = split(channel);
+      final OBJParser[] parts = new OBJParser[bounds.length - 1];
+      try {
+        IntStream
+          .range(0, parts.length)
+          .parallel()
+          .forEach(i -> {
+            parts[i] = new OBJParser(scale, translate);
+            try {
+              parts[i].parse(
+                new BufferInput(
+                  channel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    bounds[i],
+                    bounds[i + 1] - bounds[i]
+                  )
+                )
+              );
+            } catch (final IOException e) {
+              throw new UncheckedIOException(e);
+            } catch (final Malformed e) {
+              parts[i].failure = e;
+            }
+          });
+      } catch (final UncheckedIOException e) {
+        throw e.getCause();
+      }
+      return merge(scale, translate, parts);
+    }
+  }
+
+  /**
+   * Returns the bounds of the chunks of a file, each chunk but the last one
+   * ends with a line break
+   */
+  private static long[] split(final FileChannel channel) throws IOException {
+    final long size = channel.size();
+    final long count = Math.max(
+      (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE,
+      Math.min(
+        4L * ForkJoinPool.getCommonPoolParallelism(),
+        size / MIN_CHUNK_SIZE
+      )
+    );
+    final int n = (int) Math.max(1, count);
+    final long[] bounds = new long[n + 1];
+    bounds[n] = size;
+    for (int i = 1; i < n; i++) {
+      bounds[i] = nextLine(channel, Math.max(bounds[i - 1], i * (size / n)));
+    }
+    return bounds;
+  }
+
+  /**
+   * Returns the position after the next line break at or after the given
+   * position or the size of the file
+   */
+  private static long nextLine(final FileChannel channel, long position)
+    throws IOException {
+    final ByteBuffer window = ByteBuffer.allocate(4096);
+    while (true) {
+      window.clear();
+      final int n = channel.read(window, position);
+      if (n < 0) {
+        return channel.size();
+      }
+      for (int i = 0; i < n; i++) {
+        if (window.get(i) == '\n') {
+          return position + i + 1;
+        }
+      }
+      position += n;
+    }
+  }
+
+  /**
+   * Concatenates the content of the chunks of a file
+   */
+  private static OBJParser merge(
+    final float scale,
+    final Vec3 translate,
+    final OBJParser[] parts
+  ) {
+    long vertices = 0, uvs = 0, normals = 0, indices = 0;
+    boolean textured = false, shaded = false;
+    int lines = 0;
+    for (final OBJParser part : parts) {
+      if (part.failure != null) {
+        throw new IllegalArgumentException(
+          part.failure.what + " in line " + (lines + part.line) + "."
+        );
+      }
+      vertices += part.vertexCount;
+      uvs += part.uvCount;
+      normals += part.normalCount;
+      indices += part.indexCount;
+      textured |= part.uvIndices != null;
+      shaded |= part.normalIndices != null;
+      lines += part.line;
+    }
+    if (parts.length == 1) {
+      return parts[0];
+    }
+    if (
+      3 * Math.max(vertices, normals) > Integer.MAX_VALUE ||
+      2 * uvs > Integer.MAX_VALUE ||
+      indices > Integer.MAX_VALUE
+    ) {
+      throw new IllegalArgumentException("Too many vertices or faces.");
+    }
+
+    final OBJParser merged = new OBJParser(scale, translate);
+    merged.positions = new float[(int) (3 * vertices)];
+    merged.uvs = new float[(int) (2 * uvs)];
+    merged.normals = new float[(int) (3 * normals)];
+    merged.indices = new int[(int) indices];
+    merged.uvIndices = textured ? none((int) indices) : null;
+    merged.normalIndices = shaded ? none((int) indices) : null;
+    for (final OBJParser part : parts) {
+      System.arraycopy(
+        part.positions,
+        0,
+        merged.positions,
+        3 * merged.vertexCount,
+        3 * part.vertexCount
+      );
+      System.arraycopy(
+        part.uvs,
+        0,
+        merged.uvs,
+        2 * merged.uvCount,
+        2 * part.uvCount
+      );
+      System.arraycopy(
+        part.normals,
+        0,
+        merged.normals,
+        3 * merged.normalCount,
+        3 * part.normalCount
+      );
+      final int at = merged.indexCount;
+      copy(part.indices, merged.indices, at, part.indexCount);
+      copy(part.uvIndices, merged.uvIndices, at, part.indexCount);
+      copy(part.normalIndices, merged.normalIndices, at, part.indexCount);
+      for (int k = 0; k < part.relativeCount; k++) {
+        final int i = at + (int) (part.relative[k] >>> 2);
+        switch ((int) part.relative[k] & 3) {
+          case VERTEX:
+            merged.indices[i] += merged.vertexCount;
+            break;
+          case UV:
+            merged.uvIndices[i] += merged.uvCount;
+            break;
+          default:
+            merged.normalIndices[i] += merged.normalCount;
+        }
+      }
+      merged.vertexCount += part.vertexCount;
+      merged.uvCount += part.uvCount;
+      merged.normalCount += part.normalCount;
+      merged.indexCount += part.indexCount;
+      merged.line += part.line;
+    }
+    return merged;
+  }
+
+  private static void copy(
+    final int[] from,
+    final int[] to,
+    final int at,
+    final int length
+  ) {
+    if (from != null) {
+      System.arraycopy(from, 0, to, at, length);
+    }
+  }
+
+  private static int[] none(final int length) {
+    final int[] indices = new int[length];
+    Arrays.fill(indices, NONE);
+    return indices;
+  }
+
+  /**
+   * Parses the whole input. The stream is not closed.
+   *
+   * @param in
+   *            The OBJ data
+   * @throws IOException
+   *             If reading fails
+   * @throws IllegalArgumentException
+   *             If a vertex or face line is malformed
+   */
+  void parse(final InputStream in) throws IOException {
+    byte[] data = new byte[BUFFER_SIZE];
+    int length = 0;
+    int scanned = 0;
+    while (true) {
+      final int n = in.read(data, length, data.length - length);
+      if (n < 0) {
+        if (length > 0) {
+          parseLine(data, 0, length);
+        }
+        return;
+      }
+      length += n;
+
+      int start = 0;
+      for (int i = scanned; i < length; i++) {
+        if (data[i] == '\n') {
+          parseLine(data, start, i);
+          start = i + 1;
+        }
+      }
+      // keep the incomplete last line for the next block
+      length -= start;
+      System.arraycopy(data, start, data, 0, length);
+      scanned = length;
+      if (length == data.length) {
+        data = Arrays.copyOf(data, 2 * data.length);
+      }
+    }
+  }
+
+  /**
+   * Parses the line in the given range (without the line break)
+   */
+  void parseLine(final byte[] data, final int from, final int to) {
+    line++;
+    buf = data;
+    pos = from;
+    end = to > from && data[to - 1] == '\r' ? to - 1 : to;
+    skipSpace();
+    if (pos + 2 >= end) {
+      return;
+    }
+    if (buf[pos] == 'f' && isSpace(buf[pos + 1])) {
+      pos++;
+      parseFace();
+    } else if (buf[pos] != 'v') {
+      return;
+    } else if (isSpace(buf[pos + 1])) {
+      pos++;
+      final float x = nextFloat();
+      final float y = nextFloat();
+      final float z = nextFloat();
+      if (3 * vertexCount + 3 > positions.length) {
+        positions = Arrays.copyOf(positions, 2 * positions.length);
+      }
+      positions[3 * vertexCount] = x * scale + tx;
+      positions[3 * vertexCount + 1] = y * scale + ty;
+      positions[3 * vertexCount + 2] = z * scale + tz;
+      vertexCount++;
+    } else if (buf[pos + 1] == 't' && isSpace(buf[pos + 2])) {
+      pos += 2;
+      final float u = nextFloat();
+      skipSpace();
+      // the second (and third) coordinate is optional
+      final float v = pos < end ? nextFloat() : 0;
+      if (2 * uvCount + 2 > uvs.length) {
+        uvs = Arrays.copyOf(uvs, Math.max(2 * uvs.length, 2 * 1024));
+      }
+      uvs[2 * uvCount] = u;
+      uvs[2 * uvCount + 1] = v;
+      uvCount++;
+    } else if (buf[pos + 1] == 'n' && isSpace(buf[pos + 2])) {
+      pos += 2;
+      // a mirroring scale flips the normals
+      final float sign = scale < 0 ? -1 : 1;
+      if (3 * normalCount + 3 > normals.length) {
+        normals =
+          Arrays.copyOf(normals, Math.max(2 * normals.length, 3 * 1024));
+      }
+      for (int k = 0; k < 3; k++) {
+        normals[3 * normalCount + k] = sign * nextFloat();
+      }
+      normalCount++;
+    }
+  }
+
+  /**
+   * Parses the corners of a face and adds its triangles
+   */
+  private void parseFace() {
+    int count = 0;
+    boolean textured = false, shaded = false;
+    skipSpace();
+    while (pos < end && buf[pos] != '#') {
+      if (3 * count + 3 > corners.length) {
+        corners = Arrays.copyOf(corners, 2 * corners.length);
+        relativeCorners =
+          Arrays.copyOf(relativeCorners, 2 * relativeCorners.length);
+      }
+      final int at = 3 * count;
+      corners[at] = nextIndex(VERTEX, at);
+      corners[at + 1] = NONE;
+      corners[at + 2] = NONE;
+      if (pos < end && buf[pos] == '/') {
+        pos++;
+        if (pos < end && buf[pos] != '/') {
+          corners[at + 1] = nextIndex(UV, at + 1);
+          textured = true;
+        }
+        if (pos < end && buf[pos] == '/') {
+          pos++;
+          corners[at + 2] = nextIndex(NORMAL, at + 2);
+          shaded = true;
+        }
+      }
+      if (pos < end && !isSpace(buf[pos])) {
+        throw malformed("Malformed vertex index");
+      }
+      count++;
+      skipSpace();
+    }
+    if (count < 3) {
+      throw malformed("Face with less than three corners");
+    }
+
+    final int triangles = count - 2;
+    if (indexCount + 3 * triangles > indices.length) {
+      final int length = Math.max(
+        2 * indices.length,
+        indexCount + 3 * triangles
+      );
+      indices = Arrays.copyOf(indices, length);
+      if (uvIndices != null) {
+        uvIndices = grow(uvIndices, length);
+      }
+      if (normalIndices != null) {
+        normalIndices = grow(normalIndices, length);
+      }
+    }
+    if (textured && uvIndices == null) {
+      uvIndices = none(indices.length);
+    }
+    if (shaded && normalIndices == null) {
+      normalIndices = none(indices.length);
+    }
+    for (int k = 1; k <= triangles; k++) {
+      addCorner(0);
+      addCorner(k);
+      addCorner(k + 1);
+    }
+  }
+
+  private static int[] grow(final int[] indices, final int length) {
+    final int[] grown = Arrays.copyOf(indices, length);
+    Arrays.fill(grown, indices.length, length, NONE);
+    return grown;
+  }
+
+  private void addCorner(final int corner) {
+    final int at = 3 * corner;
+    indices[indexCount] = corners[at];
+    if (uvIndices != null) {
+      uvIndices[indexCount] = corners[at + 1];
+    }
+    if (normalIndices != null) {
+      normalIndices[indexCount] = corners[at + 2];
+    }
+    for (int kind = VERTEX; kind <= NORMAL; kind++) {
+      if (relativeCorners[at + kind] && corners[at + kind] != NONE) {
+        if (relativeCount == relative.length) {
+          relative = Arrays.copyOf(relative, 2 * relative.length);
+        }
+        relative[relativeCount++] = ((long) indexCount << 2) | kind;
+      }
+    }
+    indexCount++;
+  }
+
+  /**
+   * Returns the number of vertices parsed so far
+   *
+   * @return The number of vertices
+   */
+  int getVertexCount() {
+    return vertexCount;
+  }
+
+  /**
+   * Returns the given coordinate of a parsed vertex
+   *
+   * @param vertex
+   *            The index of the vertex
+   * @param dim
+   *            The coordinate (x=0, y=1, z=2)
+   * @return The transformed coordinate
+   */
+  float getCoordinate(final int vertex, final int dim) {
+    return positions[3 * vertex + dim];
+  }
+
+  /**
+   * Returns the number of triangles parsed so far
+   *
+   * @return The number of triangles
+   */
+  int getTriangleCount() {
+    return indexCount / 3;
+  }
+
+  /**
+   * Returns the (zero based) index of a corner of a parsed triangle
+   *
+   * @param tri
+   *            The index of the triangle
+   * @param corner
+   *            The corner (0, 1 or 2)
+   * @return The index of the vertex
+   */
+  int getIndex(final int tri, final int corner) {
+    return indices[3 * tri + corner];
+  }
+
+  /**
+   * Creates a triangle mesh of all parsed vertices and triangles. If the
+   * faces refer to texture coordinates or normals, the mesh has one vertex
+   * per distinct combination of position, texture coordinates and normal
+   * used by a corner. Vertices without a normal get a smooth one (see
+   * {@link TriangleMesh#withSmoothNormals()}), vertices without texture
+   * coordinates get (0, 0).
+   *
+   * @return The triangle mesh
+   * @throws IllegalArgumentException
+   *             If a face refers to a vertex, texture coordinate or normal
+   *             which does not exist
+   */
+  TriangleMesh toMesh() {
+    final float[] positions = Arrays.copyOf(this.positions, 3 * vertexCount);
+    final int[] indices = Arrays.copyOf(this.indices, indexCount);
+    if (uvIndices == null && normalIndices == null) {
+      return new TriangleMesh(positions, indices);
+    }
+
+    // the combinations sharing a position are chained, starting at first
+    final int[] first = new int[vertexCount];
+    Arrays.fill(first, -1);
+    final int[] next = new int[indexCount];
+    final int[] source = new int[indexCount];
+    final int[] mapped = new int[indexCount];
+    int count = 0;
+    for (int i = 0; i < indexCount; i++) {
+      final int v = indices[i];
+      final int vt = uvIndex(i);
+      final int vn = normalIndex(i);
+      if (v < 0 || v >= vertexCount) {
+        throw new IllegalArgumentException("Vertex index out of range.");
+      }
+      if (vt != NONE && (vt < 0 || vt >= uvCount)) {
+        throw new IllegalArgumentException(
+          "Texture coordinate index out of range."
+        );
+      }
+      if (vn != NONE && (vn < 0 || vn >= normalCount)) {
+        throw new IllegalArgumentException("Normal index out of range.");
+      }
+      int u = first[v];
+      while (
+        u >= 0 && (uvIndex(source[u]) != vt || normalIndex(source[u]) != vn)
+      ) {
+        u = next[u];
+      }
+      if (u < 0) {
+        u = count++;
+        source[u] = i;
+        next[u] = first[v];
+        first[v] = u;
+      }
+      mapped[i] = u;
+    }
+
+    final float[] meshPositions = new float[3 * count];
+    final float[] meshUVs = uvIndices != null ? new float[2 * count] : null;
+    final float[] meshNormals = normalIndices != null
+      ? new float[3 * count]
+      : null;
+    float[] smooth = null;
+    for (int u = 0; u < count; u++) {
+      final int i = source[u];
+      System.arraycopy(positions, 3 * indices[i], meshPositions, 3 * u, 3);
+      if (meshUVs != null && uvIndices[i] != NONE) {
+        System.arraycopy(uvs, 2 * uvIndices[i], meshUVs, 2 * u, 2);
+      }
+      if (meshNormals == null) {
+        continue;
+      }
+      if (normalIndices[i] != NONE) {
+        final int n = 3 * normalIndices[i];
+        final float length = (float) Math.sqrt(
+          normals[n] * normals[n] +
+          normals[n + 1] * normals[n + 1] +
+          normals[n + 2] * normals[n + 2]
+        );
+        for (int k = 0; k < 3; k++) {
+          meshNormals[3 * u + k] = length > 0 ? normals[n + k] / length : 0;
+        }
+      } else {
+        if (smooth == null) {
+          final TriangleMesh flat = new TriangleMesh(positions, indices);
+          smooth = flat.withSmoothNormals().getNormals();
+        }
+        System.arraycopy(smooth, 3 * indices[i], meshNormals, 3 * u, 3);
+      }
+    }
+    return new TriangleMesh(meshPositions, meshNormals, meshUVs, mapped);
+  }
+
+  private int uvIndex(final int i) {
+    return uvIndices != null ? uvIndices[i] : NONE;
+  }
+
+  private int normalIndex(final int i) {
+    return normalIndices != null ? normalIndices[i] : NONE;
+  }
+
+  private static boolean isSpace(final byte c) {
+    return c == ' ' || c == '\t';
+  }
+
+  private void skipSpace() {
+    while (pos < end && isSpace(buf[pos])) {
+      pos++;
+    }
+  }
+
+  private int tokenEnd() {
+    int p = pos;
+    while (p < end && !isSpace(buf[p])) {
+      p++;
+    }
+    return p;
+  }
+
+  private Malformed malformed(final String what) {
+    return new Malformed(what, line);
+  }
+
+  private float nextFloat() {
+    skipSpace();
+    if (pos >= end) {
+      throw malformed("Missing coordinate");
+    }
+    final int start = pos;
+    int p = pos;
+    boolean negative = false;
+    if (buf[p] == '-' || buf[p] == '+') {
+      negative = buf[p] == '-';
+      p++;
+    }
+
+    long mantissa = 0;
+    int exponent = 0;
+    boolean digits = false;
+    boolean exact = true;
+    while (p < end && buf[p] >= '0' && buf[p] <= '9') {
+      if (mantissa < MAX_MANTISSA) {
+        mantissa = 10 * mantissa + buf[p] - '0';
+      } else {
+        exact = false;
+      }
+      digits = true;
+      p++;
+    }
+    if (p < end && buf[p] == '.') {
+      p++;
+      while (p < end && buf[p] >= '0' && buf[p] <= '9') {
+        if (mantissa < MAX_MANTISSA) {
+          mantissa = 10 * mantissa + buf[p] - '0';
+          exponent--;
+        } else if (buf[p] != '0') {
+          exact = false;
+        }
+        digits = true;
+        p++;
+      }
+    }
+    if (digits && p < end && (buf[p] == 'e' || buf[p] == 'E')) {
+      p++;
+      boolean negativeExp = false;
+      if (p < end && (buf[p] == '-' || buf[p] == '+')) {
+        negativeExp = buf[p] == '-';
+        p++;
+      }
+      int exp = 0;
+      boolean expDigits = false;
+      while (p < end && buf[p] >= '0' && buf[p] <= '9') {
+        exp = Math.min(10 * exp + buf[p] - '0', 1000);
+        expDigits = true;
+        p++;
+      }
+      exact &= expDigits;
+      exponent += negativeExp ? -exp : exp;
+    }
+
+    if (
+      digits &&
+      exact &&
+      (p == end || isSpace(buf[p])) &&
+      mantissa <= MAX_MANTISSA &&
+      (mantissa == 0 || (exponent >= -10 && exponent <= 10))
+    ) {
+      pos = p;
+      float value = mantissa;
+      if (exponent < 0) {
+        value /= POWERS[-exponent];
+      } else if (exponent > 0) {
+        value *= POWERS[exponent];
+      }
+      return negative ? -value : value;
+    }
+
+    // everything else (long mantissas, large exponents, NaN, ...)
+    pos = tokenEnd();
+    return Float.parseFloat(
+      new String(buf, start, pos - start, StandardCharsets.US_ASCII)
+    );
+  }
+
+  /**
+   * Parses an index of the given kind and resolves it against the number of
+   * elements of the kind parsed so far
+   */
+  private int nextIndex(final int kind, final int corner) {
+    int p = pos;
+    boolean negative = false;
+    if (p < end && (buf[p] == '-' || buf[p] == '+')) {
+      negative = buf[p] == '-';
+      p++;
+    }
+    final int first = p;
+    long value = 0;
+    while (p < end && buf[p] >= '0' && buf[p] <= '9') {
+      value = Math.min(10 * value + buf[p] - '0', 1L << 32);
+      p++;
+    }
+    if (p == first || value == 0 || value > Integer.MAX_VALUE) {
+      throw malformed("Malformed vertex index");
+    }
+    pos = p;
+    relativeCorners[corner] = negative;
+    if (!negative) {
+      return (int) value - 1;
+    }
+    final int count = kind == VERTEX
+      ? vertexCount
+      : kind == UV ? uvCount : normalCount;
+    return count - (int) value;
+  }
+
+  /**
+   * A malformed line, the line number is the one within the parsed chunk
+   */
+  private static final class Malformed extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    final String what;
+    final int line;
+
+    Malformed(final String what, final int line) {
+      super(what + " in line " + line + ".");
+      this.what = what;
+      this.line = line;
+    }
+  }
+
+  /**
+   * Reads a (memory-mapped) buffer
+   */
+  private static final class BufferInput extends InputStream {
+
+    private final ByteBuffer buf;
+
+    BufferInput(final ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+      return buf.hasRemaining() ? buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+      if (!buf.hasRemaining()) {
+        return -1;
+      }
+      final int n = Math.min(len, buf.remaining());
+      buf.get(b, off, n);
+      return n;
+    }
+  }
+}
@@ -1,21 +1,32 @@
 package raytracer.core;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Locale;
-import java.util.Scanner;
+import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.stream.IntStream;
 import raytracer.core.def.Accelerator;
 import raytracer.core.def.StandardObj;
+import raytracer.geom.BBox;
 import raytracer.geom.GeomFactory;
 import raytracer.geom.Primitive;
+import raytracer.geom.TriangleMesh;
 import raytracer.math.Point;
 import raytracer.math.Vec3;
 
 /**
- * Represents a model file reader for the OBJ format
+ * Represents a model file reader for the OBJ format. The data is parsed
+ * directly from the bytes of the stream, see {@link OBJParser}; files are
+ * memory-mapped and parsed in parallel chunks. An error while reading the
+ * data is rethrown as {@link UncheckedIOException}.
+ * <p>
+ * Polygons are split into triangles. {@link #read(String, Accelerator,
+ * Shader, float, Vec3)} creates a triangle per face from the vertex
+ * positions only, whereas the meshes created by {@link #readMesh(String,
+ * float, Vec3)} also carry the normals and texture coordinates of the faces.
  */
 public class OBJReader {
 
@@ -48,13 +59,23 @@ public class OBJReader {
     final float scale,
     final Vec3 translate
   ) throws FileNotFoundException {
-    read(
-      new BufferedInputStream(new FileInputStream(filename)),
-      accelerator,
-      shader,
-      scale,
-      translate
-    );
+    if (
+      filename == null ||
+      filename.isEmpty() ||
+      accelerator == null ||
+      shader == null ||
+      translate == null
+    ) {
+      throw new IllegalArgumentException(
+        "Filename cannot be empty and no argument can be null."
+      );
+    }
+    if (!Float.isFinite(scale) || !translate.isFinite()) {
+      throw new IllegalArgumentException(
+        "Scale and translate vector must be finite."
+      );
+    }
+    add(parse(filename, scale, translate), accelerator, shader);
   }
 
   /**
@@ -99,32 +120,174 @@ public class OBJReader {
         "scale ya translate vector mai se koi to finite nahi hai"
       );
     }
-    // yahan or humne ek vertuces kind if vbana li hai aone traingle ki
-    // aur usko scan kraya hai
-    ArrayList<Point> apex = new ArrayList<>();
-    Scanner myscanner = new Scanner(in);
-    myscanner.useLocale(Locale.ENGLISH);
+    add(parse(in, scale, translate), accelerator, shader);
+  }
 
-    // is loop se scanner se jo ear ek line aarahi hai usko lo ,a ur appropriate operation perform karo uspr
-    while (myscanner.hasNextLine()) {
-      String line = myscanner.nextLine();
-      if (line.startsWith("v ")) {
-        String[] coords = line.split(" ");
-        float x = Float.parseFloat(coords[1]) * scale + translate.x();
-        float y = Float.parseFloat(coords[2]) * scale + translate.y();
-        float z = Float.parseFloat(coords[3]) * scale + translate.z();
-        apex.add(new Point(x, y, z));
-      } else if (line.startsWith("f ")) {
-        String[] indices = line.split(" ");
-        Point a = apex.get(Integer.parseInt(indices[1]) - 1);
-        Point b = apex.get(Integer.parseInt(indices[2]) - 1);
-        Point c = apex.get(Integer.parseInt(indices[3]) - 1);
-        Primitive mytriangle = GeomFactory.createTriangle(a, b, c);
-        Obj obj = new StandardObj(mytriangle, shader);
-        accelerator.add(obj);
+  /**
+   * Creates one point per vertex and one triangle per face (in parallel) and
+   * adds all triangles along with their bounding boxes to the accelerator at
+   * once
+   */
+  private static void add(
+    final OBJParser parser,
+    final Accelerator accelerator,
+    final Shader shader
+  ) {
+    final int vertexCount = parser.getVertexCount();
+    final int triangleCount = parser.getTriangleCount();
+    for (int i = 0; i < triangleCount; i++) {
+      for (int k = 0; k < 3; k++) {
+        final int index = parser.getIndex(i, k);
+        if (index < 0 || index >= vertexCount) {
+          throw new IllegalArgumentException(
+            "Face " + (i + 1) + " refers to a vertex which does not exist."
+          );
+        }
       }
     }
 
-    myscanner.close();
+    final Point[] apex = new Point[vertexCount];
+    IntStream
+      .range(0, vertexCount)
+      .parallel()
+      .forEach(i ->
+        apex[i] =
+          new Point(
+            parser.getCoordinate(i, 0),
+            parser.getCoordinate(i, 1),
+            parser.getCoordinate(i, 2)
+          )
+      );
+    final Obj[] triangles = new Obj[triangleCount];
+    final float[] bounds = new float[6 * triangleCount];
+    IntStream
+      .range(0, triangleCount)
+      .parallel()
+      .forEach(i -> {
+        final Primitive mytriangle = GeomFactory.createTriangle(
+          apex[parser.getIndex(i, 0)],
+          apex[parser.getIndex(i, 1)],
+          apex[parser.getIndex(i, 2)]
+        );
+        triangles[i] = new StandardObj(mytriangle, shader);
+        final BBox box = mytriangle.bbox();
+        for (int d = 0; d < 3; d++) {
+          bounds[6 * i + d] = box.getMin().get(d);
+          bounds[6 * i + 3 + d] = box.getMax().get(d);
+        }
+      });
+    accelerator.addAll(triangles, bounds, triangleCount);
+  }
+
+  /**
+   * Parses a file in parallel chunks
+   */
+  private static OBJParser parse(
+    final String filename,
+    final float scale,
+    final Vec3 translate
+  ) throws FileNotFoundException {
+    try {
+      return OBJParser.parse(Paths.get(filename), scale, translate);
+    } catch (final NoSuchFileException | AccessDeniedException e) {
+      final FileNotFoundException notFound = new FileNotFoundException(
+        filename
+      );
+      notFound.initCause(e);
+      throw notFound;
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Parses the whole stream and closes it
+   */
+  private static OBJParser parse(
+    final InputStream in,
+    final float scale,
+    final Vec3 translate
+  ) {
+    final OBJParser parser = new OBJParser(scale, translate);
+    try (InputStream stream = in) {
+      parser.parse(stream);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return parser;
+  }
+
+  /**
+   * Reads an OBJ file into a triangle mesh. Unlike {@link #read(String,
+   * Accelerator, Shader, float, Vec3)} no object is created per vertex or
+   * triangle, the coordinates and indices are stored in flat arrays. If the
+   * faces refer to normals or texture coordinates, the mesh has a vertex per
+   * distinct combination of position, normal and texture coordinates.
+   *
+   * @param filename
+   *            The file to read the data from
+   * @param scale
+   *            The scale factor which is responsible for scaling the model
+   * @param translate
+   *            A vector representing the translation coordinate with which
+   *            all coordinates have to be translated
+   * @return The triangle mesh
+   * @throws IllegalArgumentException
+   *             If the filename is null or the empty string, the translate
+   *             vector is null, the translate vector is not finite or scale
+   *             does not represent a legal (finite) floating point number
+   */
+  public static TriangleMesh readMesh(
+    final String filename,
+    final float scale,
+    final Vec3 translate
+  ) throws FileNotFoundException {
+    if (filename == null || filename.isEmpty() || translate == null) {
+      throw new IllegalArgumentException(
+        "Filename cannot be empty and translate vector cannot be null."
+      );
+    }
+    if (!Float.isFinite(scale) || !translate.isFinite()) {
+      throw new IllegalArgumentException(
+        "Scale and translate vector must be finite."
+      );
+    }
+    return parse(filename, scale, translate).toMesh();
+  }
+
+  /**
+   * Reads an OBJ file into a triangle mesh
+   *
+   * @param in
+   *            The InputStream of the data to be read.
+   * @param scale
+   *            The scale factor which is responsible for scaling the model
+   * @param translate
+   *            A vector representing the translation coordinate with which
+   *            all coordinates have to be translated
+   * @return The triangle mesh
+   * @throws IllegalArgumentException
+   *             If the InputStream is null, the translate vector is null, the
+   *             translate vector is not finite, scale does not represent a
+   *             legal (finite) floating point number or a face refers to a
+   *             vertex which does not exist
+   */
+  public static TriangleMesh readMesh(
+    final InputStream in,
+    final float scale,
+    final Vec3 translate
+  ) {
+    if (in == null || translate == null) {
+      throw new IllegalArgumentException(
+        "InputStream and translate vector cannot be null."
+      );
+    }
+    if (!Float.isFinite(scale) || !translate.isFinite()) {
+      throw new IllegalArgumentException(
+        "Scale and translate vector must be finite."
+      );
+    }
+
+    return parse(in, scale, translate).toMesh();
   }
 }
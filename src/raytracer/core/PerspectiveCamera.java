@@ -4,6 +4,7 @@ import raytracer.math.ONB;
 import raytracer.math.Point;
 import raytracer.math.Ray;
 import raytracer.math.Vec3;
+import raytracer.math.VecMath;
 
 /**
  * A perspective field of view camera
@@ -64,8 +65,13 @@ public class PerspectiveCamera implements Camera {
 	 */
 	@Override
 	public Ray cast(final float x, final float y) {
-		final Point pixel = corner.combine(x, across).combine(y, up);
-		final Vec3 /* normalized */dir = pixel.sub(pos).normalized();
+		// corner.combine(x, across).combine(y, up).sub(pos).normalized()
+		final float dx = corner.x() + x * across.x() + y * up.x() - pos.x();
+		final float dy = corner.y() + x * across.y() + y * up.y() - pos.y();
+		final float dz = corner.z() + x * across.z() + y * up.z() - pos.z();
+		final float factor = 1.0f / VecMath.norm(dx, dy, dz);
+		final Vec3 /* normalized */dir = new Vec3(factor * dx, factor * dy,
+				factor * dz);
 		return new Ray(pos, dir);
 	}
 
@@ -0,0 +1,270 @@
+package raytracer.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects statistics of a render: the rays traced per generation, the shadow
+ * rays, the hits, the work done by the accelerators and the wall time of
+ * every tile. The counters are LongAdders, so the render threads update them
+ * without contending.
+ * <p>
+ * Collecting is off unless the system property {@value #PROPERTY} is set to
+ * true. The property is read once, so every call site guarded by
+ * {@link #ENABLED} is removed by the JIT compiler when collecting is off. The
+ * traversals of the accelerators count in local variables and add them once
+ * per ray.
+ */
+public final class RenderStats implements RenderStatsMBean {
+
+	/**
+	 * The system property enabling the statistics
+	 */
+	public static final String PROPERTY = "raytracer.stats";
+
+	/**
+	 * Whether the statistics are collected
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+	/**
+	 * The name the statistics are registered with at the platform MBean server
+	 */
+	public static final String OBJECT_NAME = "raytracer:type=RenderStats";
+
+	private static final RenderStats INSTANCE = new RenderStats();
+
+	private final LongAdder[] rays = new LongAdder[Trace.DEPTH + 1];
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder shadowRays = new LongAdder();
+	private final LongAdder occluded = new LongAdder();
+	private final LongAdder nodes = new LongAdder();
+	private final LongAdder boxTests = new LongAdder();
+	private final LongAdder primitiveTests = new LongAdder();
+	private final LongAdder tileNanos = new LongAdder();
+	private final LongAccumulator maxTileNanos = new LongAccumulator(Math::max, 0);
+	/** x, y, width, height and wall time in nanoseconds of every tile */
+	private final Queue<long[]> tiles = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Creates new statistics with all counters zero. The renderer only
+	 * updates the shared statistics returned by {@link #get()}.
+	 */
+	public RenderStats() {
+		for (int gen = 0; gen < rays.length; gen++)
+			rays[gen] = new LongAdder();
+	}
+
+	/**
+	 * Returns the statistics updated by the renderer
+	 *
+	 * @return The shared statistics
+	 */
+	public static RenderStats get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Counts a traced ray
+	 *
+	 * @param gen
+	 *            The generation of the ray
+	 * @param hit
+	 *            Whether the ray hit anything
+	 */
+	public void ray(final int gen, final boolean hit) {
+		rays[gen].increment();
+		if (hit)
+			hits.increment();
+	}
+
+	/**
+	 * Counts a shadow ray
+	 *
+	 * @param blocked
+	 *            Whether the ray was blocked
+	 */
+	public void shadowRay(final boolean blocked) {
+		shadowRays.increment();
+		if (blocked)
+			occluded.increment();
+	}
+
+	/**
+	 * Adds the work of a traversal of an accelerator
+	 *
+	 * @param visited
+	 *            The number of visited nodes
+	 * @param boxes
+	 *            The number of ray/box tests
+	 * @param primitives
+	 *            The number of ray/object tests
+	 */
+	public void traversal(final long visited, final long boxes, final long primitives) {
+		nodes.add(visited);
+		boxTests.add(boxes);
+		primitiveTests.add(primitives);
+	}
+
+	/**
+	 * Counts a rendered tile
+	 *
+	 * @param work
+	 *            The rendered tile
+	 * @param nanos
+	 *            The wall time spent on the tile in nanoseconds
+	 */
+	public void tile(final Renderer.Work work, final long nanos) {
+		tileNanos.add(nanos);
+		maxTileNanos.accumulate(nanos);
+		tiles.add(new long[] { work.x, work.y, work.w, work.h, nanos });
+	}
+
+	@Override
+	public long getPrimaryRays() {
+		return rays[0].sum();
+	}
+
+	@Override
+	public long getSecondaryRays() {
+		long sum = 0;
+		for (int gen = 1; gen < rays.length; gen++)
+			sum += rays[gen].sum();
+		return sum;
+	}
+
+	@Override
+	public long[] getRaysByGeneration() {
+		final long[] res = new long[rays.length];
+		for (int gen = 0; gen < rays.length; gen++)
+			res[gen] = rays[gen].sum();
+		return res;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getShadowRays() {
+		return shadowRays.sum();
+	}
+
+	@Override
+	public long getOccludedShadowRays() {
+		return occluded.sum();
+	}
+
+	@Override
+	public long getNodesVisited() {
+		return nodes.sum();
+	}
+
+	@Override
+	public long getBoxTests() {
+		return boxTests.sum();
+	}
+
+	@Override
+	public long getPrimitiveTests() {
+		return primitiveTests.sum();
+	}
+
+	@Override
+	public long getTiles() {
+		return tiles.size();
+	}
+
+	@Override
+	public double getTileMillis() {
+		return tileNanos.sum() / 1e6;
+	}
+
+	@Override
+	public double getMaxTileMillis() {
+		return maxTileNanos.get() / 1e6;
+	}
+
+	@Override
+	public void reset() {
+		for (final LongAdder adder : rays)
+			adder.reset();
+		hits.reset();
+		shadowRays.reset();
+		occluded.reset();
+		nodes.reset();
+		boxTests.reset();
+		primitiveTests.reset();
+		tileNanos.reset();
+		maxTileNanos.reset();
+		tiles.clear();
+	}
+
+	/**
+	 * Registers the statistics at the platform MBean server under
+	 * {@value #OBJECT_NAME}, unless they already are
+	 *
+	 * @throws JMException
+	 *             If the registration fails
+	 */
+	public void register() throws JMException {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = new ObjectName(OBJECT_NAME);
+		if (!server.isRegistered(name))
+			server.registerMBean(this, name);
+	}
+
+	/**
+	 * Returns the statistics as a JSON object. The tiles are listed row by
+	 * row with their wall time in milliseconds.
+	 *
+	 * @return The statistics as JSON
+	 */
+	public String toJson() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"rays\": {\n    \"primary\": ").append(getPrimaryRays());
+		sb.append(",\n    \"secondary\": ").append(getSecondaryRays());
+		sb.append(",\n    \"byGeneration\": [");
+		final long[] byGen = getRaysByGeneration();
+		for (int gen = 0; gen < byGen.length; gen++)
+			sb.append(gen == 0 ? "" : ", ").append(byGen[gen]);
+		sb.append("],\n    \"shadow\": ").append(getShadowRays());
+		sb.append(",\n    \"occludedShadow\": ").append(getOccludedShadowRays());
+		sb.append("\n  },\n  \"hits\": ").append(getHits());
+		sb.append(",\n  \"nodesVisited\": ").append(getNodesVisited());
+		sb.append(",\n  \"boxTests\": ").append(getBoxTests());
+		sb.append(",\n  \"primitiveTests\": ").append(getPrimitiveTests());
+
+		final List<long[]> sorted = new ArrayList<>(tiles);
+		sorted.sort(Comparator.<long[]> comparingLong(t -> t[1]).thenComparingLong(t -> t[0]));
+		sb.append(",\n  \"tiles\": {\n    \"count\": ").append(sorted.size());
+		sb.append(",\n    \"totalMillis\": ").append(millis(tileNanos.sum()));
+		sb.append(",\n    \"maxMillis\": ").append(millis(maxTileNanos.get()));
+		sb.append(",\n    \"times\": [");
+		for (int i = 0; i < sorted.size(); i++) {
+			final long[] t = sorted.get(i);
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("      { \"x\": ").append(t[0]).append(", \"y\": ").append(t[1]);
+			sb.append(", \"w\": ").append(t[2]).append(", \"h\": ").append(t[3]);
+			sb.append(", \"millis\": ").append(millis(t[4])).append(" }");
+		}
+		sb.append(sorted.isEmpty() ? "]" : "\n    ]").append("\n  }\n}");
+		return sb.toString();
+	}
+
+	private static String millis(final long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+}
@@ -0,0 +1,97 @@
+package raytracer.core;
+
+/**
+ * The management interface of {@link RenderStats}, exposing the counters as
+ * read only attributes
+ */
+public interface RenderStatsMBean {
+
+	/**
+	 * Returns the number of primary rays (generation 0)
+	 *
+	 * @return The number of primary rays
+	 */
+	long getPrimaryRays();
+
+	/**
+	 * Returns the number of rays spawned by shaders (generation 1 and above)
+	 *
+	 * @return The number of spawned rays
+	 */
+	long getSecondaryRays();
+
+	/**
+	 * Returns the number of rays of every generation, indexed by generation
+	 *
+	 * @return The number of rays per generation
+	 */
+	long[] getRaysByGeneration();
+
+	/**
+	 * Returns the number of primary and spawned rays which hit anything
+	 *
+	 * @return The number of hits
+	 */
+	long getHits();
+
+	/**
+	 * Returns the number of shadow rays
+	 *
+	 * @return The number of shadow rays
+	 */
+	long getShadowRays();
+
+	/**
+	 * Returns the number of shadow rays which were blocked
+	 *
+	 * @return The number of blocked shadow rays
+	 */
+	long getOccludedShadowRays();
+
+	/**
+	 * Returns the number of hierarchy nodes visited
+	 *
+	 * @return The number of visited nodes
+	 */
+	long getNodesVisited();
+
+	/**
+	 * Returns the number of ray/box tests
+	 *
+	 * @return The number of box tests
+	 */
+	long getBoxTests();
+
+	/**
+	 * Returns the number of ray/object tests in the accelerators
+	 *
+	 * @return The number of primitive tests
+	 */
+	long getPrimitiveTests();
+
+	/**
+	 * Returns the number of rendered tiles
+	 *
+	 * @return The number of tiles
+	 */
+	long getTiles();
+
+	/**
+	 * Returns the wall time spent in all tiles in milliseconds
+	 *
+	 * @return The summed wall time of the tiles
+	 */
+	double getTileMillis();
+
+	/**
+	 * Returns the wall time of the slowest tile in milliseconds
+	 *
+	 * @return The wall time of the slowest tile
+	 */
+	double getMaxTileMillis();
+
+	/**
+	 * Resets all counters
+	 */
+	void reset();
+}
@@ -1,5 +1,6 @@
 package raytracer.core;
 
+import java.util.Arrays;
 import java.util.concurrent.Callable;
 
 import raytracer.math.Color;
@@ -10,9 +11,16 @@ import raytracer.math.Ray;
  */
 public class Renderer {
 
+	/**
+	 * The edge length of the blocks of pixels whose primary rays are traced
+	 * together as one packet
+	 */
+	public static final int PACKET_SIZE = 4;
+
 	private final Scene scene;
 	private final Camera cam;
-	private final int superSample;
+	private final int xRes, yRes, superSample;
+	private final float threshold;
 	private final float dx, dy, sdx, sdy;
 
 	/**
@@ -28,15 +36,55 @@ public class Renderer {
 	 *            The amount of sumper sampling to use
 	 */
 	public Renderer(final Scene scene, final int xRes, final int yRes, final int superSample) {
+		this(scene, xRes, yRes, superSample, 0);
+	}
+
+	/**
+	 * Creates a new renderer which supersamples adaptively. Every pixel is
+	 * first sampled at the corners of its supersampling grid; the remaining
+	 * samples are only traced if the standard deviation of these samples or
+	 * the difference to the first estimate of a neighbouring pixel of the same
+	 * tile exceeds the threshold in any color channel.
+	 *
+	 * @param scene
+	 *            The scene to render
+	 * @param xRes
+	 *            The X target resolution to render the image with
+	 * @param yRes
+	 *            The Y target resolution to render the image with
+	 * @param superSample
+	 *            The maximum amount of super sampling to use
+	 * @param threshold
+	 *            The contrast (between 0 and 1) above which a pixel is
+	 *            refined, 0 traces all samples of every pixel
+	 * @throws IllegalArgumentException
+	 *             If the threshold is negative or not a number
+	 */
+	public Renderer(final Scene scene, final int xRes, final int yRes, final int superSample,
+			final float threshold) {
+		if (!(threshold >= 0))
+			throw new IllegalArgumentException("Threshold must not be negative.");
 		this.scene = scene;
 		this.cam = scene.getCamera();
+		this.xRes = xRes;
+		this.yRes = yRes;
 		this.superSample = superSample;
+		this.threshold = threshold;
 		this.dx = 1.0f / xRes;
 		this.dy = 1.0f / yRes;
 		this.sdx = dx / superSample;
 		this.sdy = dy / superSample;
 	}
 
+	/**
+	 * Returns whether the renderer supersamples adaptively
+	 *
+	 * @return True if pixels are refined depending on their first samples
+	 */
+	public boolean isAdaptive() {
+		return threshold > 0 && superSample > 1;
+	}
+
 	/**
 	 * Represents a work instance containing data to compute a part of an image.
 	 * The idea of the work class is to split the actual rendering task into
@@ -47,12 +95,41 @@ public class Renderer {
 		public final int[] pixels;
 		public final int x, y, w, h;
 
+		/**
+		 * The colors of the pixels before they are quantized to 8 bits per
+		 * channel, three floats (red, green, blue) per pixel
+		 */
+		public final float[] colors;
+
+		/**
+		 * The number of primary rays traced for this work (including the
+		 * first samples adaptive supersampling takes of the pixels bordering
+		 * the work) and the number of primary rays of its pixels adaptive
+		 * supersampling did not need to trace
+		 */
+		public int rays, savedRays;
+
 		public Work(final int x, final int y, final int w, final int h) {
 			this.x = x;
 			this.y = y;
 			this.w = w;
 			this.h = h;
 			this.pixels = new int[w * h];
+			this.colors = new float[3 * w * h];
+		}
+
+		/**
+		 * Stores the color of the given pixel
+		 *
+		 * @param p
+		 *            The index of the pixel (row * width + column)
+		 * @param c
+		 *            The color of the pixel
+		 */
+		public void set(final int p, final Color c) {
+			pixels[p] = c.rgb();
+			for (int d = 0; d < 3; d++)
+				colors[3 * p + d] = c.get(d);
 		}
 	}
 
@@ -75,37 +152,190 @@ public class Renderer {
 		return new Callable<Work>() {
 			@Override
 			public Work call() throws Exception {
-				final Work work = new Work(sx, sy, w, h);
-				int ofs = 0;
-				float bx = sx * dx;
-				float by = sy * dy;
-				for (int y = 0; y < h; y++) {
-					bx = sx * dx;
-					for (int x = 0; x < w; x++) {
-
-						Color res = Color.BLACK;
-						int n = 0;
-						float suy = by - superSample / 2.0f * sdy;
-						for (int j = 0; j < superSample; j++) {
-							float sux = bx - superSample / 2.0f * sdx;
-							for (int i = 0; i < superSample; i++) {
-								final Ray r = cam.cast(sux, suy);
-								final Trace trace = Trace.primary(scene, r);
-								final Color c = trace.shade();
-								res = res.avg(c, n);
-								sux += sdx;
-								n++;
-							}
-							suy += sdy;
+				return renderTile(sx, sy, w, h);
+			}
+		};
+	}
+
+	/**
+	 * Renders the given part of the image in the calling thread
+	 *
+	 * @param sx
+	 *            The x point to start
+	 * @param sy
+	 *            The y point to start
+	 * @param w
+	 *            The width to use
+	 * @param h
+	 *            The height to use
+	 * @return The rendered work
+	 */
+	public Work renderTile(final int sx, final int sy, final int w, final int h) {
+		final long start = RenderStats.ENABLED ? System.nanoTime() : 0;
+		final Work work = isAdaptive() ? renderAdaptive(sx, sy, w, h)
+				: renderUniform(sx, sy, w, h);
+		if (RenderStats.ENABLED)
+			RenderStats.get().tile(work, System.nanoTime() - start);
+		return work;
+	}
+
+	private Work renderUniform(final int sx, final int sy, final int w, final int h) {
+		final Work work = new Work(sx, sy, w, h);
+		work.rays = w * h * superSample * superSample;
+		final Ray[] rays = new Ray[PACKET_SIZE * PACKET_SIZE];
+		final HitRecord[] records = new HitRecord[rays.length];
+		final Color[] res = new Color[rays.length];
+		for (int k = 0; k < records.length; k++)
+			records[k] = new HitRecord();
+
+		// the same sample of a block of pixels is traced as one packet
+		for (int py = 0; py < h; py += PACKET_SIZE) {
+			final int ph = Math.min(PACKET_SIZE, h - py);
+			for (int px = 0; px < w; px += PACKET_SIZE) {
+				final int pw = Math.min(PACKET_SIZE, w - px);
+				final int count = pw * ph;
+				Arrays.fill(res, 0, count, Color.BLACK);
+				int n = 0;
+				for (int j = 0; j < superSample; j++) {
+					for (int i = 0; i < superSample; i++) {
+						for (int k = 0; k < count; k++) {
+							rays[k] = cam.cast(sampleX(sx + px + k % pw, i),
+									sampleY(sy + py + k / pw, j));
+							records[k].reset();
+						}
+						scene.intersect(rays, count, records);
+						for (int k = 0; k < count; k++) {
+							final Color c = Trace.intersected(scene, rays[k], records[k]).shade();
+							res[k] = res[k].avg(c, n);
 						}
-						work.pixels[ofs++] = res.rgb();
-						bx += dx;
+						n++;
 					}
-					by += dy;
 				}
-				return work;
+				for (int k = 0; k < count; k++)
+					work.set((py + k / pw) * w + px + k % pw, res[k]);
 			}
-		};
+		}
+		return work;
+	}
+
+	private Work renderAdaptive(final int sx, final int sy, final int w, final int h) {
+		final Work work = new Work(sx, sy, w, h);
+		final HitRecord record = new HitRecord();
+		final int last = superSample - 1;
+		// the corners of the grid, only the diagonal ones for 2x2
+		final int[] first = superSample == 2 ? new int[] { 0, 0, 1, 1 }
+				: new int[] { 0, 0, last, 0, 0, last, last, last };
+		final int firstCount = first.length / 2;
+
+		// first estimate of every pixel and of the pixels bordering the tile
+		// (without the corners), so pixels on the edge are compared with the
+		// same neighbours as inner ones and the result does not depend on the
+		// tiling
+		final int aw = w + 2;
+		final float[] sum = new float[3 * w * h];
+		final float[] mean = new float[3 * aw * (h + 2)];
+		final boolean[] known = new boolean[aw * (h + 2)];
+		final boolean[] refine = new boolean[w * h];
+		final float[] s = new float[3];
+		final float[] sq = new float[3];
+		int apron = 0;
+		for (int y = -1; y <= h; y++) {
+			for (int x = -1; x <= w; x++) {
+				final boolean inner = x >= 0 && x < w && y >= 0 && y < h;
+				if (!inner && (x < 0 || x == w) && (y < 0 || y == h)
+						|| sx + x < 0 || sx + x >= xRes || sy + y < 0 || sy + y >= yRes)
+					continue;
+				s[0] = s[1] = s[2] = 0;
+				sq[0] = sq[1] = sq[2] = 0;
+				for (int k = 0; k < first.length; k += 2) {
+					final Color c = sample(sx + x, sy + y, first[k], first[k + 1], record);
+					for (int d = 0; d < 3; d++) {
+						final float v = c.get(d);
+						s[d] += v;
+						sq[d] += v * v;
+					}
+				}
+				final int a = (y + 1) * aw + x + 1;
+				known[a] = true;
+				for (int d = 0; d < 3; d++) {
+					final float m = s[d] / firstCount;
+					mean[3 * a + d] = m;
+					if (inner) {
+						sum[3 * (y * w + x) + d] = s[d];
+						if (sq[d] / firstCount - m * m > threshold * threshold)
+							refine[y * w + x] = true;
+					}
+				}
+				if (!inner)
+					apron++;
+			}
+		}
+
+		// refine noisy pixels and pixels differing from their neighbours
+		int rays = w * h * firstCount;
+		for (int y = 0, p = 0; y < h; y++) {
+			for (int x = 0; x < w; x++, p++) {
+				final int a = (y + 1) * aw + x + 1;
+				int n = firstCount;
+				if (refine[p] || differs(mean, known, a, a - 1) || differs(mean, known, a, a + 1)
+						|| differs(mean, known, a, a - aw) || differs(mean, known, a, a + aw)) {
+					for (int j = 0; j < superSample; j++) {
+						for (int i = 0; i < superSample; i++) {
+							if ((i == 0 || i == last) && (j == 0 || j == last)
+									&& (superSample != 2 || i == j))
+								continue;
+							final Color c = sample(sx + x, sy + y, i, j, record);
+							for (int d = 0; d < 3; d++)
+								sum[3 * p + d] += c.get(d);
+							n++;
+						}
+					}
+					rays += n - firstCount;
+				}
+				work.set(p, new Color(sum[3 * p] / n, sum[3 * p + 1] / n,
+						sum[3 * p + 2] / n));
+			}
+		}
+
+		work.rays = rays + apron * firstCount;
+		work.savedRays = w * h * superSample * superSample - rays;
+		return work;
+	}
+
+	private boolean differs(final float[] mean, final boolean[] known, final int p,
+			final int q) {
+		if (!known[q])
+			return false;
+		for (int d = 0; d < 3; d++) {
+			if (Math.abs(mean[3 * p + d] - mean[3 * q + d]) > threshold)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Traces the sample (i, j) of the supersampling grid of the given pixel
+	 */
+	private Color sample(final int px, final int py, final int i, final int j,
+			final HitRecord record) {
+		return Trace.primary(scene, cam.cast(sampleX(px, i), sampleY(py, j)), record).shade();
+	}
+
+	/**
+	 * Returns the x position of the column i of the supersampling grid of
+	 * the given pixel, computed per sample so the result does not depend on
+	 * the tiling
+	 */
+	private float sampleX(final int px, final int i) {
+		return px * dx - superSample / 2.0f * sdx + i * sdx;
+	}
+
+	/**
+	 * Returns the y position of the row j of the supersampling grid of the
+	 * given pixel
+	 */
+	private float sampleY(final int py, final int j) {
+		return py * dy - superSample / 2.0f * sdy + j * sdy;
 	}
 
 }
@@ -40,4 +40,54 @@ public interface Scene {
 	 */
 	Hit hit(Ray ray);
 
+	/**
+	 * Computes the nearest intersection (if possible) of the given ray with
+	 * the scene and stores it in the record instead of creating a hit
+	 *
+	 * @param ray
+	 *            The ray used for intersection computation
+	 * @param rec
+	 *            The (empty) record receiving the hit
+	 * @return True if anything is hit
+	 */
+	default boolean intersect(final Ray ray, final HitRecord rec) {
+		final Hit hit = hit(ray);
+		if (!hit.hits())
+			return false;
+		rec.set(hit);
+		return true;
+	}
+
+	/**
+	 * Computes the nearest intersections of a packet of rays with the scene
+	 * and stores them in the records. Coherent rays (e.g. neighbouring primary
+	 * rays) may share the traversal of the acceleration structure.
+	 *
+	 * @param rays
+	 *            The rays used for intersection computation
+	 * @param count
+	 *            The number of rays (and records) to use
+	 * @param recs
+	 *            The (empty) records receiving the hits, one per ray
+	 */
+	default void intersect(final Ray[] rays, final int count, final HitRecord[] recs) {
+		for (int k = 0; k < count; k++)
+			intersect(rays[k], recs[k]);
+	}
+
+	/**
+	 * Checks whether the given ray intersects anything in the scene within the
+	 * given distances. This is meant for visibility queries (e.g. shadow rays)
+	 * where any intersection suffices.
+	 *
+	 * @param ray
+	 *            The ray used for intersection computation
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return True if there is any intersection within the distances
+	 */
+	boolean occluded(Ray ray, float tmin, float tmax);
+
 }
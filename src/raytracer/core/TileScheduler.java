@@ -0,0 +1,298 @@
+package raytracer.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Distributes the tiles of an image over a fork/join pool. The tiles are
+ * visited along a Hilbert curve so neighbouring tiles (which mostly touch the
+ * same geometry) are rendered close in time. Ranges of tiles are split
+ * recursively and stolen by idle workers; an expensive tile which is started
+ * while other workers run out of work is subdivided further, so such tiles at
+ * the end of a frame do not stall its completion. A tile counts as expensive
+ * if the time per pixel measured on the tiles finished so far predicts at
+ * least {@value #SPLIT_NANOS} nanoseconds for it. Tiles of a renderer
+ * supersampling adaptively are never subdivided, so its result does not
+ * depend on the schedule.
+ */
+public class TileScheduler {
+
+	/**
+	 * The default edge length of a tile
+	 */
+	public static final int DEFAULT_TILE_SIZE = 16;
+
+	/**
+	 * Tiles are never subdivided below this edge length
+	 */
+	public static final int MIN_TILE_SIZE = 4;
+
+	/**
+	 * The predicted time in nanoseconds above which a tile is subdivided
+	 */
+	public static final long SPLIT_NANOS = 1000000;
+
+	/**
+	 * The system property overriding the default number of threads
+	 */
+	public static final String THREADS_PROPERTY = "raytracer.threads";
+
+	private final Renderer renderer;
+	private final int xRes, yRes, tileSize, threads;
+	private final int[] tiles;
+	/** The time spent on finished tiles and their number of pixels */
+	private final LongAdder nanos = new LongAdder(), pixels = new LongAdder();
+
+	/**
+	 * Creates a new tile scheduler using the default tile size and number of
+	 * threads
+	 *
+	 * @param renderer
+	 *            The renderer computing the tiles
+	 * @param xRes
+	 *            The X resolution of the image
+	 * @param yRes
+	 *            The Y resolution of the image
+	 */
+	public TileScheduler(final Renderer renderer, final int xRes, final int yRes) {
+		this(renderer, xRes, yRes, DEFAULT_TILE_SIZE, defaultThreads());
+	}
+
+	/**
+	 * Creates a new tile scheduler
+	 *
+	 * @param renderer
+	 *            The renderer computing the tiles
+	 * @param xRes
+	 *            The X resolution of the image
+	 * @param yRes
+	 *            The Y resolution of the image
+	 * @param tileSize
+	 *            The edge length of the tiles
+	 * @param threads
+	 *            The number of worker threads
+	 * @throws IllegalArgumentException
+	 *             If the renderer is null or one of the numbers is not
+	 *             positive
+	 */
+	public TileScheduler(final Renderer renderer, final int xRes, final int yRes,
+			final int tileSize, final int threads) {
+		if (renderer == null)
+			throw new IllegalArgumentException("Renderer cannot be null.");
+		if (xRes < 1 || yRes < 1 || tileSize < 1 || threads < 1)
+			throw new IllegalArgumentException("Sizes and threads must be positive.");
+		this.renderer = renderer;
+		this.xRes = xRes;
+		this.yRes = yRes;
+		this.tileSize = tileSize;
+		this.threads = threads;
+		this.tiles = hilbertOrder((xRes + tileSize - 1) / tileSize,
+				(yRes + tileSize - 1) / tileSize);
+	}
+
+	/**
+	 * Returns the default number of threads, which is the number of available
+	 * processors unless overridden by the system property
+	 * {@value #THREADS_PROPERTY}
+	 *
+	 * @return The default number of threads
+	 */
+	public static int defaultThreads() {
+		return Math.max(1, Integer.getInteger(THREADS_PROPERTY,
+				Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Returns the number of worker threads
+	 *
+	 * @return The number of worker threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Renders the whole image and blocks until all tiles are finished. The
+	 * sink is called from the worker threads (concurrently) with every
+	 * finished piece of the image; subdivided tiles are delivered in several
+	 * pieces.
+	 *
+	 * @param sink
+	 *            Receives the finished pieces of the image
+	 */
+	public void render(final Consumer<Renderer.Work> sink) {
+		nanos.reset();
+		pixels.reset();
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new TileRange(sink, tiles, 0, tiles.length));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Renders the image one row of tiles after the other and blocks until all
+	 * tiles are finished. The tiles of a row are rendered in parallel (and
+	 * subdivided like in {@link #render(Consumer)}), but a row is only
+	 * started when the previous one is finished, so a streaming sink only has
+	 * to hold a single row of tiles at any time.
+	 *
+	 * @param sink
+	 *            Receives the finished pieces of the image
+	 */
+	public void renderRows(final Consumer<Renderer.Work> sink) {
+		final int cols = (xRes + tileSize - 1) / tileSize;
+		nanos.reset();
+		pixels.reset();
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (int row = 0; row * tileSize < yRes; row++)
+				pool.invoke(new TileRange(sink, null, row * cols, (row + 1) * cols));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * A range of tiles, either along the Hilbert curve or (without an order)
+	 * in scanline order
+	 */
+	private final class TileRange extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Consumer<Renderer.Work> sink;
+		private final int[] order;
+		private final int from, to;
+
+		TileRange(final Consumer<Renderer.Work> sink, final int[] order,
+				final int from, final int to) {
+			this.sink = sink;
+			this.order = order;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				final int mid = (from + to) >>> 1;
+				invokeAll(new TileRange(sink, order, from, mid),
+						new TileRange(sink, order, mid, to));
+				return;
+			}
+			final int cols = (xRes + tileSize - 1) / tileSize;
+			final int tile = order != null ? order[from] : from;
+			final int x = tile % cols * tileSize;
+			final int y = tile / cols * tileSize;
+			new Tile(sink, x, y, Math.min(tileSize, xRes - x),
+					Math.min(tileSize, yRes - y)).compute();
+		}
+	}
+
+	/**
+	 * A single tile which is subdivided into quarters if it is expensive and
+	 * other workers are idle
+	 */
+	private final class Tile extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Consumer<Renderer.Work> sink;
+		private final int x, y, w, h;
+
+		Tile(final Consumer<Renderer.Work> sink, final int x, final int y,
+				final int w, final int h) {
+			this.sink = sink;
+			this.x = x;
+			this.y = y;
+			this.w = w;
+			this.h = h;
+		}
+
+		@Override
+		protected void compute() {
+			if ((w >= 2 * MIN_TILE_SIZE || h >= 2 * MIN_TILE_SIZE) && expensive()
+					&& getSurplusQueuedTaskCount() <= 0) {
+				final int hw = w >= 2 * MIN_TILE_SIZE ? w / 2 : w;
+				final int hh = h >= 2 * MIN_TILE_SIZE ? h / 2 : h;
+				if (hw < w && hh < h) {
+					invokeAll(new Tile(sink, x, y, hw, hh),
+							new Tile(sink, x, y + hh, hw, h - hh),
+							new Tile(sink, x + hw, y + hh, w - hw, h - hh),
+							new Tile(sink, x + hw, y, w - hw, hh));
+				} else if (hw < w) {
+					invokeAll(new Tile(sink, x, y, hw, h),
+							new Tile(sink, x + hw, y, w - hw, h));
+				} else {
+					invokeAll(new Tile(sink, x, y, w, hh),
+							new Tile(sink, x, y + hh, w, h - hh));
+				}
+				return;
+			}
+			final long start = System.nanoTime();
+			final Renderer.Work work = renderer.renderTile(x, y, w, h);
+			nanos.add(System.nanoTime() - start);
+			pixels.add(w * h);
+			sink.accept(work);
+		}
+
+		private boolean expensive() {
+			if (threads == 1 || renderer.isAdaptive())
+				return false;
+			final long done = pixels.sum();
+			return done > 0 && (double) nanos.sum() / done * w * h >= SPLIT_NANOS;
+		}
+	}
+
+	/**
+	 * Computes the indices (row * cols + column) of all tiles sorted by their
+	 * position on a Hilbert curve covering the tile grid
+	 */
+	private static int[] hilbertOrder(final int cols, final int rows) {
+		int n = 1;
+		while (n < cols || n < rows)
+			n *= 2;
+
+		final long[] keys = new long[cols * rows];
+		for (int ty = 0; ty < rows; ty++) {
+			for (int tx = 0; tx < cols; tx++) {
+				final int index = ty * cols + tx;
+				keys[index] = (long) hilbert(n, tx, ty) << 32 | index;
+			}
+		}
+		Arrays.sort(keys);
+
+		final int[] order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			order[i] = (int) keys[i];
+		return order;
+	}
+
+	/**
+	 * Maps a cell of an n x n grid (n being a power of two) to its distance
+	 * along the Hilbert curve
+	 */
+	private static int hilbert(final int n, int x, int y) {
+		int d = 0;
+		for (int s = n / 2; s > 0; s /= 2) {
+			final int rx = (x & s) > 0 ? 1 : 0;
+			final int ry = (y & s) > 0 ? 1 : 0;
+			d += s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				final int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+}
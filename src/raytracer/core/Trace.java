@@ -37,21 +37,36 @@ public abstract class Trace {
 	}
 
 	private static final class NormalTrace extends Trace {
-		private final Hit hit;
 
-		public NormalTrace(final int gen, final Ray ray, final Scene scene) {
+		private final HitRecord record;
+		private Hit hit = null;
+
+		public NormalTrace(final int gen, final Ray ray, final Scene scene, final HitRecord record) {
+			this(gen, ray, scene, record, false);
+		}
+
+		public NormalTrace(final int gen, final Ray ray, final Scene scene, final HitRecord record,
+				final boolean intersected) {
 			super(gen, ray, scene);
-			this.hit = scene.hit(ray);
+			this.record = record;
+			if (!intersected) {
+				record.reset();
+				scene.intersect(ray, record);
+			}
+			if (RenderStats.ENABLED)
+				RenderStats.get().ray(gen, record.hits());
 		}
 
 		@Override
 		public Hit getHit() {
+			if (hit == null)
+				hit = record.toHit(getRay());
 			return hit;
 		}
 
 		@Override
 		public Color shade() {
-			return hit.hits() ? hit.get().shade(hit, this) : getScene().getBackground();
+			return record.hits() ? record.getObj().shade(getHit(), this) : getScene().getBackground();
 		}
 	}
 
@@ -69,7 +84,7 @@ public abstract class Trace {
 		if (gen > DEPTH)
 			return new Terminator(gen, ray, scene);
 		else
-			return new NormalTrace(gen, ray, scene);
+			return new NormalTrace(gen, ray, scene, new HitRecord());
 	}
 
 	/**
@@ -122,7 +137,42 @@ public abstract class Trace {
 	 * @return A primary trace (with generation 0)
 	 */
 	public static Trace primary(final Scene scene, final Ray ray) {
-		return new NormalTrace(0, ray, scene);
+		return primary(scene, ray, new HitRecord());
+	}
+
+	/**
+	 * Returns a primary trace (with generation 0) which stores its
+	 * intersection in the given record. The hit is only created when the
+	 * trace is shaded, so the record must not be reused before the trace has
+	 * been shaded.
+	 *
+	 * @param scene
+	 *            The used scene
+	 * @param ray
+	 *            The initial ray
+	 * @param record
+	 *            The record to reuse
+	 * @return A primary trace (with generation 0)
+	 */
+	public static Trace primary(final Scene scene, final Ray ray, final HitRecord record) {
+		return new NormalTrace(0, ray, scene, record);
+	}
+
+	/**
+	 * Returns a primary trace (with generation 0) for a record which already
+	 * holds the nearest intersection of the ray, e.g. computed for a whole
+	 * packet by {@link Scene#intersect(Ray[], int, HitRecord[])}
+	 *
+	 * @param scene
+	 *            The used scene
+	 * @param ray
+	 *            The ray of the trace
+	 * @param record
+	 *            The record holding the intersection of the ray
+	 * @return A primary trace (with generation 0)
+	 */
+	public static Trace intersected(final Scene scene, final Ray ray, final HitRecord record) {
+		return new NormalTrace(0, ray, scene, record, true);
 	}
 
 	/**
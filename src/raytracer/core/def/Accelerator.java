@@ -1,5 +1,8 @@
 package raytracer.core.def;
 
+import java.util.Arrays;
+import java.util.Collection;
+
 import raytracer.core.Hit;
 import raytracer.core.Obj;
 import raytracer.core.Trace;
@@ -26,4 +29,52 @@ public abstract class Accelerator implements Obj {
 	 */
 	public abstract void add(Obj prim);
 
+	/**
+	 * Adds all given objects to the acceleration structure in one call. The
+	 * default implementation adds them one by one.
+	 *
+	 * @param prims
+	 *            The objects to add
+	 */
+	public void addAll(final Collection<? extends Obj> prims) {
+		for (final Obj prim : prims) {
+			add(prim);
+		}
+	}
+
+	/**
+	 * Adds a batch of objects whose bounding boxes are already known, e.g.
+	 * because a loader computed them from the raw coordinates. Hierarchies
+	 * keep the boxes in flat arrays while building instead of asking every
+	 * object for its box again. Both arrays may be reused by the caller for
+	 * the next batch. The default implementation ignores the boxes.
+	 *
+	 * @param prims
+	 *            The objects, the first count of them are added
+	 * @param bounds
+	 *            The bounding boxes of the objects, six floats per object
+	 *            (minimum x, y, z followed by maximum x, y, z)
+	 * @param count
+	 *            The number of objects to add
+	 * @throws IllegalArgumentException
+	 *             If an array is null or shorter than the given count
+	 */
+	public void addAll(final Obj[] prims, final float[] bounds, final int count) {
+		checkBatch(prims, bounds, count);
+		addAll(Arrays.asList(prims).subList(0, count));
+	}
+
+	/**
+	 * Checks the arguments of {@link #addAll(Obj[], float[], int)}
+	 */
+	protected static void checkBatch(final Obj[] prims, final float[] bounds,
+			final int count) {
+		if (prims == null || bounds == null) {
+			throw new IllegalArgumentException("Arrays cannot be null.");
+		}
+		if (count < 0 || count > prims.length || count > bounds.length / 6) {
+			throw new IllegalArgumentException("Count exceeds the arrays.");
+		}
+	}
+
 }
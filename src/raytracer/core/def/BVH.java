@@ -2,10 +2,18 @@ package raytracer.core.def;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
+import raytracer.core.RenderStats;
 import raytracer.geom.BBox;
 import raytracer.math.Point;
 import raytracer.math.Ray;
@@ -16,9 +24,93 @@ import raytracer.math.Vec3;
  */
 public class BVH extends BVHBase {
 
+  /**
+   * The per-thread traversal stack. Nested traversals (a BVH stored inside
+   * another BVH) continue above the entries of the outer traversal.
+   */
+  private static final class Stack {
+
+    private BVH[] nodes = new BVH[64];
+    private int top = 0;
+
+    void push(final BVH node) {
+      if (top == nodes.length) {
+        nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+      }
+      nodes[top++] = node;
+    }
+
+    BVH pop() {
+      final BVH node = nodes[--top];
+      nodes[top] = null;
+      return node;
+    }
+  }
+
+  private static final ThreadLocal<Stack> STACK = ThreadLocal.withInitial(
+    Stack::new
+  );
+
+  /**
+   * Builds the subtree of a node as a fork/join task
+   */
+  private static final class BuildTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BVH node;
+    private final Obj[] objects;
+    private final int start, end;
+
+    BuildTask(
+      final BVH node,
+      final Obj[] objects,
+      final int start,
+      final int end
+    ) {
+      this.node = node;
+      this.objects = objects;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      node.build(objects, start, end, true);
+    }
+  }
+
+  /**
+   * Nodes with at least this many objects are processed in parallel by
+   * {@link #buildBVHParallel()}. The two subtrees of a node are forked only if
+   * both of them reach this size.
+   */
+  public static final int PARALLEL_CUTOFF = 4096;
+
+  /**
+   * The default degradation (see {@link #getDegradation()}) above which
+   * {@link #refit(Collection)} rebuilds the hierarchy
+   */
+  public static final float DEFAULT_REBUILD_THRESHOLD = 1.5f;
+
+  private static final float[] NO_BOUNDS = new float[0];
+
   private List<Obj> objects = new ArrayList<>();
   private BBox boundingBox = BBox.EMPTY;
-  private BVH left, right;
+  // the boxes of the objects, six floats each (see getBounds()); the first
+  // boundsCount objects are recorded while adding and all while building
+  private float[] bounds = NO_BOUNDS;
+  private int boundsCount;
+  private BVH left, right, parent;
+  private int axis;
+  private boolean parallel;
+
+  // refit bookkeeping, only maintained on the root
+  private Map<Obj, BVH> leaves;
+  private double areaSum;
+  private double builtCost;
+  private boolean builtParallel;
+  private float rebuildThreshold = DEFAULT_REBUILD_THRESHOLD;
 
   public BVH() {}
 
@@ -36,8 +128,86 @@ public class BVH extends BVHBase {
 
   @Override
   public void add(final Obj prim) {
+    final BBox box = prim.bbox();
+    if (boundsCount == objects.size()) {
+      record(box);
+    }
     objects.add(prim);
-    boundingBox = BBox.surround(boundingBox, prim.bbox());
+    boundingBox = BBox.surround(boundingBox, box);
+  }
+
+  @Override
+  public void addAll(final Collection<? extends Obj> prims) {
+    if (boundsCount != objects.size()) {
+      for (final Obj prim : prims) {
+        add(prim);
+      }
+      return;
+    }
+    reserve(prims.size());
+    final int first = boundsCount;
+    for (final Obj prim : prims) {
+      record(prim.bbox());
+    }
+    objects.addAll(prims);
+    surround(first, boundsCount);
+  }
+
+  /**
+   * Adds a batch of objects whose bounding boxes are already known. The
+   * objects and boxes are appended to preallocated arrays and the bounding
+   * box of the hierarchy is updated once per batch, so no box is created for
+   * the single objects. Building reads the boxes from these arrays.
+   */
+  @Override
+  public void addAll(final Obj[] prims, final float[] bounds, final int count) {
+    checkBatch(prims, bounds, count);
+    if (boundsCount != objects.size()) {
+      super.addAll(prims, bounds, count);
+      return;
+    }
+    reserve(count);
+    System.arraycopy(bounds, 0, this.bounds, 6 * boundsCount, 6 * count);
+    objects.addAll(Arrays.asList(prims).subList(0, count));
+    final int first = boundsCount;
+    boundsCount += count;
+    surround(first, boundsCount);
+  }
+
+  /**
+   * Makes room for the given number of additional objects
+   */
+  private void reserve(final int count) {
+    if (objects instanceof ArrayList) {
+      ((ArrayList<Obj>) objects).ensureCapacity(objects.size() + count);
+    }
+    final int needed = 6 * (boundsCount + count);
+    if (needed > bounds.length) {
+      bounds = Arrays.copyOf(
+        bounds,
+        Math.max(needed, bounds.length + (bounds.length >> 1))
+      );
+    }
+  }
+
+  private void record(final BBox box) {
+    reserve(1);
+    final Point min = box.getMin();
+    final Point max = box.getMax();
+    final int ofs = 6 * boundsCount++;
+    for (int d = 0; d < 3; d++) {
+      bounds[ofs + d] = min.get(d);
+      bounds[ofs + 3 + d] = max.get(d);
+    }
+  }
+
+  /**
+   * Extends the bounding box by the recorded boxes in the given range
+   */
+  private void surround(final int start, final int end) {
+    if (start < end) {
+      boundingBox = BBox.surround(boundingBox, toBBox(bounds(start, end)));
+    }
   }
 
   /**
@@ -45,63 +215,540 @@ public class BVH extends BVHBase {
    */
   @Override
   public void buildBVH() {
-    build(objects.toArray(new Obj[0]), 0, objects.size());
+    final Obj[] all = objects.toArray(new Obj[0]);
+    prepareBounds(all);
+    prepare(all, false);
+    build(all, 0, all.length, false);
+    finishBuild(false);
+  }
+
+  /**
+   * Builds the actual bounding volume hierarchy using the common fork/join
+   * pool. The subtrees of large nodes are built concurrently and the
+   * reductions over their objects are parallelized. The resulting hierarchy
+   * is identical to the one built by {@link #buildBVH()}.
+   */
+  public void buildBVHParallel() {
+    final Obj[] all = objects.toArray(new Obj[0]);
+    prepareBounds(all);
+    final ForkJoinPool pool = ForkJoinPool.commonPool();
+    pool.invoke(ForkJoinTask.adapt(() -> prepare(all, true)));
+    pool.invoke(new BuildTask(this, all, 0, all.length));
+    finishBuild(true);
+  }
+
+  /**
+   * Makes sure the boxes of all objects are recorded before building
+   */
+  private void prepareBounds(final Obj[] all) {
+    if (boundsCount > all.length) {
+      // the object list has been changed from outside
+      boundsCount = 0;
+    }
+    while (boundsCount < all.length) {
+      record(all[boundsCount].bbox());
+    }
+  }
+
+  private void finishBuild(final boolean parallel) {
+    leaves = null;
+    builtParallel = parallel;
+    areaSum = areaSum(this);
+    builtCost = cost();
+  }
+
+  /**
+   * Sums up the surface areas of all nodes below the given one, weighting
+   * inner nodes by one and leaves by their number of objects
+   */
+  private static double areaSum(final BVH node) {
+    if (node.left == null) {
+      return node.weight() * (double) node.boundingBox.area();
+    }
+    return (
+      node.weight() * (double) node.boundingBox.area() +
+      areaSum(node.left) +
+      areaSum(node.right)
+    );
+  }
+
+  private int weight() {
+    return left == null ? objects.size() : 1;
+  }
+
+  /**
+   * Returns the surface area heuristic cost of the hierarchy, i.e. the
+   * expected number of node traversals and object tests of a random ray
+   * hitting the root box
+   */
+  private double cost() {
+    final double rootArea = boundingBox.area();
+    return rootArea > 0 ? areaSum / rootArea : 0;
+  }
+
+  /**
+   * Returns how much refitting has degraded the hierarchy: the ratio of the
+   * current surface area heuristic cost to the cost right after the last
+   * build. A freshly built hierarchy has a degradation of 1.
+   *
+   * @return The degradation of the hierarchy
+   */
+  public float getDegradation() {
+    final double cost = cost();
+    if (!(builtCost > 0) || Double.isInfinite(builtCost)) {
+      return 1;
+    }
+    return (float) (cost / builtCost);
+  }
+
+  /**
+   * Sets the degradation above which {@link #refit(Collection)} rebuilds the
+   * hierarchy instead of only refitting it
+   *
+   * @param threshold
+   *             The degradation threshold
+   * @throws IllegalArgumentException
+   *             If the threshold is less than one or not a number
+   */
+  public void setRebuildThreshold(final float threshold) {
+    if (!(threshold >= 1)) {
+      throw new IllegalArgumentException("Threshold must be at least one.");
+    }
+    rebuildThreshold = threshold;
+  }
+
+  /**
+   * Updates the hierarchy after the bounding boxes of the given objects have
+   * changed (e.g. because they moved). The boxes of the leaves containing the
+   * objects and of their ancestors are recomputed bottom-up while the
+   * topology is kept. If this degrades the hierarchy beyond the rebuild
+   * threshold, the hierarchy is rebuilt from scratch.
+   *
+   * Must be called on the root of a built hierarchy.
+   *
+   * @param changed
+   *             The objects whose bounding boxes have changed
+   * @return True if the hierarchy has been rebuilt
+   * @throws IllegalArgumentException
+   *             If one of the objects is not part of the hierarchy
+   */
+  public boolean refit(final Collection<? extends Obj> changed) {
+    if (leaves == null) {
+      // by identity, moving an object changes its hash code
+      leaves = new IdentityHashMap<>();
+      index(this);
+    }
+
+    for (final Obj obj : changed) {
+      BVH node = leaves.get(obj);
+      if (node == null) {
+        throw new IllegalArgumentException("Object is not part of the BVH.");
+      }
+      while (node != null) {
+        final BBox old = node.boundingBox;
+        final BBox box = node.surroundChildren();
+        if (sameBounds(old, box)) {
+          // the ancestors cannot change either
+          break;
+        }
+        node.boundingBox = box;
+        areaSum += node.weight() * ((double) box.area() - old.area());
+        node = node.parent;
+      }
+    }
+
+    return rebuildIfDegraded();
   }
 
-  private void build(Obj[] objects, int start, int end) {
-    if (end - start <= THRESHOLD) {
-      this.objects = Arrays.asList(Arrays.copyOfRange(objects, start, end));
+  /**
+   * Recomputes the bounding boxes of all nodes bottom-up while keeping the
+   * topology. If this degrades the hierarchy beyond the rebuild threshold,
+   * the hierarchy is rebuilt from scratch.
+   *
+   * Must be called on the root of a built hierarchy.
+   *
+   * @return True if the hierarchy has been rebuilt
+   */
+  public boolean refit() {
+    refitAll(this);
+    areaSum = areaSum(this);
+    return rebuildIfDegraded();
+  }
+
+  private static void refitAll(final BVH node) {
+    if (node.left != null) {
+      refitAll(node.left);
+      refitAll(node.right);
+    }
+    node.boundingBox = node.surroundChildren();
+  }
+
+  private boolean rebuildIfDegraded() {
+    if (!(getDegradation() > rebuildThreshold)) {
+      return false;
+    }
+    final List<Obj> all = new ArrayList<>();
+    collect(this, all);
+    objects = all;
+    bounds = NO_BOUNDS;
+    boundsCount = 0;
+    left = null;
+    right = null;
+    if (builtParallel) {
+      buildBVHParallel();
+    } else {
+      buildBVH();
+    }
+    return true;
+  }
+
+  private void index(final BVH node) {
+    if (node.left == null) {
+      for (final Obj obj : node.objects) {
+        leaves.put(obj, node);
+      }
+    } else {
+      index(node.left);
+      index(node.right);
+    }
+  }
+
+  private static void collect(final BVH node, final List<Obj> all) {
+    if (node.left == null) {
+      all.addAll(node.objects);
+    } else {
+      collect(node.left, all);
+      collect(node.right, all);
+    }
+  }
+
+  private BBox surroundChildren() {
+    if (left != null) {
+      return BBox.surround(left.boundingBox, right.boundingBox);
+    }
+    BBox box = BBox.EMPTY;
+    for (final Obj obj : objects) {
+      box = BBox.surround(box, obj.bbox());
+    }
+    return box;
+  }
+
+  private static boolean sameBounds(final BBox a, final BBox b) {
+    for (int d = 0; d < 3; d++) {
+      if (
+        a.getMin().get(d) != b.getMin().get(d) ||
+        a.getMax().get(d) != b.getMax().get(d)
+      ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Called once on the root with all objects before the hierarchy is built.
+   * Builders may reorder the objects or precompute data for their splits.
+   * The default implementation does nothing.
+   *
+   * @param objects
+   *             All objects of the hierarchy
+   * @param parallel
+   *             True if the preparation may use the common fork/join pool
+   */
+  protected void prepare(Obj[] objects, boolean parallel) {}
+
+  /**
+   * Returns the bounding boxes of the objects while the hierarchy is built,
+   * six floats per object (minimum x, y, z followed by maximum x, y, z)
+   * starting at six times the index of the object. The boxes move along with
+   * the objects if these are reordered with {@link #swap(Obj[], int, int)}
+   * or {@link #reorder(Obj[], int, int[])}, which builders must use instead
+   * of writing to the object array directly.
+   *
+   * @return The bounding boxes of the objects
+   */
+  protected final float[] getBounds() {
+    return bounds;
+  }
+
+  /**
+   * Swaps two objects and their boxes while the hierarchy is built
+   *
+   * @param objects
+   *             The objects
+   * @param i
+   *             The index of the first object
+   * @param j
+   *             The index of the second object
+   */
+  protected final void swap(final Obj[] objects, final int i, final int j) {
+    final Obj tmp = objects[i];
+    objects[i] = objects[j];
+    objects[j] = tmp;
+    for (int k = 0; k < 6; k++) {
+      final float f = bounds[6 * i + k];
+      bounds[6 * i + k] = bounds[6 * j + k];
+      bounds[6 * j + k] = f;
+    }
+  }
+
+  /**
+   * Reorders a range of objects and their boxes while the hierarchy is
+   * built. Afterwards the object at index start + k is the one which was at
+   * index order[k] before.
+   *
+   * @param objects
+   *             The objects
+   * @param start
+   *             The first index of the range
+   * @param order
+   *             The former indices of the objects, a permutation of the range
+   */
+  protected final void reorder(
+    final Obj[] objects,
+    final int start,
+    final int[] order
+  ) {
+    final int n = order.length;
+    final Obj[] sorted = new Obj[n];
+    final float[] boxes = new float[6 * n];
+    for (int k = 0; k < n; k++) {
+      sorted[k] = objects[order[k]];
+      System.arraycopy(bounds, 6 * order[k], boxes, 6 * k, 6);
+    }
+    System.arraycopy(sorted, 0, objects, start, n);
+    System.arraycopy(boxes, 0, bounds, 6 * start, 6 * n);
+  }
+
+  private void build(Obj[] objects, int start, int end, boolean parallel) {
+    this.parallel = parallel;
+    this.boundingBox = toBBox(bounds(start, end));
+
+    if (end - start <= leafSize()) {
+      makeLeaf(objects, start, end);
       return;
     }
 
-    BBox box = objects[start].bbox();
-    for (int i = start + 1; i < end; i++) {
-      box = BBox.surround(box, objects[i].bbox());
+    int mid = split(objects, start, end);
+    if (mid <= start || mid >= end) {
+      makeLeaf(objects, start, end);
+      return;
     }
-    this.boundingBox = box;
 
-    Vec3 extent = box.getMax().sub(box.getMin());
-    int splitDim = calculateSplitDimension(extent);
-    float splitPos = calculateMaxOfMinPoints().get(splitDim);
+    left = createChild();
+    right = createChild();
+    left.parent = this;
+    right.parent = this;
+    left.bounds = bounds;
+    right.bounds = bounds;
+    if (isParallel(start, mid) && isParallel(mid, end)) {
+      ForkJoinTask.invokeAll(
+        new BuildTask(left, objects, start, mid),
+        new BuildTask(right, objects, mid, end)
+      );
+    } else {
+      left.build(objects, start, mid, parallel);
+      right.build(objects, mid, end, parallel);
+    }
+    orderChildren();
 
-    Comparator<Obj> comparator = (o1, o2) -> {
-      float c1 = o1.bbox().getMin().get(splitDim);
-      float c2 = o2.bbox().getMin().get(splitDim);
-      return Float.compare(c1, c2);
-    };
-    Arrays.sort(objects, start, end, comparator);
+    this.objects = new ArrayList<>();
+    this.parallel = false;
+    this.bounds = NO_BOUNDS;
+    this.boundsCount = 0;
+  }
 
-    int mid = start;
+  private void makeLeaf(Obj[] objects, int start, int end) {
+    this.objects = Arrays.asList(Arrays.copyOfRange(objects, start, end));
+    this.parallel = false;
+    this.bounds = NO_BOUNDS;
+    this.boundsCount = 0;
+  }
+
+  /**
+   * Computes the box surrounding the recorded boxes of a range of objects,
+   * six floats like the recorded boxes
+   */
+  private float[] bounds(final int start, final int end) {
+    if (isParallel(start, end)) {
+      return IntStream
+        .range(start, end)
+        .parallel()
+        .collect(
+          BVH::emptyBounds,
+          (box, i) -> grow(box, bounds, 6 * i),
+          (a, b) -> grow(a, b, 0)
+        );
+    }
+    final float[] box = emptyBounds();
     for (int i = start; i < end; i++) {
-      if (objects[i].bbox().getMin().get(splitDim) < splitPos) {
-        mid = i;
-      } else {
-        break;
+      grow(box, bounds, 6 * i);
+    }
+    return box;
+  }
+
+  private static float[] emptyBounds() {
+    return new float[] {
+      Float.POSITIVE_INFINITY,
+      Float.POSITIVE_INFINITY,
+      Float.POSITIVE_INFINITY,
+      Float.NEGATIVE_INFINITY,
+      Float.NEGATIVE_INFINITY,
+      Float.NEGATIVE_INFINITY,
+    };
+  }
+
+  /**
+   * Extends a box by another one, like {@link BBox#surround(BBox, BBox)}
+   */
+  private static void grow(final float[] box, final float[] b, final int ofs) {
+    for (int d = 0; d < 3; d++) {
+      if (b[ofs + d] < box[d]) box[d] = b[ofs + d];
+      if (b[ofs + 3 + d] > box[3 + d]) box[3 + d] = b[ofs + 3 + d];
+    }
+  }
+
+  private static BBox toBBox(final float[] box) {
+    if (box[0] > box[3]) {
+      return BBox.EMPTY;
+    }
+    return BBox.create(
+      new Point(box[0], box[1], box[2]),
+      new Point(box[3], box[4], box[5])
+    );
+  }
+
+  /**
+   * Returns true if the node currently being built should process the given
+   * range in parallel
+   *
+   * @param start
+   *             The first index of the range (inclusive)
+   * @param end
+   *             The last index of the range (exclusive)
+   * @return True if the range should be processed in parallel
+   */
+  protected final boolean isParallel(final int start, final int end) {
+    return parallel && end - start >= PARALLEL_CUTOFF;
+  }
+
+  /**
+   * Determines the axis along which the children are separated the most and
+   * swaps them if necessary so that the left child is the lower one along
+   * this axis
+   */
+  private void orderChildren() {
+    float best = -1;
+    for (int d = 0; d < 3; d++) {
+      final float l = left.boundingBox.getMin().get(d) +
+        left.boundingBox.getMax().get(d);
+      final float r = right.boundingBox.getMin().get(d) +
+        right.boundingBox.getMax().get(d);
+      final float sep = Math.abs(r - l);
+      if (sep > best) {
+        best = sep;
+        axis = d;
       }
     }
-    left = new BVH();
-    right = new BVH();
-    left.build(objects, start, mid);
-    right.build(objects, mid, end);
+    if (
+      left.boundingBox.getMin().get(axis) +
+        left.boundingBox.getMax().get(axis) >
+      right.boundingBox.getMin().get(axis) +
+        right.boundingBox.getMax().get(axis)
+    ) {
+      final BVH tmp = left;
+      left = right;
+      right = tmp;
+    }
+  }
 
-    this.objects.clear();
+  /**
+   * Returns the maximum number of objects kept in a leaf
+   *
+   * @return The maximum number of objects kept in a leaf
+   */
+  protected int leafSize() {
+    return THRESHOLD;
   }
 
-  @Override
-  public Point calculateMaxOfMinPoints() {
-    Point maxPoint = objects.get(0).bbox().getMin();
-    for (Obj obj : objects) {
-      Point minPoint = obj.bbox().getMin();
-      maxPoint =
-        new Point(
-          Math.max(maxPoint.x(), minPoint.x()),
-          Math.max(maxPoint.y(), minPoint.y()),
-          Math.max(maxPoint.z(), minPoint.z())
-        );
+  /**
+   * Creates an empty node used as child of this node while building
+   *
+   * @return The new child node
+   */
+  protected BVH createChild() {
+    return new BVH();
+  }
+
+  /**
+   * Reorders the objects in the range [start, end) and returns the index at
+   * which the range is split into the two children. Returning start or end
+   * turns the node into a leaf.
+   *
+   * The default strategy sorts the objects by the minimum of their bounding
+   * boxes along the longest axis and splits at the component-wise maximum of
+   * the minimum points.
+   *
+   * @param objects
+   *             The objects to split
+   * @param start
+   *             The first index of the range (inclusive)
+   * @param end
+   *             The last index of the range (exclusive)
+   * @return The split index
+   */
+  protected int split(Obj[] objects, int start, int end) {
+    Vec3 extent = boundingBox.getMax().sub(boundingBox.getMin());
+    int splitDim = calculateSplitDimension(extent);
+    float splitPos = bounds[6 * start + splitDim];
+    for (int i = start + 1; i < end; i++) {
+      if (bounds[6 * i + splitDim] > splitPos) {
+        splitPos = bounds[6 * i + splitDim];
+      }
+    }
+
+    // sort by the minima (ordered like Float.compare), equal minima keep
+    // their order like in a stable sort
+    final long[] keys = new long[end - start];
+    for (int i = start; i < end; i++) {
+      int bits = Float.floatToIntBits(bounds[6 * i + splitDim]);
+      bits ^= (bits >> 31) & 0x7fffffff;
+      keys[i - start] = (long) bits << 32 | i;
+    }
+    if (isParallel(start, end)) {
+      Arrays.parallelSort(keys);
+    } else {
+      Arrays.sort(keys);
+    }
+    final int[] order = new int[keys.length];
+    for (int k = 0; k < order.length; k++) {
+      order[k] = (int) keys[k];
+    }
+    reorder(objects, start, order);
+
+    int mid = start;
+    while (mid < end && bounds[6 * mid + splitDim] < splitPos) {
+      mid++;
+    }
+    if (mid == start || mid == end) {
+      mid = (start + end) >>> 1;
+    }
+    return mid;
+  }
+
+  private static Point maxOfMinPoints(Obj[] objects, int start, int end) {
+    Point maxPoint = objects[start].bbox().getMin();
+    for (int i = start + 1; i < end; i++) {
+      maxPoint = maxPoint.max(objects[i].bbox().getMin());
     }
     return maxPoint;
   }
 
+  @Override
+  public Point calculateMaxOfMinPoints() {
+    return maxOfMinPoints(objects.toArray(new Obj[0]), 0, objects.size());
+  }
+
   @Override
   public int calculateSplitDimension(final Vec3 extent) {
     if (extent.x() >= extent.y() && extent.x() >= extent.z()) {
@@ -134,6 +781,7 @@ public class BVH extends BVHBase {
     }
 
     objects.clear();
+    boundsCount = 0;
   }
 
   @Override
@@ -143,27 +791,135 @@ public class BVH extends BVHBase {
     final float tMin,
     final float tMax
   ) {
-    //yahan par intersection bounding box k saath check hota hai
-    if (!intersect(ray, boundingBox, tMin, tMax)) {
-      return Hit.No.get();
+    final HitRecord rec = new HitRecord();
+    return intersect(ray, obj, tMin, tMax, rec)
+      ? rec.toHit(ray)
+      : Hit.No.get();
+  }
+
+  /**
+   * Finds the nearest intersection within the given distances and stores it
+   * in the record. Only the record is written, no hit is created.
+   *
+   * @param ray
+   *             The ray to compute the intersection with
+   * @param obj
+   *             The object to compute the intersection with
+   * @param tMin
+   *             The minimum distance
+   * @param tMax
+   *             The maximum distance
+   * @param rec
+   *             The record receiving the nearest hit
+   * @return True if any object is hit within the distances
+   */
+  @Override
+  public boolean intersect(
+    final Ray ray,
+    final Obj obj,
+    final float tMin,
+    final float tMax,
+    final HitRecord rec
+  ) {
+    final Stack stack = STACK.get();
+    final int base = stack.top;
+    boolean found = false;
+    float tNear = tMax;
+    int visited = 0, tests = 0;
+
+    try {
+      stack.push(this);
+      while (stack.top > base) {
+        final BVH node = stack.pop();
+        visited++;
+        if (!intersect(ray, node.boundingBox, tMin, tNear)) {
+          continue;
+        }
+
+        if (node.left == null) {
+          tests += node.objects.size();
+          for (final Obj p : node.objects) {
+            if (p.intersect(ray, p, tMin, tNear, rec)) {
+              found = true;
+              tNear = rec.getParameter();
+            }
+          }
+        } else if (ray.dir().isNeg(node.axis) == 1) {
+          // visit the near child first, its hits clip the far child
+          stack.push(node.left);
+          stack.push(node.right);
+        } else {
+          stack.push(node.right);
+          stack.push(node.left);
+        }
+      }
+    } finally {
+      while (stack.top > base) {
+        stack.pop();
+      }
     }
 
-    Hit hitLeft = (left != null)
-      ? left.hit(ray, obj, tMin, tMax)
-      : Hit.No.get();
-    Hit hitRight = (right != null)
-      ? right.hit(ray, obj, tMin, tMax)
-      : Hit.No.get();
+    if (RenderStats.ENABLED) {
+      RenderStats.get().traversal(visited, visited, tests);
+    }
+    return found;
+  }
 
-    if (hitLeft.hits() && hitRight.hits()) {
-      return (hitLeft.getParameter() < hitRight.getParameter())
-        ? hitLeft
-        : hitRight;
-    } else if (hitLeft.hits()) {
-      return hitLeft;
-    } else {
-      return hitRight;
+  /**
+   * Checks whether any object is intersected within the given distances. The
+   * traversal stops at the first intersection found.
+   *
+   * @param ray
+   *             The ray to compute the intersection with
+   * @param tMin
+   *             The minimum distance
+   * @param tMax
+   *             The maximum distance
+   * @return True if there is any intersection within the distances
+   */
+  @Override
+  public boolean occluded(final Ray ray, final float tMin, final float tMax) {
+    final Stack stack = STACK.get();
+    final int base = stack.top;
+    int visited = 0, tests = 0;
+
+    try {
+      stack.push(this);
+      while (stack.top > base) {
+        final BVH node = stack.pop();
+        visited++;
+        if (!intersect(ray, node.boundingBox, tMin, tMax)) {
+          continue;
+        }
+
+        if (node.left == null) {
+          for (final Obj p : node.objects) {
+            tests++;
+            if (p.occluded(ray, tMin, tMax)) {
+              if (RenderStats.ENABLED) {
+                RenderStats.get().traversal(visited, visited, tests);
+              }
+              return true;
+            }
+          }
+        } else if (ray.dir().isNeg(node.axis) == 1) {
+          stack.push(node.left);
+          stack.push(node.right);
+        } else {
+          stack.push(node.right);
+          stack.push(node.left);
+        }
+      }
+    } finally {
+      while (stack.top > base) {
+        stack.pop();
+      }
     }
+
+    if (RenderStats.ENABLED) {
+      RenderStats.get().traversal(visited, visited, tests);
+    }
+    return false;
   }
 
   /**
@@ -199,5 +955,33 @@ public class BVH extends BVHBase {
   public List<Obj> getObjects() {
     return objects;
   }
+
+  /**
+   * Returns the left child or null if this node is a leaf
+   *
+   * @return The left child
+   */
+  BVH getLeft() {
+    return left;
+  }
+
+  /**
+   * Returns the right child or null if this node is a leaf
+   *
+   * @return The right child
+   */
+  BVH getRight() {
+    return right;
+  }
+
+  /**
+   * Returns the axis along which the children are ordered, the left child
+   * being the lower one
+   *
+   * @return The axis of the children
+   */
+  int getAxis() {
+    return axis;
+  }
 }
 // THIS CODE HAS BEEN DONE WITH SOME HELP OF CHATGPT , ESPECIALLY LOCAL INTERSECT METHOD
@@ -0,0 +1,66 @@
+package raytracer.core.def;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import raytracer.core.ImageOutput;
+import raytracer.core.Renderer;
+
+/**
+ * Represents an image output which collects the image in memory and encodes
+ * it with ImageIO (e.g. as PNG) when closed
+ */
+public class ImageIOOutput implements ImageOutput {
+
+  private final BufferedImage img;
+  private final File file;
+  private final String format;
+
+  /**
+   * Creates a new ImageIO output
+   *
+   * @param file
+   *            The target file
+   * @param format
+   *            The informal name of the ImageIO format (e.g. "png")
+   * @param xRes
+   *            The X resolution of the image
+   * @param yRes
+   *            The Y resolution of the image
+   * @throws IllegalArgumentException
+   *            If the file or the format is null, ImageIO cannot write the
+   *            format or one of the resolutions is not positive
+   */
+  public ImageIOOutput(
+    final File file,
+    final String format,
+    final int xRes,
+    final int yRes
+  ) {
+    if (file == null || format == null) {
+      throw new IllegalArgumentException("File and format cannot be null.");
+    }
+    if (!ImageIO.getImageWritersByFormatName(format).hasNext()) {
+      throw new IllegalArgumentException("Unsupported format " + format + ".");
+    }
+    if (xRes < 1 || yRes < 1) {
+      throw new IllegalArgumentException("Resolutions must be positive.");
+    }
+    this.img = new BufferedImage(xRes, yRes, BufferedImage.TYPE_INT_RGB);
+    this.file = file;
+    this.format = format;
+  }
+
+  @Override
+  public synchronized void write(final Renderer.Work work) {
+    img.setRGB(work.x, work.y, work.w, work.h, work.pixels, 0, work.w);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (!ImageIO.write(img, format, file)) {
+      throw new IOException("No writer for format " + format + ".");
+    }
+  }
+}
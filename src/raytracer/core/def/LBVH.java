@@ -0,0 +1,246 @@
+package raytracer.core.def;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import raytracer.core.Obj;
+
+/**
+ * Represents a linear bounding volume hierarchy (LBVH). The centroids of the
+ * objects are quantized inside their bounding box and mapped to 30 bit Morton
+ * codes, the objects are radix sorted by these codes and every node is split
+ * where the highest differing bit of its codes changes. Building is much
+ * faster than with the other builders at the cost of a lower tree quality,
+ * which makes it suitable for scenes that are rebuilt every frame.
+ */
+public class LBVH extends BVH {
+
+  private static final int AXIS_BITS = 10;
+  private static final int AXIS_CELLS = 1 << AXIS_BITS;
+  private static final int RADIX_BITS = 10;
+  private static final int BUCKETS = 1 << RADIX_BITS;
+  private static final int CODE_BITS = 3 * AXIS_BITS;
+
+  /**
+   * The minimum number of objects handled by one chunk of the parallel radix
+   * sort
+   */
+  private static final int MIN_CHUNK = 8192;
+
+  private int[] codes;
+
+  /**
+   * Creates a new empty linear bounding volume hierarchy
+   */
+  public LBVH() {}
+
+  private LBVH(final int[] codes) {
+    this.codes = codes;
+  }
+
+  @Override
+  protected BVH createChild() {
+    return new LBVH(codes);
+  }
+
+  /**
+   * Computes the Morton codes of all objects and sorts the objects by them
+   */
+  @Override
+  protected void prepare(final Obj[] objects, final boolean parallel) {
+    final int n = objects.length;
+    final float[] boxes = getBounds();
+    final float[] cb = centroidBounds(boxes, n);
+    final float[] scale = new float[3];
+    for (int d = 0; d < 3; d++) {
+      final float extent = cb[3 + d] - cb[d];
+      scale[d] = extent > 0 && !Float.isInfinite(extent)
+        ? AXIS_CELLS / extent
+        : 0;
+    }
+
+    final int[] keys = new int[n];
+    final int[] order = new int[n];
+    forEach(
+      0,
+      n,
+      parallel,
+      i -> {
+        keys[i] = morton(boxes, i, cb, scale);
+        order[i] = i;
+      }
+    );
+
+    radixSort(keys, order, parallel);
+
+    reorder(objects, 0, order);
+    codes = keys;
+  }
+
+  /**
+   * Splits the range at the first object whose code has the highest bit set
+   * in which the codes of the range differ
+   */
+  @Override
+  protected int split(final Obj[] objects, final int start, final int end) {
+    final int first = codes[start];
+    final int last = codes[end - 1];
+    if (first == last) {
+      return (start + end) >>> 1;
+    }
+
+    final int bit = 31 - Integer.numberOfLeadingZeros(first ^ last);
+    int lo = start;
+    int hi = end - 1;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if ((codes[mid] >>> bit & 1) != 0) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo;
+  }
+
+  private static float[] centroidBounds(final float[] boxes, final int n) {
+    final float[] cb = {
+      Float.POSITIVE_INFINITY,
+      Float.POSITIVE_INFINITY,
+      Float.POSITIVE_INFINITY,
+      Float.NEGATIVE_INFINITY,
+      Float.NEGATIVE_INFINITY,
+      Float.NEGATIVE_INFINITY,
+    };
+    for (int i = 0; i < n; i++) {
+      for (int d = 0; d < 3; d++) {
+        final float c = (boxes[6 * i + d] + boxes[6 * i + 3 + d]) * 0.5f;
+        if (c < cb[d]) cb[d] = c;
+        if (c > cb[3 + d]) cb[3 + d] = c;
+      }
+    }
+    return cb;
+  }
+
+  private static int morton(
+    final float[] boxes,
+    final int i,
+    final float[] cb,
+    final float[] scale
+  ) {
+    int code = 0;
+    for (int d = 0; d < 3; d++) {
+      final float c = (boxes[6 * i + d] + boxes[6 * i + 3 + d]) * 0.5f;
+      final float f = (c - cb[d]) * scale[d];
+      // NaN (unbounded objects) and negative values end up in cell 0
+      final int q = f >= 0 ? (int) Math.min(f, AXIS_CELLS - 1) : 0;
+      code |= expandBits(q) << (2 - d);
+    }
+    return code;
+  }
+
+  /**
+   * Inserts two zero bits in front of each of the lower 10 bits
+   */
+  private static int expandBits(int v) {
+    v = (v * 0x00010001) & 0xFF0000FF;
+    v = (v * 0x00000101) & 0x0F00F00F;
+    v = (v * 0x00000011) & 0xC30C30C3;
+    v = (v * 0x00000005) & 0x49249249;
+    return v;
+  }
+
+  /**
+   * Sorts the keys (and the values along with them) with a stable least
+   * significant digit radix sort. In parallel mode every pass builds one
+   * histogram per chunk concurrently and scatters the chunks concurrently to
+   * disjoint target ranges, which gives the same result as the serial sort.
+   */
+  private static void radixSort(
+    final int[] keys,
+    final int[] values,
+    final boolean parallel
+  ) {
+    final int n = keys.length;
+    final int chunks = parallel
+      ? Math.max(
+        1,
+        Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, n / MIN_CHUNK)
+      )
+      : 1;
+    final int chunkSize = Math.max(1, (n + chunks - 1) / chunks);
+    final int[][] offsets = new int[chunks][BUCKETS];
+
+    int[] srcKeys = keys, srcValues = values;
+    int[] dstKeys = new int[n], dstValues = new int[n];
+
+    for (int shift = 0; shift < CODE_BITS; shift += RADIX_BITS) {
+      final int s = shift;
+      final int[] sk = srcKeys, sv = srcValues, dk = dstKeys, dv = dstValues;
+
+      forEach(
+        0,
+        chunks,
+        parallel,
+        c -> {
+          final int[] count = offsets[c];
+          Arrays.fill(count, 0);
+          final int to = Math.min(n, (c + 1) * chunkSize);
+          for (int i = c * chunkSize; i < to; i++) {
+            count[(sk[i] >>> s) & (BUCKETS - 1)]++;
+          }
+        }
+      );
+
+      int sum = 0;
+      for (int b = 0; b < BUCKETS; b++) {
+        for (int c = 0; c < chunks; c++) {
+          final int count = offsets[c][b];
+          offsets[c][b] = sum;
+          sum += count;
+        }
+      }
+
+      forEach(
+        0,
+        chunks,
+        parallel,
+        c -> {
+          final int[] ofs = offsets[c];
+          final int to = Math.min(n, (c + 1) * chunkSize);
+          for (int i = c * chunkSize; i < to; i++) {
+            final int d = ofs[(sk[i] >>> s) & (BUCKETS - 1)]++;
+            dk[d] = sk[i];
+            dv[d] = sv[i];
+          }
+        }
+      );
+
+      srcKeys = dk;
+      srcValues = dv;
+      dstKeys = sk;
+      dstValues = sv;
+    }
+
+    if (srcKeys != keys) {
+      System.arraycopy(srcKeys, 0, keys, 0, n);
+      System.arraycopy(srcValues, 0, values, 0, n);
+    }
+  }
+
+  private static void forEach(
+    final int from,
+    final int to,
+    final boolean parallel,
+    final IntConsumer action
+  ) {
+    if (parallel) {
+      IntStream.range(from, to).parallel().forEach(action);
+    } else {
+      for (int i = from; i < to; i++) {
+        action.accept(i);
+      }
+    }
+  }
+}
@@ -0,0 +1,713 @@
+package raytracer.core.def;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.Obj;
+import raytracer.core.RenderStats;
+import raytracer.geom.BBox;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec3;
+
+/**
+ * Represents a bounding volume hierarchy compiled into flat arrays. The nodes
+ * are stored in depth-first order: the bounds of node i occupy the six floats
+ * starting at bounds[6 * i] (min x, y, z followed by max x, y, z), the left
+ * child of an inner node directly follows its parent and the index of the
+ * right child is stored in nodes[2 * i] while nodes[2 * i + 1] holds -1 - axis,
+ * axis being the dimension along which the left child is the lower one.
+ * For leaves nodes[2 * i] holds the offset of the first object in the object
+ * array and nodes[2 * i + 1] the number of objects.
+ */
+public class LinearBVH extends Accelerator {
+
+  private final List<Obj> pending = new ArrayList<>();
+
+  private float[] bounds = new float[0];
+  private int[] nodes = new int[0];
+  private Obj[] prims = new Obj[0];
+  private BBox boundingBox = BBox.EMPTY;
+  private int depth = 0;
+  private int nextNode, nextPrim;
+
+  private final ThreadLocal<int[]> stacks = new ThreadLocal<>();
+  private final ThreadLocal<float[]> packets = new ThreadLocal<>();
+
+  /**
+   * Creates a new empty linear bounding volume hierarchy. Objects are added
+   * with {@link #add(Obj)} and compiled with {@link #buildBVH()}.
+   */
+  public LinearBVH() {}
+
+  /**
+   * Creates a new linear bounding volume hierarchy with the topology of the
+   * given (already built) hierarchy
+   *
+   * @param bvh
+   *             The hierarchy to compile
+   * @throws IllegalArgumentException
+   *             If the hierarchy is null
+   */
+  public LinearBVH(final BVH bvh) {
+    if (bvh == null) {
+      throw new IllegalArgumentException("BVH cannot be null.");
+    }
+    compile(bvh);
+    for (final Obj prim : prims) {
+      pending.add(prim);
+    }
+  }
+
+  /**
+   * Creates a new linear bounding volume hierarchy with the given topology,
+   * e.g. one loaded from a cache. The bounds of the nodes are computed from
+   * the objects.
+   *
+   * @param nodes
+   *             The nodes in the layout described above, see
+   *             {@link #getNodes()}
+   * @param prims
+   *             The objects in the order referred to by the leaves
+   * @throws IllegalArgumentException
+   *             If one of the arrays is null, the nodes do not form a valid
+   *             tree or its leaves do not refer to every object exactly once
+   */
+  public LinearBVH(final int[] nodes, final Obj[] prims) {
+    if (nodes == null || prims == null) {
+      throw new IllegalArgumentException("Arrays cannot be null.");
+    }
+    if (nodes.length % 2 != 0) {
+      throw new IllegalArgumentException("Node array length must be even.");
+    }
+    this.nodes = nodes.clone();
+    this.prims = prims.clone();
+    this.bounds = new float[nodes.length * 3];
+    final int[] next = new int[2];
+    this.depth = nodes.length == 0 ? 0 : validate(0, 1, next);
+    if (2 * next[0] != nodes.length || next[1] != prims.length) {
+      throw new IllegalArgumentException("Nodes do not cover the tree.");
+    }
+    for (final Obj prim : prims) {
+      pending.add(prim);
+    }
+    refit();
+  }
+
+  /**
+   * Checks the subtree of the given node and returns its depth. The next
+   * node and the next object expected in depth-first order are counted in
+   * next, so the leaves have to refer to the objects back to back.
+   */
+  private int validate(final int node, final int level, final int[] next) {
+    if (node != next[0]++ || 2 * node >= nodes.length) {
+      throw new IllegalArgumentException("Nodes are not in depth-first order.");
+    }
+    final int count = nodes[2 * node + 1];
+    if (count >= 0) {
+      if (nodes[2 * node] != next[1] || count > prims.length - next[1]) {
+        throw new IllegalArgumentException("Leaves do not cover the objects.");
+      }
+      next[1] += count;
+      return level;
+    }
+    if (count < -3) {
+      throw new IllegalArgumentException("Invalid split axis.");
+    }
+    final int left = validate(node + 1, level + 1, next);
+    final int right = validate(nodes[2 * node], level + 1, next);
+    return Math.max(left, right);
+  }
+
+  /**
+   * Returns the bounding box surrounding all compiled objects
+   */
+  @Override
+  public BBox bbox() {
+    return boundingBox;
+  }
+
+  /**
+   * Adds an object to the acceleration structure. The object becomes visible
+   * to intersection queries after the next call to {@link #buildBVH()}.
+   *
+   * @param prim
+   *             The object to add
+   */
+  @Override
+  public void add(final Obj prim) {
+    pending.add(prim);
+  }
+
+  @Override
+  public void addAll(final Collection<? extends Obj> prims) {
+    pending.addAll(prims);
+  }
+
+  /**
+   * Builds a hierarchy over all added objects using the surface area
+   * heuristic and compiles it into the flat layout
+   */
+  public void buildBVH() {
+    final BVH bvh = new SAHBVH();
+    bvh.addAll(pending);
+    bvh.buildBVH();
+    compile(bvh);
+  }
+
+  /**
+   * Returns the number of compiled nodes
+   *
+   * @return The number of compiled nodes
+   */
+  public int getNodeCount() {
+    return nodes.length / 2;
+  }
+
+  /**
+   * Returns a copy of the nodes in the layout described above, which
+   * together with the order of the objects (see {@link #getObject(int)})
+   * describes the topology of the hierarchy
+   *
+   * @return The nodes
+   */
+  public int[] getNodes() {
+    return nodes.clone();
+  }
+
+  /**
+   * Returns the compiled object at the given position
+   *
+   * @param index
+   *             The position of the object
+   * @return The object
+   */
+  public Obj getObject(final int index) {
+    return prims[index];
+  }
+
+  /**
+   * Returns the number of compiled objects
+   *
+   * @return The number of compiled objects
+   */
+  public int getObjectCount() {
+    return prims.length;
+  }
+
+  /**
+   * Recomputes the bounds of all nodes bottom-up after the bounding boxes of
+   * objects have changed. The topology is kept, so the traversal performance
+   * degrades if the objects moved far; rebuild in that case.
+   */
+  public void refit() {
+    // children are stored after their parents
+    for (int i = nodes.length / 2 - 1; i >= 0; i--) {
+      final int b = 6 * i;
+      final int count = nodes[2 * i + 1];
+      if (count >= 0) {
+        for (int d = 0; d < 3; d++) {
+          bounds[b + d] = Float.POSITIVE_INFINITY;
+          bounds[b + 3 + d] = Float.NEGATIVE_INFINITY;
+        }
+        // every box is computed once, primitives may create it on demand
+        final int first = nodes[2 * i];
+        for (int k = first; k < first + count; k++) {
+          final BBox box = prims[k].bbox();
+          for (int d = 0; d < 3; d++) {
+            bounds[b + d] = Math.min(bounds[b + d], box.getMin().get(d));
+            bounds[b + 3 + d] = Math.max(bounds[b + 3 + d], box.getMax().get(d));
+          }
+        }
+      } else {
+        final int l = 6 * (i + 1);
+        final int r = 6 * nodes[2 * i];
+        for (int d = 0; d < 3; d++) {
+          bounds[b + d] = Math.min(bounds[l + d], bounds[r + d]);
+          bounds[b + 3 + d] = Math.max(bounds[l + 3 + d], bounds[r + 3 + d]);
+        }
+      }
+    }
+    if (prims.length > 0) {
+      boundingBox =
+        BBox.create(
+          new Point(bounds[0], bounds[1], bounds[2]),
+          new Point(bounds[3], bounds[4], bounds[5])
+        );
+    }
+  }
+
+  private void compile(final BVH bvh) {
+    final int[] counts = new int[2];
+    count(bvh, counts);
+    final int nodeCount = counts[0];
+
+    bounds = new float[nodeCount * 6];
+    nodes = new int[nodeCount * 2];
+    prims = new Obj[counts[1]];
+    depth = 0;
+    nextNode = 0;
+    nextPrim = 0;
+    flatten(bvh, 1);
+    boundingBox = bvh.bbox();
+  }
+
+  private static void count(final BVH node, final int[] counts) {
+    counts[0]++;
+    if (node.getLeft() == null) {
+      counts[1] += node.getObjects().size();
+    } else {
+      count(node.getLeft(), counts);
+      count(node.getRight(), counts);
+    }
+  }
+
+  private void flatten(final BVH node, final int level) {
+    final int i = nextNode++;
+    final Point min = node.bbox().getMin();
+    final Point max = node.bbox().getMax();
+    for (int d = 0; d < 3; d++) {
+      bounds[6 * i + d] = min.get(d);
+      bounds[6 * i + 3 + d] = max.get(d);
+    }
+    if (level > depth) {
+      depth = level;
+    }
+
+    if (node.getLeft() == null) {
+      final List<Obj> objects = node.getObjects();
+      nodes[2 * i] = nextPrim;
+      nodes[2 * i + 1] = objects.size();
+      for (final Obj prim : objects) {
+        prims[nextPrim++] = prim;
+      }
+      return;
+    }
+
+    flatten(node.getLeft(), level + 1);
+    nodes[2 * i] = nextNode;
+    nodes[2 * i + 1] = -1 - node.getAxis();
+    flatten(node.getRight(), level + 1);
+  }
+
+  /**
+   * Computes a hit point with the given parameters
+   *
+   * @param ray
+   *             The ray to compute the intersection with
+   * @param obj
+   *             The object to compute the intersection with
+   * @param tMin
+   *             The minimum distance
+   * @param tMax
+   *             The maximum distance
+   * @return The computed hit
+   */
+  @Override
+  public Hit hit(
+    final Ray ray,
+    final Obj obj,
+    final float tMin,
+    final float tMax
+  ) {
+    final HitRecord rec = new HitRecord();
+    return intersect(ray, obj, tMin, tMax, rec)
+      ? rec.toHit(ray)
+      : Hit.No.get();
+  }
+
+  /**
+   * Finds the nearest intersection within the given distances and stores it
+   * in the record. Only the record is written, no hit is created.
+   *
+   * @param ray
+   *             The ray to compute the intersection with
+   * @param obj
+   *             The object to compute the intersection with
+   * @param tMin
+   *             The minimum distance
+   * @param tMax
+   *             The maximum distance
+   * @param rec
+   *             The record receiving the nearest hit
+   * @return True if any object is hit within the distances
+   */
+  @Override
+  public boolean intersect(
+    final Ray ray,
+    final Obj obj,
+    final float tMin,
+    float tMax,
+    final HitRecord rec
+  ) {
+    if (nodes.length == 0) {
+      return false;
+    }
+
+    final Point base = ray.base();
+    final Vec3 invDir = ray.invDir();
+    final float ox = base.x(), oy = base.y(), oz = base.z();
+    final float ix = invDir.x(), iy = invDir.y(), iz = invDir.z();
+    final Vec3 dir = ray.dir();
+
+    final int[] stack = stack();
+    int top = 0;
+    int node = 0;
+    boolean found = false;
+    int visited = 0, tests = 0;
+
+    while (true) {
+      visited++;
+      if (intersect(node, ox, oy, oz, ix, iy, iz, tMin, tMax)) {
+        final int count = nodes[2 * node + 1];
+        if (count >= 0) {
+          final int first = nodes[2 * node];
+          tests += count;
+          for (int k = first; k < first + count; k++) {
+            final Obj p = prims[k];
+            if (p.intersect(ray, p, tMin, tMax, rec)) {
+              found = true;
+              tMax = rec.getParameter();
+            }
+          }
+        } else {
+          // visit the near child first, its hits clip the far child
+          if (dir.isNeg(-1 - count) == 1) {
+            stack[top++] = node + 1;
+            node = nodes[2 * node];
+          } else {
+            stack[top++] = nodes[2 * node];
+            node = node + 1;
+          }
+          continue;
+        }
+      }
+      if (top == 0) {
+        break;
+      }
+      node = stack[--top];
+    }
+
+    if (RenderStats.ENABLED) {
+      RenderStats.get().traversal(visited, visited, tests);
+    }
+    return found;
+  }
+
+  /**
+   * Intersects a packet of rays with the hierarchy. A packet whose rays share
+   * their origin and the signs of their directions (like neighbouring primary
+   * rays of a pinhole camera) traverses the hierarchy once for all rays: a
+   * node is culled for the whole packet by a single interval test over the
+   * directions, and the rays in front of the first ray hitting a node are
+   * skipped in its subtree. Other packets fall back to single rays.
+   *
+   * @param rays
+   *             The rays to compute the intersections with
+   * @param count
+   *             The number of rays (and records) to use
+   * @param obj
+   *             The object to compute the intersections with
+   * @param tMin
+   *             The minimum distance
+   * @param recs
+   *             The records receiving the nearest hits, one per ray
+   */
+  @Override
+  public void intersect(
+    final Ray[] rays,
+    final int count,
+    final Obj obj,
+    final float tMin,
+    final HitRecord[] recs
+  ) {
+    if (nodes.length == 0) {
+      return;
+    }
+    final float[] inv = packet(count);
+    if (!coherent(rays, count, inv)) {
+      for (int k = 0; k < count; k++) {
+        intersect(rays[k], obj, tMin, recs[k].getParameter(), recs[k]);
+      }
+      return;
+    }
+
+    final Point base = rays[0].base();
+    final float ox = base.x(), oy = base.y(), oz = base.z();
+    final Vec3 dir = rays[0].dir();
+    float tMax = maxParameter(recs, count);
+
+    // pairs of node and first ray which may hit the node
+    final int[] stack = stack(2 * depth);
+    int top = 0;
+    int node = 0;
+    int first = 0;
+    long visited = 0, boxes = 0, tests = 0;
+
+    while (true) {
+      visited++;
+      boxes++;
+      if (!missed(node, ox, oy, oz, inv, tMin, tMax)) {
+        final int from = first;
+        while (
+          first < count &&
+          !intersect(node, ox, oy, oz, inv[6 + 3 * first],
+            inv[7 + 3 * first], inv[8 + 3 * first], tMin,
+            recs[first].getParameter())
+        ) {
+          first++;
+        }
+        // the rays skipped and the one hitting the node
+        boxes += Math.min(first + 1, count) - from;
+      } else {
+        first = count;
+      }
+
+      if (first < count) {
+        final int n = nodes[2 * node + 1];
+        if (n >= 0) {
+          final int offset = nodes[2 * node];
+          for (int k = first; k < count; k++) {
+            final HitRecord rec = recs[k];
+            if (k > first) {
+              boxes++;
+              if (
+                !intersect(node, ox, oy, oz, inv[6 + 3 * k], inv[7 + 3 * k],
+                  inv[8 + 3 * k], tMin, rec.getParameter())
+              ) {
+                continue;
+              }
+            }
+            tests += n;
+            for (int p = offset; p < offset + n; p++) {
+              final Obj prim = prims[p];
+              prim.intersect(rays[k], prim, tMin, rec.getParameter(), rec);
+            }
+          }
+          tMax = maxParameter(recs, count);
+        } else {
+          // all rays agree on the near child
+          final int far;
+          if (dir.isNeg(-1 - n) == 1) {
+            far = node + 1;
+            node = nodes[2 * node];
+          } else {
+            far = nodes[2 * node];
+            node = node + 1;
+          }
+          stack[top++] = far;
+          stack[top++] = first;
+          continue;
+        }
+      }
+      if (top == 0) {
+        break;
+      }
+      first = stack[--top];
+      node = stack[--top];
+    }
+
+    if (RenderStats.ENABLED) {
+      RenderStats.get().traversal(visited, boxes, tests);
+    }
+  }
+
+  /**
+   * Checks whether the rays share their origin and the signs of their
+   * directions and stores the bounds of the inverse directions (min and max
+   * per axis) followed by the inverse direction of every ray
+   */
+  private static boolean coherent(
+    final Ray[] rays,
+    final int count,
+    final float[] inv
+  ) {
+    if (count < 2) {
+      return false;
+    }
+    final Point base = rays[0].base();
+    final Vec3 dir = rays[0].dir();
+    for (int d = 0; d < 3; d++) {
+      inv[d] = Float.POSITIVE_INFINITY;
+      inv[3 + d] = Float.NEGATIVE_INFINITY;
+    }
+    for (int k = 0; k < count; k++) {
+      final Ray ray = rays[k];
+      final Point o = ray.base();
+      if (o.x() != base.x() || o.y() != base.y() || o.z() != base.z()) {
+        return false;
+      }
+      final Vec3 invDir = ray.invDir();
+      for (int d = 0; d < 3; d++) {
+        final float i = invDir.get(d);
+        if (
+          ray.dir().isNeg(d) != dir.isNeg(d) ||
+          i < 0 != rays[0].invDir().get(d) < 0
+        ) {
+          return false;
+        }
+        inv[6 + 3 * k + d] = i;
+        inv[d] = Math.min(inv[d], i);
+        inv[3 + d] = Math.max(inv[3 + d], i);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether the node is missed by every ray of a coherent packet,
+   * using interval arithmetic over the inverse directions of the packet
+   */
+  private boolean missed(
+    final int node,
+    final float ox,
+    final float oy,
+    final float oz,
+    final float[] inv,
+    final float tMin,
+    final float tMax
+  ) {
+    final int b = 6 * node;
+    float entry = Float.NEGATIVE_INFINITY;
+    float exit = Float.POSITIVE_INFINITY;
+    for (int d = 0; d < 3; d++) {
+      final float o = d == 0 ? ox : d == 1 ? oy : oz;
+      final float lo = inv[d], hi = inv[3 + d];
+      // the near plane of a negative direction is the upper one
+      final float near = (lo < 0 ? bounds[b + 3 + d] : bounds[b + d]) - o;
+      final float far = (lo < 0 ? bounds[b + d] : bounds[b + 3 + d]) - o;
+      entry = Math.max(entry, Math.min(near * lo, near * hi));
+      exit = Math.min(exit, Math.max(far * lo, far * hi));
+    }
+    // comparisons involving NaN (0 * infinity) never cull
+    return entry > exit || exit < tMin || entry > tMax;
+  }
+
+  private static float maxParameter(final HitRecord[] recs, final int count) {
+    float max = Float.NEGATIVE_INFINITY;
+    for (int k = 0; k < count; k++) {
+      max = Math.max(max, recs[k].getParameter());
+    }
+    return max;
+  }
+
+  private float[] packet(final int count) {
+    float[] packet = packets.get();
+    if (packet == null || packet.length < 6 + 3 * count) {
+      packet = new float[6 + 3 * count];
+      packets.set(packet);
+    }
+    return packet;
+  }
+
+  /**
+   * Checks whether any object is intersected within the given distances. The
+   * traversal stops at the first intersection found.
+   *
+   * @param ray
+   *             The ray to compute the intersection with
+   * @param tMin
+   *             The minimum distance
+   * @param tMax
+   *             The maximum distance
+   * @return True if there is any intersection within the distances
+   */
+  @Override
+  public boolean occluded(final Ray ray, final float tMin, final float tMax) {
+    if (nodes.length == 0) {
+      return false;
+    }
+
+    final Point base = ray.base();
+    final Vec3 invDir = ray.invDir();
+    final float ox = base.x(), oy = base.y(), oz = base.z();
+    final float ix = invDir.x(), iy = invDir.y(), iz = invDir.z();
+    final Vec3 dir = ray.dir();
+
+    final int[] stack = stack();
+    int top = 0;
+    int node = 0;
+    int visited = 0, tests = 0;
+
+    while (true) {
+      visited++;
+      if (intersect(node, ox, oy, oz, ix, iy, iz, tMin, tMax)) {
+        final int count = nodes[2 * node + 1];
+        if (count >= 0) {
+          final int first = nodes[2 * node];
+          for (int k = first; k < first + count; k++) {
+            tests++;
+            if (prims[k].occluded(ray, tMin, tMax)) {
+              if (RenderStats.ENABLED) {
+                RenderStats.get().traversal(visited, visited, tests);
+              }
+              return true;
+            }
+          }
+        } else {
+          if (dir.isNeg(-1 - count) == 1) {
+            stack[top++] = node + 1;
+            node = nodes[2 * node];
+          } else {
+            stack[top++] = nodes[2 * node];
+            node = node + 1;
+          }
+          continue;
+        }
+      }
+      if (top == 0) {
+        if (RenderStats.ENABLED) {
+          RenderStats.get().traversal(visited, visited, tests);
+        }
+        return false;
+      }
+      node = stack[--top];
+    }
+  }
+
+  private int[] stack() {
+    return stack(depth);
+  }
+
+  private int[] stack(final int size) {
+    int[] stack = stacks.get();
+    if (stack == null || stack.length < size) {
+      stack = new int[size];
+      stacks.set(stack);
+    }
+    return stack;
+  }
+
+  private boolean intersect(
+    final int node,
+    final float ox,
+    final float oy,
+    final float oz,
+    final float ix,
+    final float iy,
+    final float iz,
+    final float tMin,
+    final float tMax
+  ) {
+    final int b = 6 * node;
+    final float t1 = (bounds[b] - ox) * ix;
+    final float t2 = (bounds[b + 3] - ox) * ix;
+    final float t3 = (bounds[b + 1] - oy) * iy;
+    final float t4 = (bounds[b + 4] - oy) * iy;
+    final float t5 = (bounds[b + 2] - oz) * iz;
+    final float t6 = (bounds[b + 5] - oz) * iz;
+
+    final float tMinNew = Math.max(
+      Math.max(Math.min(t1, t2), Math.min(t3, t4)),
+      Math.min(t5, t6)
+    );
+    final float tMaxNew = Math.min(
+      Math.min(Math.max(t1, t2), Math.max(t3, t4)),
+      Math.max(t5, t6)
+    );
+
+    return tMaxNew >= Math.max(tMinNew, tMin) && tMinNew <= tMax;
+  }
+}
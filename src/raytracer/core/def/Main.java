@@ -3,27 +3,35 @@ package raytracer.core.def;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.management.JMException;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 import raytracer.core.Camera;
+import raytracer.core.ImageOutput;
 import raytracer.core.LightSource;
+import raytracer.core.MeshCache;
 import raytracer.core.OBJReader;
 import raytracer.core.Obj;
 import raytracer.core.PerspectiveCamera;
+import raytracer.core.RenderStats;
 import raytracer.core.Renderer;
 import raytracer.core.Scene;
 import raytracer.core.Shader;
+import raytracer.core.TileScheduler;
 import raytracer.geom.GeomFactory;
 import raytracer.geom.Primitive;
+import raytracer.geom.TriangleMesh;
 import raytracer.math.Color;
 import raytracer.math.Point;
 import raytracer.math.Vec3;
@@ -45,7 +53,7 @@ public class Main {
       return new Dimension(img.getWidth(), img.getHeight());
     }
 
-    public void drawPacket(
+    public synchronized void drawPacket(
       final int x,
       final int y,
       final int w,
@@ -62,10 +70,90 @@ public class Main {
     }
   }
 
+  private static final String USAGE =
+    "usage: Main [-o file.(png|ppm|pfm|...)] [-w width] [-h height] " +
+    "[-s supersampling] [-a threshold] [-t threads]";
+
   public static void main(final String[] args) {
-    final int xRes = 640, yRes = 480, packet = 16;
-    final MyPanel panel = new MyPanel(xRes, yRes);
+    int xRes = 640, yRes = 480, superSample = 2;
+    float threshold = 0;
+    int threads = TileScheduler.defaultThreads();
+    String output = null;
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "-o":
+            output = args[++i];
+            break;
+          case "-w":
+            xRes = Integer.parseInt(args[++i]);
+            break;
+          case "-h":
+            yRes = Integer.parseInt(args[++i]);
+            break;
+          case "-s":
+            superSample = Integer.parseInt(args[++i]);
+            break;
+          case "-a":
+            threshold = Float.parseFloat(args[++i]);
+            break;
+          case "-t":
+            threads = Integer.parseInt(args[++i]);
+            break;
+          default:
+            throw new IllegalArgumentException(args[i]);
+        }
+      }
+      if (
+        xRes < 1 ||
+        yRes < 1 ||
+        superSample < 1 ||
+        threads < 1 ||
+        !(threshold >= 0)
+      ) {
+        throw new IllegalArgumentException();
+      }
+    } catch (final RuntimeException e) {
+      System.err.println(USAGE);
+      System.exit(2);
+      return;
+    }
+
+    final Scene scene;
+    try {
+      scene = createScene();
+    } catch (final IOException e) {
+      System.err.println(e);
+      return;
+    }
+    if (RenderStats.ENABLED) {
+      try {
+        RenderStats.get().register();
+      } catch (final JMException e) {
+        System.err.println(e);
+      }
+    }
+    final Renderer r = new Renderer(scene, xRes, yRes, superSample, threshold);
+    final TileScheduler scheduler = new TileScheduler(
+      r,
+      xRes,
+      yRes,
+      TileScheduler.DEFAULT_TILE_SIZE,
+      threads
+    );
+
+    if (output != null) {
+      try {
+        renderHeadless(scheduler, output, xRes, yRes);
+      } catch (final IOException | UncheckedIOException e) {
+        System.err.println(e);
+        System.exit(1);
+      }
+      printStats();
+      return;
+    }
 
+    final MyPanel panel = new MyPanel(xRes, yRes);
     SwingUtilities.invokeLater(
       new Runnable() {
         @Override
@@ -78,12 +166,112 @@ public class Main {
         }
       }
     );
+
+    final AtomicInteger done = new AtomicInteger();
+    scheduler.render(
+      w -> {
+        panel.drawPacket(w.x, w.y, w.w, w.h, w.pixels);
+        if (done.incrementAndGet() % 100 == 0) panel.repaint();
+      }
+    );
+
+    panel.repaint();
+    System.out.println("done");
+    printStats();
+  }
+
+  /**
+   * Prints the statistics of the render as JSON if they are collected
+   */
+  private static void printStats() {
+    if (RenderStats.ENABLED) {
+      System.out.println(RenderStats.get().toJson());
+    }
+  }
+
+  /**
+   * Renders the image without a window into the given file. PPM and PFM
+   * files are rendered and written one row of tiles after the other, all
+   * other formats are encoded with ImageIO at the end.
+   */
+  private static void renderHeadless(
+    final TileScheduler scheduler,
+    final String filename,
+    final int xRes,
+    final int yRes
+  ) throws IOException {
+    final String ext = filename
+      .substring(filename.lastIndexOf('.') + 1)
+      .toLowerCase(Locale.ENGLISH);
+    final long start = System.nanoTime();
+    final LongAdder rays = new LongAdder();
+    final LongAdder savedRays = new LongAdder();
+    try (
+      final ImageOutput out = ext.equals("ppm")
+        ? new StreamingOutput(
+          Paths.get(filename),
+          StreamingOutput.Format.PPM,
+          xRes,
+          yRes
+        )
+        : ext.equals("pfm")
+          ? new StreamingOutput(
+            Paths.get(filename),
+            StreamingOutput.Format.PFM,
+            xRes,
+            yRes
+          )
+          : new ImageIOOutput(new File(filename), ext, xRes, yRes)
+    ) {
+      final Consumer<Renderer.Work> sink = w -> {
+        rays.add(w.rays);
+        savedRays.add(w.savedRays);
+        try {
+          out.write(w);
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      };
+      // streamed files only keep the current row of tiles in memory
+      if (out instanceof StreamingOutput) {
+        scheduler.renderRows(sink);
+      } else {
+        scheduler.render(sink);
+      }
+    }
+    System.out.printf(
+      "%s: %dx%d in %d ms, %d primary rays (%d saved)%n",
+      filename,
+      xRes,
+      yRes,
+      (System.nanoTime() - start) / 1000000,
+      rays.sum(),
+      savedRays.sum()
+    );
+  }
+
+  /**
+   * Creates the scene rendered by {@link #main(String[])}, configured by the
+   * flags below
+   *
+   * @return The scene
+   * @throws IOException
+   *             If the model cannot be read
+   */
+  public static Scene createScene() throws IOException {
     final boolean implementedPlane = true; // TODO implement Plane
     final boolean implementedCheckerBoard = true; // TODO implement CheckerBoard
     final boolean implementedSphere = true; // TODO implement Sphere
     final boolean implementedPhong = true; // TODO implement Phong
     final boolean implementedOBJReader = true; // TODO implement OBJReader
     final boolean implementedBVH = true; // TODO implement BVH
+    final boolean useSAH = true; // build the BVH with the surface area heuristic
+    final boolean useLBVH = false; // trade tree quality for build speed
+    final boolean useLinearBVH = true; // trace the BVH in its flattened layout
+    final boolean useWideBVH = false; // collapse the BVH into 4-wide nodes
+    final boolean useMesh = true; // store the model as one triangle mesh
+    final boolean useMeshCache = true; // cache the parsed mesh and its BVH
+    final boolean useSmoothNormals = false; // interpolate vertex normals
     final LightSource ls = new PointLightSource(
       new Point(-10, 10, -10),
       Color.WHITE
@@ -147,71 +335,62 @@ public class Main {
     }
 
     if (implementedOBJReader) {
-      final BVH bvh = implementedBVH ? new BVH() : null;
-      try {
-        final String filename;
-        final float scale;
-        if (implementedBVH) {
-          filename = "obj/bunny.obj";
-          scale = 25;
+      BVH bvh = implementedBVH
+        ? (useLBVH ? new LBVH() : useSAH ? new SAHBVH() : new BVH())
+        : null;
+      final String filename;
+      final float scale;
+      if (implementedBVH) {
+        filename = "obj/bunny.obj";
+        scale = 25;
+      } else {
+        filename = "obj/pyramid.obj";
+        scale = 1;
+      }
+
+      final Shader green = new SingleColor(Color.GREEN);
+      final Shader shader = implementedPhong
+        ? ShaderFactory.createPhong(green, ambient, 1.f, .5f, 50)
+        : green;
+      final Vec3 translate = new Vec3(-3, 0, 0);
+      if (useMesh) {
+        final MeshCache cache = useMeshCache ? MeshCache.open(filename) : null;
+        TriangleMesh triangles = cache != null
+          ? cache.createMesh(scale, translate)
+          : OBJReader.readMesh(filename, scale, translate);
+        if (useSmoothNormals && !triangles.hasNormals()) {
+          triangles = triangles.withSmoothNormals();
+        }
+        final StandardMesh mesh = new StandardMesh(triangles, shader);
+        if (cache != null && bvh != null && useLinearBVH && !useWideBVH) {
+          accel.add(cache.createHierarchy(mesh, bvh));
+          bvh = null;
         } else {
-          filename = "obj/pyramid.obj";
-          scale = 1;
+          mesh.addTo(bvh != null ? bvh : accel);
         }
-
-        final Shader green = new SingleColor(Color.GREEN);
-        final Shader shader = implementedPhong
-          ? ShaderFactory.createPhong(green, ambient, 1.f, .5f, 50)
-          : green;
+      } else {
         OBJReader.read(
           filename,
           bvh != null ? bvh : accel,
           shader,
           scale,
-          new Vec3(-3, 0, 0)
+          translate
         );
-      } catch (final FileNotFoundException e) {
-        System.err.println(e);
-        return;
       }
 
       if (bvh != null) {
-        bvh.buildBVH();
-        accel.add(bvh);
+        bvh.buildBVHParallel();
+        accel.add(
+          useWideBVH
+            ? new WideBVH(bvh, 4)
+            : useLinearBVH ? new LinearBVH(bvh) : bvh
+        );
       }
     }
 
     final List<LightSource> lights = new ArrayList<LightSource>();
     lights.add(ls);
 
-    final Scene scene = new StandardScene(cam, lights, accel);
-    final Renderer r = new Renderer(scene, xRes, yRes, 2);
-
-    final Executor exe = Executors.newFixedThreadPool(2);
-    final CompletionService<Renderer.Work> ecs = new ExecutorCompletionService<Renderer.Work>(
-      exe
-    );
-    int num = 0;
-    for (int x = 0; x < xRes; x += packet) {
-      for (int y = 0; y < yRes; y += packet) {
-        ecs.submit(r.render(x, y, packet, packet));
-        num = num + 1;
-      }
-    }
-
-    for (int i = 0; i < num; i++) {
-      try {
-        final Renderer.Work w = ecs.take().get();
-        panel.drawPacket(w.x, w.y, packet, packet, w.pixels);
-        if (i % 100 == 0) panel.repaint();
-      } catch (final InterruptedException e) {
-        e.printStackTrace();
-      } catch (final ExecutionException e) {
-        e.printStackTrace();
-      }
-    }
-
-    panel.repaint();
-    System.out.println("done");
+    return new StandardScene(cam, lights, accel);
   }
 }
@@ -0,0 +1,322 @@
+package raytracer.core.def;
+
+import java.util.stream.IntStream;
+import raytracer.core.Obj;
+
+/**
+ * Represents a bounding volume hierarchy whose nodes are split according to
+ * the binned surface area heuristic (SAH). For every node the centroids of the
+ * objects are sorted into a fixed number of bins along each axis and the
+ * split plane between two bins minimizing the expected traversal cost is
+ * chosen.
+ */
+public class SAHBVH extends BVH {
+
+  /**
+   * The default number of bins per axis
+   */
+  public static final int DEFAULT_BINS = 16;
+
+  /**
+   * The default cost of traversing an inner node
+   */
+  public static final float DEFAULT_TRAVERSAL_COST = 1.0f;
+
+  /**
+   * The default cost of intersecting a single object
+   */
+  public static final float DEFAULT_INTERSECTION_COST = 1.0f;
+
+  /**
+   * The default maximum number of objects in a leaf
+   */
+  public static final int DEFAULT_LEAF_SIZE = 8;
+
+  private final int bins;
+  private final float traversalCost;
+  private final float intersectionCost;
+  private final int maxLeafSize;
+
+  /**
+   * Creates a new SAH bounding volume hierarchy using the default parameters
+   */
+  public SAHBVH() {
+    this(
+      DEFAULT_BINS,
+      DEFAULT_TRAVERSAL_COST,
+      DEFAULT_INTERSECTION_COST,
+      DEFAULT_LEAF_SIZE
+    );
+  }
+
+  /**
+   * Creates a new SAH bounding volume hierarchy
+   *
+   * @param bins
+   *             The number of bins per axis
+   * @param traversalCost
+   *             The cost of traversing an inner node
+   * @param intersectionCost
+   *             The cost of intersecting a single object
+   * @param maxLeafSize
+   *             The maximum number of objects in a leaf. Nodes with at most
+   *             this many objects become leaves whenever splitting does not
+   *             pay off.
+   * @throws IllegalArgumentException
+   *             If there are less than two bins, one of the costs is not a
+   *             positive finite number or the leaf size is less than one
+   */
+  public SAHBVH(
+    final int bins,
+    final float traversalCost,
+    final float intersectionCost,
+    final int maxLeafSize
+  ) {
+    if (bins < 2) {
+      throw new IllegalArgumentException("At least two bins are required.");
+    }
+    if (
+      !(traversalCost > 0) ||
+      !(intersectionCost > 0) ||
+      Float.isInfinite(traversalCost) ||
+      Float.isInfinite(intersectionCost)
+    ) {
+      throw new IllegalArgumentException(
+        "Costs must be positive finite numbers."
+      );
+    }
+    if (maxLeafSize < 1) {
+      throw new IllegalArgumentException("Leaf size must be at least one.");
+    }
+    this.bins = bins;
+    this.traversalCost = traversalCost;
+    this.intersectionCost = intersectionCost;
+    this.maxLeafSize = maxLeafSize;
+  }
+
+  @Override
+  protected int leafSize() {
+    // small nodes are still split if the heuristic says so
+    return 1;
+  }
+
+  @Override
+  protected BVH createChild() {
+    return new SAHBVH(bins, traversalCost, intersectionCost, maxLeafSize);
+  }
+
+  @Override
+  protected int split(final Obj[] objects, final int start, final int end) {
+    final int n = end - start;
+
+    final boolean parallel = isParallel(start, end);
+    final float[] boxes = getBounds();
+
+    // bounds of the centroids, min x, y, z followed by max x, y, z
+    final float[] cb;
+    if (parallel) {
+      cb =
+        IntStream
+          .range(start, end)
+          .parallel()
+          .collect(
+            SAHBVH::emptyBounds,
+            (b, i) -> growCentroid(b, boxes, i),
+            (a, b) -> merge(a, b, 0)
+          );
+    } else {
+      cb = emptyBounds();
+      for (int i = start; i < end; i++) {
+        growCentroid(cb, boxes, i);
+      }
+    }
+
+    final float[] rightArea = new float[bins];
+    final float[] acc = new float[6];
+
+    float bestCost = Float.POSITIVE_INFINITY;
+    int bestDim = -1;
+    int bestBin = -1;
+
+    for (int d = 0; d < 3; d++) {
+      final float extent = cb[3 + d] - cb[d];
+      if (!(extent > 0) || Float.isInfinite(extent)) {
+        continue;
+      }
+      final float scale = bins / extent;
+      final int dim = d;
+
+      final Bins binned;
+      if (parallel) {
+        binned =
+          IntStream
+            .range(start, end)
+            .parallel()
+            .collect(
+              () -> new Bins(bins),
+              (b, i) -> b.add(bin(boxes, i, dim, cb[dim], scale), boxes, i),
+              Bins::merge
+            );
+      } else {
+        binned = new Bins(bins);
+        for (int i = start; i < end; i++) {
+          binned.add(bin(boxes, i, d, cb[d], scale), boxes, i);
+        }
+      }
+      final int[] counts = binned.counts;
+      final float[] bounds = binned.bounds;
+
+      // sweep from the right to collect the areas of all right halves
+      reset(acc, 0);
+      for (int b = bins - 1; b > 0; b--) {
+        merge(acc, bounds, b * 6);
+        rightArea[b] = area(acc);
+      }
+
+      // sweep from the left and evaluate the cost of every split plane
+      reset(acc, 0);
+      int leftCount = 0;
+      for (int b = 0; b < bins - 1; b++) {
+        merge(acc, bounds, b * 6);
+        leftCount += counts[b];
+        final int rightCount = n - leftCount;
+        if (leftCount == 0 || rightCount == 0) {
+          continue;
+        }
+        final float cost =
+          leftCount * area(acc) + rightCount * rightArea[b + 1];
+        if (cost < bestCost) {
+          bestCost = cost;
+          bestDim = d;
+          bestBin = b;
+        }
+      }
+    }
+
+    if (bestDim < 0) {
+      // all centroids coincide, no plane separates them
+      return n <= maxLeafSize ? start : (start + end) >>> 1;
+    }
+
+    final float nodeArea = bbox().area();
+    final float splitCost = nodeArea > 0
+      ? traversalCost + intersectionCost * bestCost / nodeArea
+      : traversalCost + intersectionCost * n;
+    if (n <= maxLeafSize && splitCost >= intersectionCost * n) {
+      return start;
+    }
+
+    // partition the range in place according to the chosen plane
+    final float scale = bins / (cb[3 + bestDim] - cb[bestDim]);
+    int i = start;
+    int j = end - 1;
+    while (i <= j) {
+      if (bin(boxes, i, bestDim, cb[bestDim], scale) <= bestBin) {
+        i++;
+      } else {
+        swap(objects, i, j);
+        j--;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * The object counts and bounds of the bins along one axis
+   */
+  private static final class Bins {
+
+    private final int[] counts;
+    private final float[] bounds;
+
+    Bins(final int bins) {
+      counts = new int[bins];
+      bounds = new float[bins * 6];
+      for (int b = 0; b < bins; b++) {
+        reset(bounds, b * 6);
+      }
+    }
+
+    void add(final int b, final float[] boxes, final int i) {
+      counts[b]++;
+      SAHBVH.merge(bounds, b * 6, boxes, 6 * i);
+    }
+
+    void merge(final Bins other) {
+      for (int b = 0; b < counts.length; b++) {
+        counts[b] += other.counts[b];
+        SAHBVH.merge(bounds, b * 6, other.bounds, b * 6);
+      }
+    }
+  }
+
+  private static float[] emptyBounds() {
+    final float[] box = new float[6];
+    reset(box, 0);
+    return box;
+  }
+
+  private static void growCentroid(
+    final float[] box,
+    final float[] boxes,
+    final int i
+  ) {
+    for (int d = 0; d < 3; d++) {
+      final float c = centroid(boxes, i, d);
+      if (c < box[d]) box[d] = c;
+      if (c > box[3 + d]) box[3 + d] = c;
+    }
+  }
+
+  private static float centroid(
+    final float[] boxes,
+    final int i,
+    final int dim
+  ) {
+    return (boxes[6 * i + dim] + boxes[6 * i + 3 + dim]) * 0.5f;
+  }
+
+  private int bin(
+    final float[] boxes,
+    final int i,
+    final int dim,
+    final float min,
+    final float scale
+  ) {
+    final int b = (int) ((centroid(boxes, i, dim) - min) * scale);
+    return b < 0 ? 0 : (b >= bins ? bins - 1 : b);
+  }
+
+  private static void reset(final float[] box, final int ofs) {
+    for (int d = 0; d < 3; d++) {
+      box[ofs + d] = Float.POSITIVE_INFINITY;
+      box[ofs + 3 + d] = Float.NEGATIVE_INFINITY;
+    }
+  }
+
+  private static void merge(final float[] acc, final float[] box, final int ofs) {
+    merge(acc, 0, box, ofs);
+  }
+
+  private static void merge(
+    final float[] acc,
+    final int accOfs,
+    final float[] box,
+    final int ofs
+  ) {
+    for (int d = 0; d < 3; d++) {
+      acc[accOfs + d] = Math.min(acc[accOfs + d], box[ofs + d]);
+      acc[accOfs + 3 + d] = Math.max(acc[accOfs + 3 + d], box[ofs + 3 + d]);
+    }
+  }
+
+  private static float area(final float[] box) {
+    final float dx = box[3] - box[0];
+    final float dy = box[4] - box[1];
+    final float dz = box[5] - box[2];
+    if (dx < 0 || dy < 0 || dz < 0) {
+      return 0;
+    }
+    return 2 * (dx * dy + dy * dz + dz * dx);
+  }
+}
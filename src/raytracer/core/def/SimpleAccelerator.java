@@ -1,10 +1,13 @@
 package raytracer.core.def;
 
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
+import raytracer.core.RenderStats;
 import raytracer.geom.BBox;
 import raytracer.math.Ray;
 
@@ -15,6 +18,8 @@ import raytracer.math.Ray;
 public class SimpleAccelerator extends Accelerator {
 
 	private final List<Obj> prims = new LinkedList<Obj>();
+	/** The number of objects which are not accelerators themselves */
+	private int leaves;
 
 	/**
 	 * Returns the infinity bounding box
@@ -33,6 +38,14 @@ public class SimpleAccelerator extends Accelerator {
 	@Override
 	public void add(final Obj prim) {
 		prims.add(prim);
+		if (!(prim instanceof Accelerator))
+			leaves++;
+	}
+
+	@Override
+	public void addAll(final Collection<? extends Obj> prims) {
+		for (final Obj prim : prims)
+			add(prim);
 	}
 
 	/**
@@ -48,20 +61,95 @@ public class SimpleAccelerator extends Accelerator {
 	 *            The maximum distance
 	 * @return The computed hit
 	 */
-	public Hit hit(final Ray ray, final Obj obj, final float tmin, float tmax) {
-		Hit nearest = Hit.No.get();
+	public Hit hit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		final HitRecord rec = new HitRecord();
+		return intersect(ray, obj, tmin, tmax, rec) ? rec.toHit(ray) : Hit.No.get();
+	}
+
+	/**
+	 * Finds the nearest intersection within the given distances and stores it
+	 * in the record
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @param rec
+	 *            The record receiving the nearest hit
+	 * @return True if any object is hit within the distances
+	 */
+	@Override
+	public boolean intersect(final Ray ray, final Obj obj, final float tmin, float tmax,
+			final HitRecord rec) {
+		boolean found = false;
 		for (final Obj p : prims) {
-			final Hit hit = p.hit(ray, p, tmin, tmax);
-			if (hit.hits()) {
-				final float t = hit.getParameter();
-				if (t < tmax) {
-					nearest = hit;
-					tmax = t;
-				}
+			if (p.intersect(ray, p, tmin, tmax, rec)) {
+				found = true;
+				tmax = rec.getParameter();
 			}
 		}
+		if (RenderStats.ENABLED)
+			// nested accelerators count their own tests
+			RenderStats.get().traversal(0, 0, leaves);
+		return found;
+	}
+
+	/**
+	 * Intersects a packet of rays with all objects, passing the whole packet
+	 * on to every object
+	 *
+	 * @param rays
+	 *            The rays to compute the intersections with
+	 * @param count
+	 *            The number of rays (and records) to use
+	 * @param obj
+	 *            The object to compute the intersections with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param recs
+	 *            The records receiving the nearest hits, one per ray
+	 */
+	@Override
+	public void intersect(final Ray[] rays, final int count, final Obj obj, final float tmin,
+			final HitRecord[] recs) {
+		for (final Obj p : prims)
+			p.intersect(rays, count, p, tmin, recs);
+		if (RenderStats.ENABLED)
+			RenderStats.get().traversal(0, 0, (long) leaves * count);
+	}
 
-		return nearest;
+	/**
+	 * Checks whether any object is intersected within the given distances.
+	 * The objects are tested in insertion order until the first intersection
+	 * is found.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return True if there is any intersection within the distances
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float tmin, final float tmax) {
+		int tests = 0;
+		boolean blocked = false;
+		for (final Obj p : prims) {
+			if (!(p instanceof Accelerator))
+				tests++;
+			if (p.occluded(ray, tmin, tmax)) {
+				blocked = true;
+				break;
+			}
+		}
+		if (RenderStats.ENABLED)
+			RenderStats.get().traversal(0, 0, tests);
+		return blocked;
 	}
 
 }
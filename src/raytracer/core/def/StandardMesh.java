@@ -0,0 +1,181 @@
+package raytracer.core.def;
+
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.Obj;
+import raytracer.core.Shader;
+import raytracer.core.Trace;
+import raytracer.geom.BBox;
+import raytracer.geom.TriangleMesh;
+import raytracer.math.Color;
+import raytracer.math.Ray;
+
+/**
+ * Represents a triangle mesh shaded by a single shader. Every triangle of the
+ * mesh is exposed as a lightweight object (holding nothing but its index)
+ * which can be added to an acceleration structure.
+ */
+public class StandardMesh {
+
+  /**
+   * The number of triangles handed to an acceleration structure at once
+   */
+  private static final int BATCH_SIZE = 1 << 16;
+
+  /**
+   * Represents a single triangle of the mesh
+   */
+  public final class Face implements Obj {
+
+    private final int index;
+
+    private Face(final int index) {
+      this.index = index;
+    }
+
+    /**
+     * Returns the index of the triangle in the mesh
+     *
+     * @return The index of the triangle
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * Returns the mesh containing the triangle
+     *
+     * @return The mesh containing the triangle
+     */
+    public StandardMesh getMesh() {
+      return StandardMesh.this;
+    }
+
+    /**
+     * Returns the computed color using the shader of the mesh
+     */
+    @Override
+    public Color shade(final Hit hit, final Trace trace) {
+      return shader.shade(hit, trace);
+    }
+
+    /**
+     * Computes the bounding box of the triangle
+     */
+    @Override
+    public BBox bbox() {
+      return mesh.bbox(index);
+    }
+
+    @Override
+    public Hit hit(
+      final Ray ray,
+      final Obj obj,
+      final float tmin,
+      final float tmax
+    ) {
+      return mesh.hit(index, ray, this, tmin, tmax);
+    }
+
+    @Override
+    public boolean intersect(
+      final Ray ray,
+      final Obj obj,
+      final float tmin,
+      final float tmax,
+      final HitRecord rec
+    ) {
+      return mesh.intersect(index, this, ray, this, tmin, tmax, rec);
+    }
+
+    @Override
+    public Hit createHit(final Ray ray, final Obj obj, final HitRecord rec) {
+      return mesh.createHit(index, ray, obj, rec);
+    }
+
+    @Override
+    public boolean occluded(final Ray ray, final float tmin, final float tmax) {
+      return mesh.occluded(index, ray, tmin, tmax);
+    }
+  }
+
+  private final TriangleMesh mesh;
+  private final Shader shader;
+
+  /**
+   * Creates a new standard mesh
+   *
+   * @param mesh
+   *            The triangles
+   * @param shader
+   *            The shader used for all triangles
+   * @throws IllegalArgumentException
+   *            If the mesh or the shader is null
+   */
+  public StandardMesh(final TriangleMesh mesh, final Shader shader) {
+    if (mesh == null || shader == null) {
+      throw new IllegalArgumentException("Mesh and shader cannot be null.");
+    }
+    this.mesh = mesh;
+    this.shader = shader;
+  }
+
+  /**
+   * Returns the triangles
+   *
+   * @return The triangles
+   */
+  public TriangleMesh getTriangles() {
+    return mesh;
+  }
+
+  /**
+   * Returns the shader used for all triangles
+   *
+   * @return The shader
+   */
+  public Shader getShader() {
+    return shader;
+  }
+
+  /**
+   * Creates the object representing the given triangle
+   *
+   * @param index
+   *            The index of the triangle
+   * @return The object representing the triangle
+   */
+  public Face getFace(final int index) {
+    if (index < 0 || index >= mesh.getTriangleCount()) {
+      throw new IndexOutOfBoundsException("Triangle index out of range.");
+    }
+    return new Face(index);
+  }
+
+  /**
+   * Adds all triangles to the given acceleration structure. The triangles are
+   * handed over in batches along with their bounding boxes, which are
+   * computed directly from the coordinates of the mesh.
+   *
+   * @param accelerator
+   *            The target acceleration structure
+   */
+  public void addTo(final Accelerator accelerator) {
+    final int triangleCount = mesh.getTriangleCount();
+    final int batchSize = Math.min(BATCH_SIZE, triangleCount);
+    final Face[] faces = new Face[batchSize];
+    final float[] bounds = new float[6 * batchSize];
+    for (int first = 0; first < triangleCount; first += batchSize) {
+      final int count = Math.min(batchSize, triangleCount - first);
+      for (int k = 0; k < count; k++) {
+        final int tri = first + k;
+        faces[k] = new Face(tri);
+        for (int d = 0; d < 3; d++) {
+          bounds[6 * k + d] = mesh.min(tri, d);
+          bounds[6 * k + 3 + d] = mesh.max(tri, d);
+        }
+      }
+      accelerator.addAll(faces, bounds, count);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package raytracer.core.def;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
 import raytracer.core.Shader;
 import raytracer.core.Trace;
@@ -14,7 +15,7 @@ import raytracer.math.Ray;
  */
 public class StandardObj implements Obj {
 
-	private final Primitive primitive;
+	private Primitive primitive;
 	private final Shader shader;
 
 	/**
@@ -30,6 +31,23 @@ public class StandardObj implements Obj {
 		this.shader = shader;
 	}
 
+	/**
+	 * Replaces the internal primitive, e.g. to move the object between two
+	 * frames. Acceleration structures containing the object have to be updated
+	 * afterwards (see {@link BVH#refit(java.util.Collection)}).
+	 * <p>
+	 * Objects are equal if their primitives are, so this changes
+	 * {@link #hashCode()} and {@link #equals(Object)}: an object must not be
+	 * moved while it is held by a hash based set or map. The index of
+	 * {@link BVH} finds objects by identity and is not affected.
+	 *
+	 * @param primitive
+	 *            The new internal primitive
+	 */
+	public void setPrimitive(final Primitive primitive) {
+		this.primitive = primitive;
+	}
+
 	/**
 	 * Returns the computed color using the internal shader
 	 */
@@ -64,6 +82,44 @@ public class StandardObj implements Obj {
 		return primitive.hit(ray, this, tmin, tmax);
 	}
 
+	/**
+	 * Intersects the encapsulated primitive and stores the hit in the record
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @param rec
+	 *            The record receiving the hit
+	 * @return True if the primitive is hit within the distances
+	 */
+	@Override
+	public boolean intersect(final Ray ray, final Obj obj, final float tmin, final float tmax,
+			final HitRecord rec) {
+		return primitive.intersect(ray, this, tmin, tmax, rec);
+	}
+
+	/**
+	 * Checks whether the encapsulated primitive is intersected within the given
+	 * distances
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return True if there is any intersection within the distances
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float tmin, final float tmax) {
+		return primitive.occluded(ray, tmin, tmax);
+	}
+
 	@Override
 	public int hashCode() {
 		return primitive.hashCode();
@@ -4,7 +4,9 @@ import java.util.Collection;
 
 import raytracer.core.Camera;
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.LightSource;
+import raytracer.core.RenderStats;
 import raytracer.core.Scene;
 import raytracer.geom.Primitive;
 import raytracer.math.Color;
@@ -79,4 +81,55 @@ public class StandardScene implements Scene {
 		return accel.hit(ray, null, 0, Float.POSITIVE_INFINITY);
 	}
 
+	/**
+	 * Computes the nearest intersection (if possible) of the given ray with
+	 * the scene and stores it in the record
+	 *
+	 * @param ray
+	 *            The ray used for intersection computation
+	 * @param rec
+	 *            The (empty) record receiving the hit
+	 * @return True if anything is hit
+	 */
+	@Override
+	public boolean intersect(final Ray ray, final HitRecord rec) {
+		return accel.intersect(ray, null, 0, Float.POSITIVE_INFINITY, rec);
+	}
+
+	/**
+	 * Computes the nearest intersections of a packet of rays with the scene
+	 * and stores them in the records
+	 *
+	 * @param rays
+	 *            The rays used for intersection computation
+	 * @param count
+	 *            The number of rays (and records) to use
+	 * @param recs
+	 *            The (empty) records receiving the hits, one per ray
+	 */
+	@Override
+	public void intersect(final Ray[] rays, final int count, final HitRecord[] recs) {
+		accel.intersect(rays, count, null, 0, recs);
+	}
+
+	/**
+	 * Checks whether the given ray intersects anything in the scene within the
+	 * given distances
+	 *
+	 * @param ray
+	 *            The ray used for intersection computation
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return True if there is any intersection within the distances
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float tmin, final float tmax) {
+		final boolean occluded = accel.occluded(ray, tmin, tmax);
+		if (RenderStats.ENABLED)
+			RenderStats.get().shadowRay(occluded);
+		return occluded;
+	}
+
 }
@@ -0,0 +1,270 @@
+package raytracer.core.def;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import raytracer.core.ImageOutput;
+import raytracer.core.Renderer;
+import raytracer.core.TileScheduler;
+
+/**
+ * Represents an image output writing uncompressed PPM (8 bit) or PFM (32 bit
+ * float) files. PFM files hold the colors of {@link Renderer.Work#colors}
+ * at full float precision, but like all colors of the renderer in the range
+ * from 0 to 1. The file is mapped into memory in bands of scanlines and
+ * every piece of the image is encoded directly into its place in the mapping,
+ * so the pieces can be released immediately. A band is flushed and unmapped
+ * as soon as all of its pixels have arrived; rendering the image band by band
+ * (see {@link raytracer.core.TileScheduler#renderRows}) therefore bounds the
+ * memory to a few bands regardless of the size of the image.
+ */
+public class StreamingOutput implements ImageOutput {
+
+  /**
+   * The supported file formats
+   */
+  public enum Format {
+    /**
+     * Binary portable pixmap, 8 bit per channel, top row first
+     */
+    PPM,
+    /**
+     * Portable float map, little endian floats, bottom row first
+     */
+    PFM,
+  }
+
+  private final FileChannel channel;
+  private final Format format;
+  private final int xRes, yRes, bandHeight;
+  private final long headerSize;
+  private final MappedByteBuffer[] bands;
+  private final int[] filled;
+  private int remaining;
+
+  /**
+   * Creates a new streaming output, creating or truncating the file. The
+   * file is mapped in bands of {@link TileScheduler#DEFAULT_TILE_SIZE}
+   * scanlines.
+   *
+   * @param file
+   *            The target file
+   * @param format
+   *            The file format
+   * @param xRes
+   *            The X resolution of the image
+   * @param yRes
+   *            The Y resolution of the image
+   * @throws IOException
+   *            If the file cannot be opened
+   * @throws IllegalArgumentException
+   *            If the file or the format is null or one of the resolutions is
+   *            not positive
+   */
+  public StreamingOutput(
+    final Path file,
+    final Format format,
+    final int xRes,
+    final int yRes
+  ) throws IOException {
+    this(file, format, xRes, yRes, TileScheduler.DEFAULT_TILE_SIZE);
+  }
+
+  /**
+   * Creates a new streaming output, creating or truncating the file
+   *
+   * @param file
+   *            The target file
+   * @param format
+   *            The file format
+   * @param xRes
+   *            The X resolution of the image
+   * @param yRes
+   *            The Y resolution of the image
+   * @param bandHeight
+   *            The number of scanlines mapped together, best the height of
+   *            the rendered tiles
+   * @throws IOException
+   *            If the file cannot be opened
+   * @throws IllegalArgumentException
+   *            If the file or the format is null, one of the resolutions or
+   *            the band height is not positive or a band would exceed 2 GB
+   */
+  public StreamingOutput(
+    final Path file,
+    final Format format,
+    final int xRes,
+    final int yRes,
+    final int bandHeight
+  ) throws IOException {
+    if (file == null || format == null) {
+      throw new IllegalArgumentException("File and format cannot be null.");
+    }
+    if (xRes < 1 || yRes < 1 || bandHeight < 1) {
+      throw new IllegalArgumentException(
+        "Resolutions and band height must be positive."
+      );
+    }
+    if ((long) xRes * pixelSize(format) * bandHeight > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Bands are too large to be mapped.");
+    }
+    this.format = format;
+    this.xRes = xRes;
+    this.yRes = yRes;
+    this.bandHeight = bandHeight;
+    final int bandCount = (yRes + bandHeight - 1) / bandHeight;
+    this.bands = new MappedByteBuffer[bandCount];
+    this.filled = new int[bandCount];
+    this.remaining = bandCount;
+
+    final String header = format == Format.PPM
+      ? "P6\n" + xRes + " " + yRes + "\n255\n"
+      : "PF\n" + xRes + " " + yRes + "\n-1.0\n";
+    final ByteBuffer buf = ByteBuffer.wrap(
+      header.getBytes(StandardCharsets.US_ASCII)
+    );
+    this.headerSize = buf.remaining();
+    this.channel =
+      FileChannel.open(
+        file,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE
+      );
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+  }
+
+  private static int pixelSize(final Format format) {
+    return format == Format.PPM ? 3 : 12;
+  }
+
+  @Override
+  public void write(final Renderer.Work work) throws IOException {
+    final int pixelSize = pixelSize(format);
+    int y = 0;
+    while (y < work.h) {
+      final int band = (work.y + y) / bandHeight;
+      final int rows = Math.min(
+        work.h - y,
+        (band + 1) * bandHeight - work.y - y
+      );
+      final MappedByteBuffer buf = band(band);
+      // pieces cover disjoint pixels, so they can be encoded concurrently
+      for (int k = y; k < y + rows; k++) {
+        int index = offset(work.y + k, band) + work.x * pixelSize;
+        for (int x = 0; x < work.w; x++) {
+          index = encode(work, k * work.w + x, buf, index);
+        }
+      }
+      complete(band, rows * work.w);
+      y += rows;
+    }
+  }
+
+  /**
+   * Returns the mapping of the given band, mapping it if necessary
+   */
+  private synchronized MappedByteBuffer band(final int band)
+    throws IOException {
+    if (bands[band] == null) {
+      if (filled[band] < 0) {
+        throw new IllegalStateException("Band " + band + " already written.");
+      }
+      final long rowSize = (long) xRes * pixelSize(format);
+      bands[band] =
+        channel.map(
+          FileChannel.MapMode.READ_WRITE,
+          headerSize + firstLine(band) * rowSize,
+          rows(band) * rowSize
+        );
+      bands[band].order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return bands[band];
+  }
+
+  private synchronized void complete(final int band, final int pixels) {
+    filled[band] += pixels;
+    if (filled[band] == rows(band) * xRes) {
+      bands[band].force();
+      bands[band] = null;
+      filled[band] = -1;
+      remaining--;
+    }
+  }
+
+  /**
+   * Returns the line of the file holding the given scanline
+   */
+  private int line(final int y) {
+    return format == Format.PPM ? y : yRes - 1 - y;
+  }
+
+  /**
+   * Returns the number of scanlines of the given band
+   */
+  private int rows(final int band) {
+    return Math.min(yRes, (band + 1) * bandHeight) - band * bandHeight;
+  }
+
+  /**
+   * Returns the first line of the file belonging to the given band
+   */
+  private int firstLine(final int band) {
+    final int first = band * bandHeight;
+    return Math.min(line(first), line(first + rows(band) - 1));
+  }
+
+  /**
+   * Returns the offset of the given scanline inside the mapping of its band
+   */
+  private int offset(final int y, final int band) {
+    return (line(y) - firstLine(band)) * xRes * pixelSize(format);
+  }
+
+  private int encode(
+    final Renderer.Work work,
+    final int p,
+    final ByteBuffer buf,
+    final int index
+  ) {
+    if (format == Format.PPM) {
+      final int rgb = work.pixels[p];
+      buf.put(index, (byte) (rgb >> 16));
+      buf.put(index + 1, (byte) (rgb >> 8));
+      buf.put(index + 2, (byte) rgb);
+      return index + 3;
+    }
+    buf.putFloat(index, work.colors[3 * p]);
+    buf.putFloat(index + 4, work.colors[3 * p + 1]);
+    buf.putFloat(index + 8, work.colors[3 * p + 2]);
+    return index + 12;
+  }
+
+  /**
+   * Closes the file
+   *
+   * @throws IOException
+   *            If closing fails or scanlines are missing
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    for (int band = 0; band < bands.length; band++) {
+      if (bands[band] != null) {
+        bands[band].force();
+        bands[band] = null;
+      }
+    }
+    channel.close();
+    if (remaining > 0) {
+      throw new IOException(remaining + " bands of scanlines are incomplete.");
+    }
+  }
+}
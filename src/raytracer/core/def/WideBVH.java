@@ -0,0 +1,606 @@
+package raytracer.core.def;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.Obj;
+import raytracer.core.RenderStats;
+import raytracer.geom.BBox;
+import raytracer.geom.TriangleMesh;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec3;
+
+/**
+ * Represents a bounding volume hierarchy with 4 or 8 children per node (also
+ * known as MBVH). It is built by collapsing a binary hierarchy: the inner
+ * child with the largest surface area is repeatedly replaced by its own
+ * children until a node is full, which roughly halves (4 wide) or thirds (8
+ * wide) the depth of the tree.
+ * <p>
+ * The bounds of the children of a node are stored contiguously as one block
+ * of a {@link WideKernel}, so every traversal step tests all children at
+ * once. Children are encoded in the array {@code children}: an inner node by
+ * its index, a leaf by -1 - its index and an unused lane by {@link #EMPTY}.
+ * Triangles of a {@link StandardMesh} in a leaf are copied into blocks of
+ * the kernel as well; the other objects of a leaf are tested one by one.
+ */
+public class WideBVH extends Accelerator {
+
+  private static final int EMPTY = Integer.MIN_VALUE;
+
+  /**
+   * The scratch space of the traversal of one thread
+   */
+  private static final class Scratch {
+
+    final int[] codes;
+    final float[] dists;
+    final float[] tNear = new float[8];
+    final float[] hit = new float[3];
+
+    Scratch(final int size) {
+      codes = new int[size];
+      dists = new float[size];
+    }
+  }
+
+  private final int width;
+  private final WideKernel kernel = WideKernel.get();
+  private final List<Obj> pending = new ArrayList<>();
+
+  private float[] bounds = new float[0];
+  private int[] children = new int[0];
+  private int[] leaves = new int[0];
+  private Obj[] objects = new Obj[0];
+  private float[] triangles = new float[0];
+  private StandardMesh.Face[] faces = new StandardMesh.Face[0];
+  private BBox boundingBox = BBox.EMPTY;
+  private int depth;
+  private int nodeCount, leafCount, objectCount, blockCount;
+
+  private final ThreadLocal<Scratch> scratches = new ThreadLocal<>();
+
+  /**
+   * Creates a new empty 4-wide bounding volume hierarchy. Objects are added
+   * with {@link #add(Obj)} and compiled with {@link #buildBVH()}.
+   */
+  public WideBVH() {
+    this(4);
+  }
+
+  /**
+   * Creates a new empty wide bounding volume hierarchy. Objects are added
+   * with {@link #add(Obj)} and compiled with {@link #buildBVH()}.
+   *
+   * @param width
+   *             The number of children per node (4 or 8)
+   * @throws IllegalArgumentException
+   *             If the width is neither 4 nor 8
+   */
+  public WideBVH(final int width) {
+    if (width != 4 && width != 8) {
+      throw new IllegalArgumentException("Width must be 4 or 8.");
+    }
+    this.width = width;
+  }
+
+  /**
+   * Creates a new wide bounding volume hierarchy by collapsing the given
+   * (already built) binary hierarchy
+   *
+   * @param bvh
+   *             The hierarchy to collapse
+   * @param width
+   *             The number of children per node (4 or 8)
+   * @throws IllegalArgumentException
+   *             If the hierarchy is null or the width is neither 4 nor 8
+   */
+  public WideBVH(final BVH bvh, final int width) {
+    this(width);
+    if (bvh == null) {
+      throw new IllegalArgumentException("BVH cannot be null.");
+    }
+    compile(bvh);
+    pending.addAll(Arrays.asList(objects).subList(0, objectCount));
+    for (final StandardMesh.Face face : faces) {
+      if (face != null) {
+        pending.add(face);
+      }
+    }
+  }
+
+  /**
+   * Returns the bounding box surrounding all compiled objects
+   */
+  @Override
+  public BBox bbox() {
+    return boundingBox;
+  }
+
+  /**
+   * Adds an object to the acceleration structure. The object becomes visible
+   * to intersection queries after the next call to {@link #buildBVH()}.
+   *
+   * @param prim
+   *             The object to add
+   */
+  @Override
+  public void add(final Obj prim) {
+    pending.add(prim);
+  }
+
+  @Override
+  public void addAll(final Collection<? extends Obj> prims) {
+    pending.addAll(prims);
+  }
+
+  /**
+   * Builds a binary hierarchy over all added objects using the surface area
+   * heuristic and collapses it
+   */
+  public void buildBVH() {
+    final BVH bvh = new SAHBVH();
+    bvh.addAll(pending);
+    bvh.buildBVH();
+    compile(bvh);
+  }
+
+  /**
+   * Returns the number of children per node
+   *
+   * @return The number of children per node
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the number of nodes
+   *
+   * @return The number of nodes
+   */
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  /**
+   * Returns the number of levels of nodes
+   *
+   * @return The depth of the tree
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  private void compile(final BVH bvh) {
+    bounds = new float[0];
+    children = new int[0];
+    leaves = new int[0];
+    objects = new Obj[0];
+    triangles = new float[0];
+    faces = new StandardMesh.Face[0];
+    nodeCount = leafCount = objectCount = blockCount = depth = 0;
+    boundingBox = bvh.bbox();
+    if (bvh.getLeft() == null && bvh.getObjects().isEmpty()) {
+      return;
+    }
+    if (bvh.getLeft() == null) {
+      // a single leaf still needs a root node
+      final int root = node();
+      setChild(root, 0, bvh, leaf(bvh));
+      depth = 1;
+    } else {
+      collapse(bvh, 1);
+    }
+    bounds = Arrays.copyOf(bounds, nodeCount * 6 * width);
+    children = Arrays.copyOf(children, nodeCount * width);
+    leaves = Arrays.copyOf(leaves, leafCount * 4);
+    objects = Arrays.copyOf(objects, objectCount);
+    triangles = Arrays.copyOf(triangles, blockCount * 9 * width);
+    faces = Arrays.copyOf(faces, blockCount * width);
+  }
+
+  /**
+   * Collapses an inner node of the binary hierarchy and its descendants and
+   * returns the index of the new node
+   */
+  private int collapse(final BVH node, final int level) {
+    final List<BVH> lanes = new ArrayList<>(width);
+    lanes.add(node.getLeft());
+    lanes.add(node.getRight());
+    while (lanes.size() < width) {
+      int largest = -1;
+      for (int i = 0; i < lanes.size(); i++) {
+        final BVH lane = lanes.get(i);
+        if (
+          lane.getLeft() != null &&
+          (largest < 0 || lane.bbox().area() > lanes.get(largest).bbox().area())
+        ) {
+          largest = i;
+        }
+      }
+      if (largest < 0) {
+        break;
+      }
+      final BVH opened = lanes.get(largest);
+      lanes.set(largest, opened.getLeft());
+      lanes.add(opened.getRight());
+    }
+
+    final int index = node();
+    depth = Math.max(depth, level);
+    for (int i = 0; i < lanes.size(); i++) {
+      final BVH lane = lanes.get(i);
+      setChild(
+        index,
+        i,
+        lane,
+        lane.getLeft() == null ? leaf(lane) : collapse(lane, level + 1)
+      );
+    }
+    return index;
+  }
+
+  /**
+   * Allocates a node with all lanes unused
+   */
+  private int node() {
+    final int index = nodeCount++;
+    if (children.length < nodeCount * width) {
+      children = Arrays.copyOf(children, 2 * nodeCount * width);
+      bounds = Arrays.copyOf(bounds, 2 * nodeCount * 6 * width);
+    }
+    Arrays.fill(children, index * width, nodeCount * width, EMPTY);
+    Arrays.fill(bounds, index * 6 * width, nodeCount * 6 * width, Float.NaN);
+    return index;
+  }
+
+  private void setChild(
+    final int node,
+    final int lane,
+    final BVH child,
+    final int code
+  ) {
+    children[node * width + lane] = code;
+    final Point min = child.bbox().getMin();
+    final Point max = child.bbox().getMax();
+    final int b = node * 6 * width + lane;
+    for (int d = 0; d < 3; d++) {
+      bounds[b + d * width] = min.get(d);
+      bounds[b + (3 + d) * width] = max.get(d);
+    }
+  }
+
+  /**
+   * Stores a leaf of the binary hierarchy and returns its code. The leaf
+   * holds the offset and the number of its other objects followed by the
+   * offset and the number of its blocks of triangles.
+   */
+  private int leaf(final BVH node) {
+    final int index = leafCount++;
+    if (leaves.length < leafCount * 4) {
+      leaves = Arrays.copyOf(leaves, 2 * leafCount * 4);
+    }
+
+    final List<StandardMesh.Face> meshFaces = new ArrayList<>();
+    leaves[4 * index] = objectCount;
+    for (final Obj obj : node.getObjects()) {
+      if (obj instanceof StandardMesh.Face) {
+        meshFaces.add((StandardMesh.Face) obj);
+      } else {
+        if (objects.length == objectCount) {
+          objects = Arrays.copyOf(objects, 2 * objectCount + 1);
+        }
+        objects[objectCount++] = obj;
+      }
+    }
+    leaves[4 * index + 1] = objectCount - leaves[4 * index];
+
+    final int blocks = (meshFaces.size() + width - 1) / width;
+    leaves[4 * index + 2] = blockCount;
+    leaves[4 * index + 3] = blocks;
+    if (faces.length < (blockCount + blocks) * width) {
+      faces = Arrays.copyOf(faces, 2 * (blockCount + blocks) * width);
+      triangles = Arrays.copyOf(
+        triangles,
+        2 * (blockCount + blocks) * 9 * width
+      );
+    }
+    for (int block = blockCount; block < blockCount + blocks; block++) {
+      Arrays.fill(
+        triangles,
+        block * 9 * width,
+        (block + 1) * 9 * width,
+        Float.NaN
+      );
+    }
+    for (int i = 0; i < meshFaces.size(); i++) {
+      final StandardMesh.Face face = meshFaces.get(i);
+      final TriangleMesh mesh = face.getMesh().getTriangles();
+      final int tri = face.getIndex();
+      final int block = blockCount + i / width;
+      final int t = block * 9 * width + i % width;
+      for (int d = 0; d < 3; d++) {
+        final float a = mesh.get(tri, 0, d);
+        triangles[t + d * width] = a;
+        triangles[t + (3 + d) * width] = mesh.get(tri, 1, d) - a;
+        triangles[t + (6 + d) * width] = mesh.get(tri, 2, d) - a;
+      }
+      faces[block * width + i % width] = face;
+    }
+    blockCount += blocks;
+    return -1 - index;
+  }
+
+  /**
+   * Computes a hit point with the given parameters
+   *
+   * @param ray
+   *             The ray to compute the intersection with
+   * @param obj
+   *             The object to compute the intersection with
+   * @param tMin
+   *             The minimum distance
+   * @param tMax
+   *             The maximum distance
+   * @return The computed hit
+   */
+  @Override
+  public Hit hit(
+    final Ray ray,
+    final Obj obj,
+    final float tMin,
+    final float tMax
+  ) {
+    final HitRecord rec = new HitRecord();
+    return intersect(ray, obj, tMin, tMax, rec)
+      ? rec.toHit(ray)
+      : Hit.No.get();
+  }
+
+  /**
+   * Finds the nearest intersection within the given distances and stores it
+   * in the record. The hit children of a node are visited from near to far.
+   *
+   * @param ray
+   *             The ray to compute the intersection with
+   * @param obj
+   *             The object to compute the intersection with
+   * @param tMin
+   *             The minimum distance
+   * @param tMax
+   *             The maximum distance
+   * @param rec
+   *             The record receiving the nearest hit
+   * @return True if any object is hit within the distances
+   */
+  @Override
+  public boolean intersect(
+    final Ray ray,
+    final Obj obj,
+    final float tMin,
+    float tMax,
+    final HitRecord rec
+  ) {
+    if (nodeCount == 0) {
+      return false;
+    }
+
+    final Point base = ray.base();
+    final Vec3 dir = ray.dir();
+    final Vec3 invDir = ray.invDir();
+    final float ox = base.x(), oy = base.y(), oz = base.z();
+    final float dx = dir.x(), dy = dir.y(), dz = dir.z();
+    final float ix = invDir.x(), iy = invDir.y(), iz = invDir.z();
+
+    final Scratch scratch = scratch();
+    final int[] codes = scratch.codes;
+    final float[] dists = scratch.dists;
+    final float[] tNear = scratch.tNear;
+    final float[] hit = scratch.hit;
+    codes[0] = 0;
+    dists[0] = Float.NEGATIVE_INFINITY;
+    int top = 1;
+    boolean found = false;
+    int visited = 0, boxes = 0, tests = 0;
+
+    while (top > 0) {
+      top--;
+      if (dists[top] > tMax) {
+        continue;
+      }
+      final int code = codes[top];
+      visited++;
+      if (code >= 0) {
+        // push the hit children sorted, the nearest one on top
+        boxes += width;
+        int mask = kernel.intersectBoxes(
+          bounds,
+          code * 6 * width,
+          width,
+          ox,
+          oy,
+          oz,
+          ix,
+          iy,
+          iz,
+          tMin,
+          tMax,
+          tNear
+        );
+        final int start = top;
+        while (mask != 0) {
+          final int lane = Integer.numberOfTrailingZeros(mask);
+          mask &= mask - 1;
+          final float t = tNear[lane];
+          int i = top++;
+          while (i > start && dists[i - 1] < t) {
+            codes[i] = codes[i - 1];
+            dists[i] = dists[i - 1];
+            i--;
+          }
+          codes[i] = children[code * width + lane];
+          dists[i] = t;
+        }
+        continue;
+      }
+
+      final int leaf = 4 * (-1 - code);
+      final int firstBlock = leaves[leaf + 2];
+      final int lastBlock = firstBlock + leaves[leaf + 3];
+      tests += leaves[leaf + 3] * width + leaves[leaf + 1];
+      for (int block = firstBlock; block < lastBlock; block++) {
+        final int lane = kernel.intersectTriangles(
+          triangles,
+          block * 9 * width,
+          width,
+          ox,
+          oy,
+          oz,
+          dx,
+          dy,
+          dz,
+          tMin,
+          tMax,
+          hit
+        );
+        if (lane >= 0) {
+          final StandardMesh.Face face = faces[block * width + lane];
+          rec.set(hit[0], hit[1], hit[2], face.getIndex(), face, face);
+          found = true;
+          tMax = hit[0];
+        }
+      }
+      final int first = leaves[leaf];
+      for (int k = first; k < first + leaves[leaf + 1]; k++) {
+        final Obj p = objects[k];
+        if (p.intersect(ray, p, tMin, tMax, rec)) {
+          found = true;
+          tMax = rec.getParameter();
+        }
+      }
+    }
+    if (RenderStats.ENABLED) {
+      RenderStats.get().traversal(visited, boxes, tests);
+    }
+    return found;
+  }
+
+  /**
+   * Checks whether any object is intersected within the given distances. The
+   * traversal stops at the first intersection found.
+   *
+   * @param ray
+   *             The ray to compute the intersection with
+   * @param tMin
+   *             The minimum distance
+   * @param tMax
+   *             The maximum distance
+   * @return True if there is any intersection within the distances
+   */
+  @Override
+  public boolean occluded(final Ray ray, final float tMin, final float tMax) {
+    if (nodeCount == 0) {
+      return false;
+    }
+
+    final Point base = ray.base();
+    final Vec3 dir = ray.dir();
+    final Vec3 invDir = ray.invDir();
+    final float ox = base.x(), oy = base.y(), oz = base.z();
+    final float dx = dir.x(), dy = dir.y(), dz = dir.z();
+    final float ix = invDir.x(), iy = invDir.y(), iz = invDir.z();
+
+    final Scratch scratch = scratch();
+    final int[] codes = scratch.codes;
+    final float[] tNear = scratch.tNear;
+    final float[] hit = scratch.hit;
+    codes[0] = 0;
+    int top = 1;
+    int visited = 0, boxes = 0, tests = 0;
+
+    while (top > 0) {
+      final int code = codes[--top];
+      visited++;
+      if (code >= 0) {
+        boxes += width;
+        int mask = kernel.intersectBoxes(
+          bounds,
+          code * 6 * width,
+          width,
+          ox,
+          oy,
+          oz,
+          ix,
+          iy,
+          iz,
+          tMin,
+          tMax,
+          tNear
+        );
+        while (mask != 0) {
+          final int lane = Integer.numberOfTrailingZeros(mask);
+          mask &= mask - 1;
+          codes[top++] = children[code * width + lane];
+        }
+        continue;
+      }
+
+      final int leaf = 4 * (-1 - code);
+      final int firstBlock = leaves[leaf + 2];
+      final int lastBlock = firstBlock + leaves[leaf + 3];
+      for (int block = firstBlock; block < lastBlock; block++) {
+        tests += width;
+        final int lane = kernel.intersectTriangles(
+          triangles,
+          block * 9 * width,
+          width,
+          ox,
+          oy,
+          oz,
+          dx,
+          dy,
+          dz,
+          tMin,
+          tMax,
+          hit
+        );
+        if (lane >= 0) {
+          if (RenderStats.ENABLED) {
+            RenderStats.get().traversal(visited, boxes, tests);
+          }
+          return true;
+        }
+      }
+      final int first = leaves[leaf];
+      for (int k = first; k < first + leaves[leaf + 1]; k++) {
+        tests++;
+        if (objects[k].occluded(ray, tMin, tMax)) {
+          if (RenderStats.ENABLED) {
+            RenderStats.get().traversal(visited, boxes, tests);
+          }
+          return true;
+        }
+      }
+    }
+    if (RenderStats.ENABLED) {
+      RenderStats.get().traversal(visited, boxes, tests);
+    }
+    return false;
+  }
+
+  private Scratch scratch() {
+    // every level leaves at most width - 1 siblings on the stack
+    final int size = depth * (width - 1) + 2;
+    Scratch scratch = scratches.get();
+    if (scratch == null || scratch.codes.length < size) {
+      scratch = new Scratch(size);
+      scratches.set(scratch);
+    }
+    return scratch;
+  }
+}
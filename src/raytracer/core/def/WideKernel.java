@@ -0,0 +1,283 @@
+package raytracer.core.def;
+
+import raytracer.math.Constants;
+
+/**
+ * Intersects one ray with several boxes or triangles at once. The boxes and
+ * triangles of a block are stored as structure of arrays with one lane per
+ * box or triangle, so an implementation can test all lanes of a block with a
+ * few SIMD instructions.
+ * <p>
+ * A block of boxes occupies 6 * width floats starting at its offset: the min
+ * x, y and z coordinates of all lanes followed by the max x, y and z
+ * coordinates. Unused lanes are filled with NaN and never hit. A block of
+ * triangles occupies 9 * width floats: the x, y and z coordinates of the
+ * first corners followed by the coordinates of the edges to the second and
+ * the third corners.
+ * <p>
+ * The kernel is selected once at startup. An implementation based on the
+ * incubating Vector API (see {@code vector/} next to the sources) is used if
+ * it was compiled and the module {@code jdk.incubator.vector} is available;
+ * otherwise the scalar implementation is used.
+ */
+public abstract class WideKernel {
+
+  /**
+   * The system property selecting the kernel, {@code scalar} disables the
+   * Vector API implementation
+   */
+  public static final String KERNEL_PROPERTY = "raytracer.kernel";
+
+  private static final WideKernel SCALAR = new Scalar();
+  private static final WideKernel INSTANCE = load();
+
+  /**
+   * Returns the kernel selected at startup
+   *
+   * @return The selected kernel
+   */
+  public static WideKernel get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the scalar kernel
+   *
+   * @return The scalar kernel
+   */
+  public static WideKernel scalar() {
+    return SCALAR;
+  }
+
+  private static WideKernel load() {
+    if (
+      !"scalar".equals(System.getProperty(KERNEL_PROPERTY)) &&
+      ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+    ) {
+      try {
+        return (WideKernel) Class
+          .forName("raytracer.core.def.VectorKernel")
+          .getDeclaredConstructor()
+          .newInstance();
+      } catch (final ReflectiveOperationException | LinkageError e) {
+        // not compiled in, fall back to the scalar kernel
+      }
+    }
+    return SCALAR;
+  }
+
+  /**
+   * Returns the name of the kernel
+   *
+   * @return The name of the kernel
+   */
+  public abstract String getName();
+
+  /**
+   * Intersects a ray with a block of boxes
+   *
+   * @param boxes
+   *             The array holding the block
+   * @param offset
+   *             The offset of the block
+   * @param width
+   *             The number of lanes of the block (4 or 8)
+   * @param ox
+   *             The x coordinate of the origin of the ray
+   * @param oy
+   *             The y coordinate of the origin of the ray
+   * @param oz
+   *             The z coordinate of the origin of the ray
+   * @param ix
+   *             The x coordinate of the inverse direction of the ray
+   * @param iy
+   *             The y coordinate of the inverse direction of the ray
+   * @param iz
+   *             The z coordinate of the inverse direction of the ray
+   * @param tMin
+   *             The minimum distance
+   * @param tMax
+   *             The maximum distance
+   * @param tNear
+   *             Receives the entry distance of every hit lane
+   * @return The bit mask of the hit lanes
+   */
+  public abstract int intersectBoxes(
+    float[] boxes,
+    int offset,
+    int width,
+    float ox,
+    float oy,
+    float oz,
+    float ix,
+    float iy,
+    float iz,
+    float tMin,
+    float tMax,
+    float[] tNear
+  );
+
+  /**
+   * Intersects a ray with a block of triangles (Moeller-Trumbore) and finds
+   * the nearest hit. Of several hits at the same distance the last lane wins,
+   * like for triangles tested one after the other.
+   *
+   * @param triangles
+   *             The array holding the block
+   * @param offset
+   *             The offset of the block
+   * @param width
+   *             The number of lanes of the block (4 or 8)
+   * @param ox
+   *             The x coordinate of the origin of the ray
+   * @param oy
+   *             The y coordinate of the origin of the ray
+   * @param oz
+   *             The z coordinate of the origin of the ray
+   * @param dx
+   *             The x coordinate of the direction of the ray
+   * @param dy
+   *             The y coordinate of the direction of the ray
+   * @param dz
+   *             The z coordinate of the direction of the ray
+   * @param tMin
+   *             The minimum distance
+   * @param tMax
+   *             The maximum distance
+   * @param hit
+   *             Receives the distance and the two barycentric coordinates of
+   *             the nearest hit
+   * @return The lane of the nearest hit or -1 if no triangle is hit
+   */
+  public abstract int intersectTriangles(
+    float[] triangles,
+    int offset,
+    int width,
+    float ox,
+    float oy,
+    float oz,
+    float dx,
+    float dy,
+    float dz,
+    float tMin,
+    float tMax,
+    float[] hit
+  );
+
+  /**
+   * Tests the lanes one after the other
+   */
+  private static final class Scalar extends WideKernel {
+
+    @Override
+    public String getName() {
+      return "scalar";
+    }
+
+    @Override
+    public int intersectBoxes(
+      final float[] boxes,
+      final int offset,
+      final int width,
+      final float ox,
+      final float oy,
+      final float oz,
+      final float ix,
+      final float iy,
+      final float iz,
+      final float tMin,
+      final float tMax,
+      final float[] tNear
+    ) {
+      int mask = 0;
+      for (int lane = 0; lane < width; lane++) {
+        final int b = offset + lane;
+        final float t1 = (boxes[b] - ox) * ix;
+        final float t2 = (boxes[b + 3 * width] - ox) * ix;
+        final float t3 = (boxes[b + width] - oy) * iy;
+        final float t4 = (boxes[b + 4 * width] - oy) * iy;
+        final float t5 = (boxes[b + 2 * width] - oz) * iz;
+        final float t6 = (boxes[b + 5 * width] - oz) * iz;
+
+        final float tMinNew = Math.max(
+          Math.max(Math.min(t1, t2), Math.min(t3, t4)),
+          Math.min(t5, t6)
+        );
+        final float tMaxNew = Math.min(
+          Math.min(Math.max(t1, t2), Math.max(t3, t4)),
+          Math.max(t5, t6)
+        );
+        if (tMaxNew >= Math.max(tMinNew, tMin) && tMinNew <= tMax) {
+          tNear[lane] = tMinNew;
+          mask |= 1 << lane;
+        }
+      }
+      return mask;
+    }
+
+    @Override
+    public int intersectTriangles(
+      final float[] triangles,
+      final int offset,
+      final int width,
+      final float ox,
+      final float oy,
+      final float oz,
+      final float dx,
+      final float dy,
+      final float dz,
+      final float tMin,
+      float tMax,
+      final float[] hit
+    ) {
+      int nearest = -1;
+      for (int lane = 0; lane < width; lane++) {
+        final int a = offset + lane;
+        final float ux = triangles[a + 3 * width];
+        final float uy = triangles[a + 4 * width];
+        final float uz = triangles[a + 5 * width];
+        final float vx = triangles[a + 6 * width];
+        final float vy = triangles[a + 7 * width];
+        final float vz = triangles[a + 8 * width];
+
+        // pvec = dir x v
+        final float px = dy * vz - dz * vy;
+        final float py = dz * vx - dx * vz;
+        final float pz = dx * vy - dy * vx;
+        final float det = px * ux + py * uy + pz * uz;
+        if (!(det < -Constants.EPS || det > Constants.EPS)) {
+          continue;
+        }
+        final float invDet = 1 / det;
+
+        final float tx = ox - triangles[a];
+        final float ty = oy - triangles[a + width];
+        final float tz = oz - triangles[a + 2 * width];
+        final float s = (tx * px + ty * py + tz * pz) * invDet;
+        if (s < 0 || s > 1) {
+          continue;
+        }
+
+        // qvec = tvec x u
+        final float qx = ty * uz - tz * uy;
+        final float qy = tz * ux - tx * uz;
+        final float qz = tx * uy - ty * ux;
+        final float t = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (t < 0 || s + t > 1) {
+          continue;
+        }
+
+        final float r = (vx * qx + vy * qy + vz * qz) * invDet;
+        if (r < Constants.EPS || r < tMin || r > tMax) {
+          continue;
+        }
+        tMax = r;
+        hit[0] = r;
+        hit[1] = s;
+        hit[2] = t;
+        nearest = lane;
+      }
+      return nearest;
+    }
+  }
+}
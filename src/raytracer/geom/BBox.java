@@ -96,6 +96,20 @@ public class BBox {
 		return pp[MAX];
 	}
 
+	/**
+	 * Computes the surface area of the box
+	 *
+	 * @return The surface area of the box or zero if the box is empty
+	 */
+	public final float area() {
+		final float dx = pp[MAX].x() - pp[MIN].x();
+		final float dy = pp[MAX].y() - pp[MIN].y();
+		final float dz = pp[MAX].z() - pp[MIN].z();
+		if (dx < 0 || dy < 0 || dz < 0)
+			return 0;
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
 	/**
 	 * Computes a hit point with the given parameters
 	 *
@@ -1,6 +1,7 @@
 package raytracer.geom;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
 import raytracer.math.Ray;
 
@@ -70,6 +71,92 @@ public abstract class BBoxedPrimitive implements Primitive {
 		return Hit.No.get();
 	}
 
+	/**
+	 * Checks whether the given ray intersects this primitive within the given
+	 * distances. The bounding box is tested first, the hit point itself is
+	 * never computed.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return True if there is any intersection within the distances
+	 */
+	@Override
+	public final boolean occluded(final Ray ray, final float tmin, final float tmax) {
+		return bbox.hit(ray, tmin, tmax).hits()
+				&& occludedTest(ray, tmin, tmax);
+	}
+
+	/**
+	 * Checks whether the given ray intersects the internal object within the
+	 * given distances. The default implementation falls back to
+	 * {@link #hitTest(Ray, Obj, float, float)}.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return True if the internal object is hit within the distances
+	 */
+	protected boolean occludedTest(final Ray ray, final float tmin, final float tmax) {
+		return hitTest(ray, null, tmin, tmax).hits();
+	}
+
+	/**
+	 * Intersects the given ray with this primitive and stores the hit in the
+	 * record. First an intersection with the bounding box is tested and if
+	 * this intersection succeeds the internal object is intersected.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @param rec
+	 *            The record receiving the hit
+	 * @return True if the primitive is hit within the distances
+	 */
+	@Override
+	public final boolean intersect(final Ray ray, final Obj obj, final float tmin,
+			final float tmax, final HitRecord rec) {
+		return bbox.hit(ray, tmin, tmax).hits()
+				&& intersectTest(ray, obj, tmin, tmax, rec);
+	}
+
+	/**
+	 * Intersects the given ray with the internal object and stores the hit in
+	 * the record. The default implementation falls back to
+	 * {@link #hitTest(Ray, Obj, float, float)}.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @param rec
+	 *            The record receiving the hit
+	 * @return True if the internal object is hit within the distances
+	 */
+	protected boolean intersectTest(final Ray ray, final Obj obj, final float tmin,
+			final float tmax, final HitRecord rec) {
+		final Hit hit = hitTest(ray, obj, tmin, tmax);
+		if (!hit.hits())
+			return false;
+		rec.set(hit);
+		return true;
+	}
+
 	/**
 	 * Computes a hit point with the given parameters
 	 *
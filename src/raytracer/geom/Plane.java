@@ -1,8 +1,8 @@
 package raytracer.geom;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
-import raytracer.core.def.LazyHitTest;
 import raytracer.math.*;
 
 public class Plane extends BBoxedPrimitive {
@@ -24,21 +24,67 @@ public class Plane extends BBoxedPrimitive {
 
   @Override
   public Hit hitTest(Ray ray, Obj obj, float tmin, float tmax) {
-    return new LazyHitTest(obj) {
-      private Point point = null;
-      private float t;
+    final HitRecord rec = new HitRecord();
+    return intersectTest(ray, obj, tmin, tmax, rec)
+      ? createHit(ray, obj, rec)
+      : Hit.No.get();
+  }
 
-      @Override
-      protected boolean calculateHit() {
-        final Vec3 dir = ray.dir().normalized();
-        final float det = dir.dot(newvector);
+  @Override
+  protected boolean intersectTest(
+    final Ray ray,
+    final Obj obj,
+    final float tmin,
+    final float tmax,
+    final HitRecord rec
+  ) {
+    final float t = calculateHit(ray, tmin, tmax);
+    if (Float.isNaN(t)) {
+      return false;
+    }
+    rec.set(t, 0, 0, this, obj);
+    return true;
+  }
+
+  @Override
+  protected boolean occludedTest(
+    final Ray ray,
+    final float tmin,
+    final float tmax
+  ) {
+    return !Float.isNaN(calculateHit(ray, tmin, tmax));
+  }
+
+  private float calculateHit(final Ray ray, final float tmin, final float tmax) {
+    final Vec3 dir = ray.dir();
+    final float factor = 1.0f / dir.norm();
+    final float det =
+      factor * dir.x() * newvector.x() +
+      factor * dir.y() * newvector.y() +
+      factor * dir.z() * newvector.z();
 
-        if (Constants.isZero(det)) {
-          return false;
-        }
+    if (Constants.isZero(det)) {
+      return Float.NaN;
+    }
+
+    final Point base = ray.base();
+    final float t =
+      ((mypoint.x() - base.x()) * newvector.x() +
+        (mypoint.y() - base.y()) * newvector.y() +
+        (mypoint.z() - base.z()) * newvector.z()) /
+      det;
+    return t < tmin || t > tmax ? Float.NaN : t;
+  }
+
+  @Override
+  public Hit createHit(final Ray ray, final Obj obj, final HitRecord rec) {
+    final float t = rec.getParameter();
+    return new Hit() {
+      private Point point = null;
 
-        t = mypoint.sub(ray.base()).dot(newvector) / det;
-        return !(t < tmin) && !(t > tmax);
+      @Override
+      public boolean hits() {
+        return true;
       }
 
       @Override
@@ -48,7 +94,7 @@ public class Plane extends BBoxedPrimitive {
 
       @Override
       public Point getPoint() {
-        if (point == null) point = ray.eval(t).add(newvector.scale(0.0001f));
+        if (point == null) point = ray.eval(t, 0.0001f, newvector);
         return point;
       }
 
@@ -61,6 +107,11 @@ public class Plane extends BBoxedPrimitive {
       public Vec2 getUV() {
         return Util.computePlaneUV(newvector, mypoint, getPoint());
       }
+
+      @Override
+      public Obj get() {
+        return obj;
+      }
     };
   }
 
@@ -1,6 +1,7 @@
 package raytracer.geom;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
 import raytracer.math.Ray;
 
@@ -31,4 +32,96 @@ public interface Primitive {
 	 */
 	Hit hit(Ray ray, Obj obj, float tmin, float tmax);
 
+	/**
+	 * Checks whether the given ray intersects this primitive anywhere within
+	 * the given distances. Unlike {@link #hit(Ray, Obj, float, float)} the
+	 * nearest intersection is not required, so implementations may stop at
+	 * the first intersection they find.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return True if there is any intersection within the distances
+	 */
+	default boolean occluded(final Ray ray, final float tmin, final float tmax) {
+		return hit(ray, null, tmin, tmax).hits();
+	}
+
+	/**
+	 * Intersects the given ray with this primitive and stores the hit in the
+	 * record if it lies within the given distances. Implementations compute
+	 * the intersection on raw floats and fill the record in place, so no
+	 * object is allocated for a candidate test. The default implementation
+	 * falls back to {@link #hit(Ray, Obj, float, float)}.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @param rec
+	 *            The record receiving the hit
+	 * @return True if the primitive is hit within the distances
+	 */
+	default boolean intersect(final Ray ray, final Obj obj, final float tmin,
+			final float tmax, final HitRecord rec) {
+		final Hit hit = hit(ray, obj, tmin, tmax);
+		if (!hit.hits())
+			return false;
+		rec.set(hit);
+		return true;
+	}
+
+	/**
+	 * Intersects a packet of rays with this primitive. The parameter of every
+	 * record serves as the maximum distance of its ray, so a record only
+	 * receives hits nearer than the one it already holds (an empty record
+	 * accepts any hit). Implementations may share work between coherent rays;
+	 * the default implementation intersects the rays one by one.
+	 *
+	 * @param rays
+	 *            The rays to compute the intersections with
+	 * @param count
+	 *            The number of rays (and records) to use
+	 * @param obj
+	 *            The object to compute the intersections with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param recs
+	 *            The records receiving the hits, one per ray
+	 */
+	default void intersect(final Ray[] rays, final int count, final Obj obj, final float tmin,
+			final HitRecord[] recs) {
+		for (int k = 0; k < count; k++)
+			intersect(rays[k], obj, tmin, recs[k].getParameter(), recs[k]);
+	}
+
+	/**
+	 * Creates the hit for a record filled by
+	 * {@link #intersect(Ray, Obj, float, float, HitRecord)}. The default
+	 * implementation intersects the ray again with
+	 * {@link #hit(Ray, Obj, float, float)} within a small interval around the
+	 * parameter of the record, implementations filling the record themselves
+	 * should create the hit from its values instead.
+	 *
+	 * @param ray
+	 *            The ray the record was computed for
+	 * @param obj
+	 *            The hit object
+	 * @param rec
+	 *            The record
+	 * @return The hit
+	 */
+	default Hit createHit(final Ray ray, final Obj obj, final HitRecord rec) {
+		final float t = rec.getParameter();
+		// a relative tolerance, the parameter was computed on floats
+		final float eps = 1e-4f * Math.max(1, Math.abs(t));
+		return hit(ray, obj, t - eps, t + eps);
+	}
 }
@@ -1,8 +1,8 @@
 package raytracer.geom;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
-import raytracer.core.def.LazyHitTest;
 import raytracer.math.Constants;
 import raytracer.math.Point;
 import raytracer.math.Ray;
@@ -29,9 +29,65 @@ class Sphere extends BBoxedPrimitive {
     final float tmin,
     final float tmax
   ) {
-    return new LazyHitTest(myobj) {
+    final HitRecord rec = new HitRecord();
+    return intersectTest(myray, myobj, tmin, tmax, rec)
+      ? createHit(myray, myobj, rec)
+      : Hit.No.get();
+  }
+
+  @Override
+  protected boolean intersectTest(
+    final Ray ray,
+    final Obj obj,
+    final float tmin,
+    final float tmax,
+    final HitRecord rec
+  ) {
+    final float t = calculateHit(ray, tmin, tmax);
+    if (Float.isNaN(t)) return false;
+    rec.set(t, 0, 0, this, obj);
+    return true;
+  }
+
+  @Override
+  protected boolean occludedTest(
+    final Ray ray,
+    final float tmin,
+    final float tmax
+  ) {
+    return !Float.isNaN(calculateHit(ray, tmin, tmax));
+  }
+
+  //near intersection on raw floats, NaN agar sphere hit nahi hua
+  private float calculateHit(final Ray ray, final float tmin, final float tmax) {
+    final Vec3 dir = ray.dir();
+    final Point base = ray.base();
+    final float dx = dir.x(), dy = dir.y(), dz = dir.z();
+    final float ox = base.x() - this.c.x();
+    final float oy = base.y() - this.c.y();
+    final float oz = base.z() - this.c.z();
+    float a = dx * dx + dy * dy + dz * dz;
+    float b = 2.0f * (ox * dx + oy * dy + oz * dz);
+    float c = ox * ox + oy * oy + oz * oz - r * r;
+    float discriminant = b * b - 4 * a * c;
+    if (discriminant < 0) {
+      return Float.NaN;
+    }
+    float t = (-b - (float) Math.sqrt(discriminant)) / (2.0f * a);
+    if (t < tmin || t > tmax) return Float.NaN;
+    return t;
+  }
+
+  @Override
+  public Hit createHit(final Ray myray, final Obj myobj, final HitRecord rec) {
+    final float t = rec.getParameter();
+    return new Hit() {
       private Point point = null;
-      private float t;
+
+      @Override
+      public boolean hits() {
+        return true;
+      }
 
       @Override
       public float getParameter() {
@@ -41,31 +97,10 @@ class Sphere extends BBoxedPrimitive {
       @Override
       public Point getPoint() {
         if (point == null) point =
-          myray.eval(t).add(myray.dir().scale(Constants.EPS));
+          myray.eval(t, Constants.EPS, myray.dir());
         return point;
       }
 
-      @Override
-      protected boolean calculateHit() {
-        Vec3 oc = myray.base().sub(c);
-        float a = myray.dir().dot(myray.dir());
-        float b = 2.0f * oc.dot(myray.dir());
-        float c = oc.dot(oc) - r * r;
-        float discriminant = b * b - 4 * a * c;
-        if (discriminant < 0) {
-          return false;
-        } else {
-          t = (-b - (float) Math.sqrt(discriminant)) / (2.0f * a);
-          if (t < tmin || t > tmax) return false;
-          return true;
-        }
-      }
-
-      //   @Override
-      //   public Vec2 getUV() {
-      //     // yahan calculate kro appropriate and create kro approprite coordinates
-      //     return new Vec2(0, 0);
-      //   }
       @Override
       public Vec2 getUV() {
         Vec3 radial = this.getPoint().sub(c).normalized(); // radial vector from sphere's center
@@ -76,6 +111,11 @@ class Sphere extends BBoxedPrimitive {
       public Vec3 getNormal() {
         return getPoint().sub(c).normalized();
       }
+
+      @Override
+      public Obj get() {
+        return myobj;
+      }
     };
   }
 
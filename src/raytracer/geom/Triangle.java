@@ -1,8 +1,8 @@
 package raytracer.geom;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
-import raytracer.core.def.LazyHitTest;
 import raytracer.math.Constants;
 import raytracer.math.Point;
 import raytracer.math.Ray;
@@ -24,18 +24,79 @@ class Triangle extends BBoxedPrimitive {
 
 	@Override
 	public Hit hitTest(final Ray ray, final Obj obj, final float tmin, final float tmax) {
-        /* We use an anonymous class:
-         * instead of implementing a class that extends LazyHitTest 
-         * we implement all abstract methods of LazyHitTest on-the-fly.
-         * This is possible since we don't need the class anywhere else and don't need to refer to it anywhere by name.
-         */
-		return new LazyHitTest(obj) {
-            /* 
-            * The abstract class LazyHitTest itself is not specific to the geometric object triangle.
-            * This implementation of the class on the other hand is specific to it.
-            */
+		final HitRecord rec = new HitRecord();
+		return intersectTest(ray, obj, tmin, tmax, rec) ? createHit(ray, obj, rec) : Hit.No.get();
+	}
+
+	@Override
+	protected boolean intersectTest(final Ray ray, final Obj obj, final float tmin, final float tmax,
+			final HitRecord rec) {
+		return calculateHit(ray, obj, tmin, tmax, rec);
+	}
+
+	@Override
+	protected boolean occludedTest(final Ray ray, final float tmin, final float tmax) {
+		return calculateHit(ray, null, tmin, tmax, null);
+	}
+
+	/**
+	 * Moeller-Trumbore on raw floats, the hit is stored in rec if not null
+	 */
+	private boolean calculateHit(final Ray ray, final Obj obj, final float tmin, final float tmax,
+			final HitRecord rec) {
+		final Vec3 /* normalized */dir = ray.dir();
+		final float dx = dir.x(), dy = dir.y(), dz = dir.z();
+
+		// pvec = dir x v
+		final float px = dy * v.z() - dz * v.y();
+		final float py = dz * v.x() - dx * v.z();
+		final float pz = dx * v.y() - dy * v.x();
+		final float det = px * u.x() + py * u.y() + pz * u.z();
+
+		if (Constants.isZero(det))
+			return false;
+
+		final float invDet = 1 / det;
+		final Point base = ray.base();
+		final float tx = base.x() - m.x();
+		final float ty = base.y() - m.y();
+		final float tz = base.z() - m.z();
+
+		final float s = (tx * px + ty * py + tz * pz) * invDet;
+		if (s < 0.0 || s > 1.0)
+			return false;
+
+		// qvec = tvec x u
+		final float qx = ty * u.z() - tz * u.y();
+		final float qy = tz * u.x() - tx * u.z();
+		final float qz = tx * u.y() - ty * u.x();
+		final float t = (dx * qx + dy * qy + dz * qz) * invDet;
+		if (t < 0.0 || (s + t) > 1.0)
+			return false;
+
+		final float r = (v.x() * qx + v.y() * qy + v.z() * qz) * invDet;
+		if (r < Constants.EPS || r < tmin || r > tmax)
+			return false;
+
+		if (rec != null)
+			rec.set(r, s, t, this, obj);
+		return true;
+	}
+
+	@Override
+	public Hit createHit(final Ray ray, final Obj obj, final HitRecord rec) {
+		/* We use an anonymous class:
+		 * the intersection itself has already been computed on raw floats,
+		 * only the point is computed lazily when the shader asks for it.
+		 */
+		final float r = rec.getParameter(), s = rec.getU(), t = rec.getV();
+		return new Hit() {
 			private Point point = null;
-			private float r, s, t;
+
+			@Override
+			public boolean hits() {
+				return true;
+			}
 
 			@Override
 			public float getParameter() {
@@ -45,38 +106,10 @@ class Triangle extends BBoxedPrimitive {
 			@Override
 			public Point getPoint() {
 				if (point == null)
-					point = ray.eval(r).add(n.scale(0.0001f));
+					point = ray.eval(r, 0.0001f, n);
 				return point;
 			}
 
-			@Override
-			protected boolean calculateHit() {
-				final Vec3 /* normalized */dir = ray.dir();
-				final Vec3 pvec = dir.cross(v);
-				final float det = pvec.dot(u);
-
-				if (Constants.isZero(det))
-					return false;
-
-				final float invDet = 1 / det;
-				final Vec3 tvec = ray.base().sub(m);
-
-				s = tvec.dot(pvec) * invDet;
-				if (s < 0.0 || s > 1.0)
-					return false;
-
-				final Vec3 qvec = tvec.cross(u);
-				t = dir.dot(qvec) * invDet;
-				if (t < 0.0 || (s + t) > 1.0)
-					return false;
-
-				if (t < tmin || t > tmax)
-					return false;
-
-				r = v.dot(qvec) * invDet;
-				return r >= Constants.EPS;
-			}
-
 			@Override
 			public Vec2 getUV() {
 				return new Vec2(s, t);
@@ -87,6 +120,10 @@ class Triangle extends BBoxedPrimitive {
 				return n;
 			}
 
+			@Override
+			public Obj get() {
+				return obj;
+			}
 		};
 	}
 
@@ -0,0 +1,589 @@
+package raytracer.geom;
+
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.Obj;
+import raytracer.math.Constants;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec2;
+import raytracer.math.Vec3;
+import raytracer.math.Vec3f;
+import raytracer.math.VecMath;
+
+/**
+ * Represents a triangle mesh stored as structure of arrays. The positions of
+ * all vertices are kept in one float array (x, y, z per vertex) and the
+ * triangles in one int array (three vertex indices per triangle), so a mesh
+ * needs a constant number of objects regardless of its size. The triangles
+ * are addressed by their index.
+ * <p>
+ * A mesh may carry a normal (three floats) and texture coordinates (two
+ * floats) per vertex. The normals are interpolated across the triangles and
+ * turned to the side of the triangle normal, which gives smooth shading; the
+ * texture coordinates are interpolated and returned by {@link Hit#getUV()}.
+ */
+public final class TriangleMesh {
+
+  private final float[] positions;
+  private final float[] normals;
+  private final float[] uvs;
+  private final int[] indices;
+
+  /**
+   * Creates a new triangle mesh. The arrays are used directly, not copied.
+   *
+   * @param positions
+   *            The vertex positions, three floats per vertex
+   * @param indices
+   *            The vertex indices, three per triangle
+   * @throws IllegalArgumentException
+   *            If one of the arrays is null, their lengths are not multiples
+   *            of three or an index does not refer to a vertex
+   */
+  public TriangleMesh(final float[] positions, final int[] indices) {
+    this(positions, null, null, indices);
+  }
+
+  /**
+   * Creates a new triangle mesh with vertex normals and texture coordinates.
+   * The arrays are used directly, not copied.
+   *
+   * @param positions
+   *            The vertex positions, three floats per vertex
+   * @param normals
+   *            The vertex normals, three floats per vertex, or null
+   * @param uvs
+   *            The texture coordinates, two floats per vertex, or null
+   * @param indices
+   *            The vertex indices, three per triangle
+   * @throws IllegalArgumentException
+   *            If the positions or the indices are null, their lengths are
+   *            not multiples of three, there are not as many normals or
+   *            texture coordinates as vertices or an index does not refer to
+   *            a vertex
+   */
+  public TriangleMesh(
+    final float[] positions,
+    final float[] normals,
+    final float[] uvs,
+    final int[] indices
+  ) {
+    if (positions == null || indices == null) {
+      throw new IllegalArgumentException("Arrays cannot be null.");
+    }
+    if (positions.length % 3 != 0 || indices.length % 3 != 0) {
+      throw new IllegalArgumentException(
+        "Array lengths must be multiples of three."
+      );
+    }
+    final int vertices = positions.length / 3;
+    if (
+      (normals != null && normals.length != 3 * vertices) ||
+      (uvs != null && uvs.length != 2 * vertices)
+    ) {
+      throw new IllegalArgumentException(
+        "Normals and texture coordinates must match the vertices."
+      );
+    }
+    for (final int index : indices) {
+      if (index < 0 || index >= vertices) {
+        throw new IllegalArgumentException("Vertex index out of range.");
+      }
+    }
+    this.positions = positions;
+    this.normals = normals;
+    this.uvs = uvs;
+    this.indices = indices;
+  }
+
+  /**
+   * Creates a copy of this mesh with smooth vertex normals: the normal of a
+   * vertex is the area weighted average of the normals of the triangles
+   * sharing it. Existing normals are replaced.
+   *
+   * @return The mesh with smooth normals
+   */
+  public TriangleMesh withSmoothNormals() {
+    final float[] sums = new float[positions.length];
+    for (int tri = 0; tri < getTriangleCount(); tri++) {
+      final int a = 3 * indices[3 * tri];
+      final int b = 3 * indices[3 * tri + 1];
+      final int c = 3 * indices[3 * tri + 2];
+      final float ux = positions[b] - positions[a];
+      final float uy = positions[b + 1] - positions[a + 1];
+      final float uz = positions[b + 2] - positions[a + 2];
+      final float vx = positions[c] - positions[a];
+      final float vy = positions[c + 1] - positions[a + 1];
+      final float vz = positions[c + 2] - positions[a + 2];
+      // v x u like normal(int), its length is twice the area
+      final float nx = vy * uz - vz * uy;
+      final float ny = vz * ux - vx * uz;
+      final float nz = vx * uy - vy * ux;
+      for (int k = 0; k < 3; k++) {
+        final int i = 3 * indices[3 * tri + k];
+        sums[i] += nx;
+        sums[i + 1] += ny;
+        sums[i + 2] += nz;
+      }
+    }
+    for (int i = 0; i < sums.length; i += 3) {
+      final float length = (float) Math.sqrt(
+        sums[i] * sums[i] +
+        sums[i + 1] * sums[i + 1] +
+        sums[i + 2] * sums[i + 2]
+      );
+      if (length > 0) {
+        sums[i] /= length;
+        sums[i + 1] /= length;
+        sums[i + 2] /= length;
+      }
+    }
+    return new TriangleMesh(positions, sums, uvs, indices);
+  }
+
+  /**
+   * Returns the number of triangles
+   *
+   * @return The number of triangles
+   */
+  public int getTriangleCount() {
+    return indices.length / 3;
+  }
+
+  /**
+   * Returns the number of vertices
+   *
+   * @return The number of vertices
+   */
+  public int getVertexCount() {
+    return positions.length / 3;
+  }
+
+  /**
+   * Returns a copy of the vertex positions, three floats per vertex
+   *
+   * @return The vertex positions
+   */
+  public float[] getPositions() {
+    return positions.clone();
+  }
+
+  /**
+   * Returns true if the mesh has vertex normals
+   *
+   * @return True if the mesh has vertex normals
+   */
+  public boolean hasNormals() {
+    return normals != null;
+  }
+
+  /**
+   * Returns a copy of the vertex normals, three floats per vertex
+   *
+   * @return The vertex normals or null if the mesh has none
+   */
+  public float[] getNormals() {
+    return normals == null ? null : normals.clone();
+  }
+
+  /**
+   * Returns true if the mesh has texture coordinates
+   *
+   * @return True if the mesh has texture coordinates
+   */
+  public boolean hasUVs() {
+    return uvs != null;
+  }
+
+  /**
+   * Returns a copy of the texture coordinates, two floats per vertex
+   *
+   * @return The texture coordinates or null if the mesh has none
+   */
+  public float[] getUVs() {
+    return uvs == null ? null : uvs.clone();
+  }
+
+  /**
+   * Returns a copy of the vertex indices, three per triangle
+   *
+   * @return The vertex indices
+   */
+  public int[] getIndices() {
+    return indices.clone();
+  }
+
+  /**
+   * Returns the given coordinate of a corner of a triangle
+   *
+   * @param tri
+   *            The index of the triangle
+   * @param corner
+   *            The corner (0, 1 or 2)
+   * @param dim
+   *            The coordinate (x=0, y=1, z=2)
+   * @return The coordinate of the corner
+   */
+  public float get(final int tri, final int corner, final int dim) {
+    return positions[3 * indices[3 * tri + corner] + dim];
+  }
+
+  /**
+   * Returns the minimum of the given coordinate over the corners of a
+   * triangle
+   *
+   * @param tri
+   *            The index of the triangle
+   * @param dim
+   *            The coordinate (x=0, y=1, z=2)
+   * @return The minimum coordinate
+   */
+  public float min(final int tri, final int dim) {
+    return Math.min(
+      get(tri, 0, dim),
+      Math.min(get(tri, 1, dim), get(tri, 2, dim))
+    );
+  }
+
+  /**
+   * Returns the maximum of the given coordinate over the corners of a
+   * triangle
+   *
+   * @param tri
+   *            The index of the triangle
+   * @param dim
+   *            The coordinate (x=0, y=1, z=2)
+   * @return The maximum coordinate
+   */
+  public float max(final int tri, final int dim) {
+    return Math.max(
+      get(tri, 0, dim),
+      Math.max(get(tri, 1, dim), get(tri, 2, dim))
+    );
+  }
+
+  /**
+   * Computes the bounding box of a triangle
+   *
+   * @param tri
+   *            The index of the triangle
+   * @return The bounding box of the triangle
+   */
+  public BBox bbox(final int tri) {
+    return BBox.create(
+      new Point(min(tri, 0), min(tri, 1), min(tri, 2)),
+      new Point(max(tri, 0), max(tri, 1), max(tri, 2))
+    );
+  }
+
+  /**
+   * Computes the distance at which the ray hits a triangle (Moeller-Trumbore)
+   *
+   * @param tri
+   *            The index of the triangle
+   * @param ray
+   *            The ray to compute the intersection with
+   * @param tmin
+   *            The minimum distance
+   * @param tmax
+   *            The maximum distance
+   * @return The distance of the hit or NaN if the triangle is not hit
+   */
+  public float intersect(
+    final int tri,
+    final Ray ray,
+    final float tmin,
+    final float tmax
+  ) {
+    return intersect(tri, ray, tmin, tmax, null, null, null);
+  }
+
+  /**
+   * Intersects the ray with a triangle and stores the hit in the record
+   *
+   * @param tri
+   *            The index of the triangle
+   * @param primitive
+   *            The primitive representing the triangle, used to create the
+   *            hit from the record
+   * @param ray
+   *            The ray to compute the intersection with
+   * @param obj
+   *            The object to compute the intersection with
+   * @param tmin
+   *            The minimum distance
+   * @param tmax
+   *            The maximum distance
+   * @param rec
+   *            The record receiving the hit
+   * @return True if the triangle is hit within the distances
+   */
+  public boolean intersect(
+    final int tri,
+    final Primitive primitive,
+    final Ray ray,
+    final Obj obj,
+    final float tmin,
+    final float tmax,
+    final HitRecord rec
+  ) {
+    return !Float.isNaN(intersect(tri, ray, tmin, tmax, rec, primitive, obj));
+  }
+
+  private float intersect(
+    final int tri,
+    final Ray ray,
+    final float tmin,
+    final float tmax,
+    final HitRecord rec,
+    final Primitive primitive,
+    final Obj obj
+  ) {
+    final int a = 3 * indices[3 * tri];
+    final int b = 3 * indices[3 * tri + 1];
+    final int c = 3 * indices[3 * tri + 2];
+    final float ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+    final float ux = positions[b] - ax;
+    final float uy = positions[b + 1] - ay;
+    final float uz = positions[b + 2] - az;
+    final float vx = positions[c] - ax;
+    final float vy = positions[c + 1] - ay;
+    final float vz = positions[c + 2] - az;
+
+    final Vec3 dir = ray.dir();
+    final float dx = dir.x(), dy = dir.y(), dz = dir.z();
+
+    // pvec = dir x v
+    final float px = dy * vz - dz * vy;
+    final float py = dz * vx - dx * vz;
+    final float pz = dx * vy - dy * vx;
+    final float det = px * ux + py * uy + pz * uz;
+    if (Constants.isZero(det)) {
+      return Float.NaN;
+    }
+    final float invDet = 1 / det;
+
+    final Point base = ray.base();
+    final float tx = base.x() - ax;
+    final float ty = base.y() - ay;
+    final float tz = base.z() - az;
+    final float s = (tx * px + ty * py + tz * pz) * invDet;
+    if (s < 0.0 || s > 1.0) {
+      return Float.NaN;
+    }
+
+    // qvec = tvec x u
+    final float qx = ty * uz - tz * uy;
+    final float qy = tz * ux - tx * uz;
+    final float qz = tx * uy - ty * ux;
+    final float t = (dx * qx + dy * qy + dz * qz) * invDet;
+    if (t < 0.0 || (s + t) > 1.0) {
+      return Float.NaN;
+    }
+
+    final float r = (vx * qx + vy * qy + vz * qz) * invDet;
+    if (r < Constants.EPS || r < tmin || r > tmax) {
+      return Float.NaN;
+    }
+    if (rec != null) {
+      rec.set(r, s, t, tri, primitive, obj);
+    }
+    return r;
+  }
+
+  /**
+   * Computes the (normalized) normal of a triangle. The orientation matches
+   * the one of {@link GeomFactory#createTriangle(Point, Point, Point)}.
+   *
+   * @param tri
+   *            The index of the triangle
+   * @return The normal of the triangle
+   */
+  public Vec3 normal(final int tri) {
+    final int a = 3 * indices[3 * tri];
+    final int b = 3 * indices[3 * tri + 1];
+    final int c = 3 * indices[3 * tri + 2];
+    final float ux = positions[b] - positions[a];
+    final float uy = positions[b + 1] - positions[a + 1];
+    final float uz = positions[b + 2] - positions[a + 2];
+    final float vx = positions[c] - positions[a];
+    final float vy = positions[c + 1] - positions[a + 1];
+    final float vz = positions[c + 2] - positions[a + 2];
+    // v x u, normalized like Vec3.normalized()
+    final float nx = VecMath.crossX(vy, vz, uy, uz);
+    final float ny = VecMath.crossY(vx, vz, ux, uz);
+    final float nz = VecMath.crossZ(vx, vy, ux, uy);
+    final float factor = 1.0f / VecMath.norm(nx, ny, nz);
+    return new Vec3(factor * nx, factor * ny, factor * nz);
+  }
+
+  /**
+   * Computes the shading normal at a point of a triangle by interpolating the
+   * vertex normals. The normal is turned to the side of the triangle normal;
+   * without vertex normals (or if they cancel out) it is the triangle normal.
+   *
+   * @param tri
+   *            The index of the triangle
+   * @param s
+   *            The weight of the second corner
+   * @param t
+   *            The weight of the third corner
+   * @return The (normalized) shading normal
+   */
+  public Vec3 normal(final int tri, final float s, final float t) {
+    return shadingNormal(tri, s, t, normal(tri));
+  }
+
+  private Vec3 shadingNormal(
+    final int tri,
+    final float s,
+    final float t,
+    final Vec3 geometric
+  ) {
+    if (normals == null) {
+      return geometric;
+    }
+    final int a = 3 * indices[3 * tri];
+    final int b = 3 * indices[3 * tri + 1];
+    final int c = 3 * indices[3 * tri + 2];
+    final float w = 1 - s - t;
+    final Vec3f n = new Vec3f(
+      w * normals[a] + s * normals[b] + t * normals[c],
+      w * normals[a + 1] + s * normals[b + 1] + t * normals[c + 1],
+      w * normals[a + 2] + s * normals[b + 2] + t * normals[c + 2]
+    );
+    if (Constants.isZero(n.norm())) {
+      return geometric;
+    }
+    final boolean flip = n.dot(geometric) < 0;
+    n.normalize();
+    return (flip ? n.neg() : n).toVec3();
+  }
+
+  /**
+   * Computes a hit point of a triangle with the given parameters
+   *
+   * @param tri
+   *            The index of the triangle
+   * @param ray
+   *            The ray to compute the intersection with
+   * @param obj
+   *            The object to compute the intersection with
+   * @param tmin
+   *            The minimum distance
+   * @param tmax
+   *            The maximum distance
+   * @return The computed hit
+   */
+  public Hit hit(
+    final int tri,
+    final Ray ray,
+    final Obj obj,
+    final float tmin,
+    final float tmax
+  ) {
+    final HitRecord rec = new HitRecord();
+    if (Float.isNaN(intersect(tri, ray, tmin, tmax, rec, null, obj))) {
+      return Hit.No.get();
+    }
+    return createHit(tri, ray, obj, rec);
+  }
+
+  /**
+   * Creates the hit of a triangle for a record filled by
+   * {@link #intersect(int, Primitive, Ray, Obj, float, float, HitRecord)}
+   *
+   * @param tri
+   *            The index of the triangle
+   * @param ray
+   *            The ray the record was computed for
+   * @param obj
+   *            The hit object
+   * @param rec
+   *            The record
+   * @return The hit
+   */
+  public Hit createHit(
+    final int tri,
+    final Ray ray,
+    final Obj obj,
+    final HitRecord rec
+  ) {
+    final float r = rec.getParameter(), s = rec.getU(), t = rec.getV();
+    return new Hit() {
+      private Point point = null;
+      private Vec3 geometric = null;
+      private Vec3 n = null;
+
+      private Vec3 geometric() {
+        if (geometric == null) geometric = normal(tri);
+        return geometric;
+      }
+
+      @Override
+      public boolean hits() {
+        return true;
+      }
+
+      @Override
+      public float getParameter() {
+        return r;
+      }
+
+      @Override
+      public Point getPoint() {
+        if (point == null) point = ray.eval(r, 0.0001f, geometric());
+        return point;
+      }
+
+      @Override
+      public Vec3 getNormal() {
+        if (n == null) n = shadingNormal(tri, s, t, geometric());
+        return n;
+      }
+
+      @Override
+      public Vec2 getUV() {
+        if (uvs == null) {
+          return new Vec2(s, t);
+        }
+        final int a = 2 * indices[3 * tri];
+        final int b = 2 * indices[3 * tri + 1];
+        final int c = 2 * indices[3 * tri + 2];
+        final float w = 1 - s - t;
+        return new Vec2(
+          w * uvs[a] + s * uvs[b] + t * uvs[c],
+          w * uvs[a + 1] + s * uvs[b + 1] + t * uvs[c + 1]
+        );
+      }
+
+      @Override
+      public Obj get() {
+        return obj;
+      }
+    };
+  }
+
+  /**
+   * Checks whether the ray hits a triangle within the given distances
+   *
+   * @param tri
+   *            The index of the triangle
+   * @param ray
+   *            The ray to compute the intersection with
+   * @param tmin
+   *            The minimum distance
+   * @param tmax
+   *            The maximum distance
+   * @return True if the triangle is hit
+   */
+  public boolean occluded(
+    final int tri,
+    final Ray ray,
+    final float tmin,
+    final float tmax
+  ) {
+    return !Float.isNaN(intersect(tri, ray, tmin, tmax));
+  }
+}
@@ -4,8 +4,15 @@ import raytracer.math.ONB;
 import raytracer.math.Point;
 import raytracer.math.Vec2;
 import raytracer.math.Vec3;
+import raytracer.math.VecMath;
 
 public final class Util {
+	/**
+	 * The threshold below which {@link ONB#fromW(Vec3)} considers a cross
+	 * product degenerate
+	 */
+	private static final float ONB_EPS = 0.01f;
+
 	private Util() {}
 
 
@@ -18,9 +25,24 @@ public final class Util {
 	 * @return      The texture coordinates
 	 */
 	public static Vec2 computePlaneUV(final Vec3 /* normalized */ n, final Point supp, final Point p) {
-		final Vec3 v    = p.sub(supp);
-		final ONB  base = ONB.fromW(n);
-		return new Vec2(v.dot(base.u()), v.dot(base.v()));
+		// projects p - supp onto u and v of ONB.fromW(n), on raw floats
+		final float px = p.x() - supp.x(), py = p.y() - supp.y(), pz = p.z() - supp.z();
+		final float factor = 1.0f / n.norm();
+		final float wx = factor * n.x(), wy = factor * n.y(), wz = factor * n.z();
+		// u = w x X, or w x Y if w is (almost) parallel to X
+		float ux = VecMath.crossX(wy, wz, 0, 0);
+		float uy = VecMath.crossY(wx, wz, 1, 0);
+		float uz = VecMath.crossZ(wx, wy, 1, 0);
+		if (VecMath.sdot(ux, uy, uz) < ONB_EPS) {
+			ux = VecMath.crossX(wy, wz, 1, 0);
+			uy = VecMath.crossY(wx, wz, 0, 0);
+			uz = VecMath.crossZ(wx, wy, 0, 1);
+		}
+		// v = w x u
+		final float vx = VecMath.crossX(wy, wz, uy, uz);
+		final float vy = VecMath.crossY(wx, wz, ux, uz);
+		final float vz = VecMath.crossZ(wx, wy, ux, uy);
+		return new Vec2(VecMath.dot(px, py, pz, ux, uy, uz), VecMath.dot(px, py, pz, vx, vy, vz));
 	}
 
 	/**
@@ -61,6 +61,24 @@ public class Ray {
 		return base.combine(r, dir);
 	}
 
+	/**
+	 * Computes the point on the ray for the given distance moved along the
+	 * given vector, e.g. away from a surface. Gives the same result as
+	 * eval(r).add(offset.scale(s)) but creates a single point.
+	 *
+	 * @param r
+	 *            The distance
+	 * @param s
+	 *            The length of the move in units of the offset vector
+	 * @param offset
+	 *            The direction of the move
+	 * @return The moved point on the ray for the given distance
+	 */
+	public final Point eval(final float r, final float s, final Vec3 offset) {
+		return new Point(base.x + r * dir.x + s * offset.x, base.y + r * dir.y
+				+ s * offset.y, base.z + r * dir.z + s * offset.z);
+	}
+
 	/**
 	 * Reflects a ray at point p with the given normal
 	 *
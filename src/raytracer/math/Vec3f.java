@@ -0,0 +1,160 @@
+package raytracer.math;
+
+/**
+ * A mutable three dimensional vector used as scratch space in hot paths (e.g.
+ * shading), where the immutable {@link Vec3} would create a new object for
+ * every intermediate result. All operations change this vector and return it.
+ * They compute the same values as the corresponding methods of {@link Vec3}.
+ * <p>
+ * Instances should not escape the method creating them, the immutable types
+ * are used everywhere else.
+ */
+public final class Vec3f {
+
+    private float x, y, z;
+
+    /**
+     * Creates a zero vector.
+     */
+    public Vec3f() {
+    }
+
+    /**
+     * Creates a vector with the given entries.
+     *
+     * @param x x translation
+     * @param y y translation
+     * @param z z translation
+     */
+    public Vec3f(final float x, final float y, final float z) {
+        set(x, y, z);
+    }
+
+    public float x() {
+        return x;
+    }
+
+    public float y() {
+        return y;
+    }
+
+    public float z() {
+        return z;
+    }
+
+    /**
+     * Sets the entries of this vector.
+     *
+     * @return this vector
+     */
+    public Vec3f set(final float x, final float y, final float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    /**
+     * Sets this vector to the given vector.
+     *
+     * @param v the vector to copy
+     * @return this vector
+     */
+    public Vec3f set(final Vec3 v) {
+        return set(v.x, v.y, v.z);
+    }
+
+    /**
+     * Sets this vector to the vector from b to a.
+     *
+     * @param a the target point
+     * @param b the base point
+     * @return this vector
+     */
+    public Vec3f sub(final Point a, final Point b) {
+        return set(a.x - b.x, a.y - b.y, a.z - b.z);
+    }
+
+    /**
+     * Multiplies this vector by a scalar.
+     *
+     * @param r the scalar
+     * @return this vector
+     */
+    public Vec3f scale(final float r) {
+        return set(r * x, r * y, r * z);
+    }
+
+    /**
+     * Negates this vector.
+     *
+     * @return this vector
+     */
+    public Vec3f neg() {
+        return scale(-1);
+    }
+
+    /**
+     * Sets this vector to its cross product with b (this x b).
+     *
+     * @param b the second vector
+     * @return this vector
+     */
+    public Vec3f cross(final Vec3f b) {
+        return set(VecMath.crossX(y, z, b.y, b.z),
+                VecMath.crossY(x, z, b.x, b.z), VecMath.crossZ(x, y, b.x, b.y));
+    }
+
+    /**
+     * Normalizes this vector, see {@link Vec3#normalized()}.
+     *
+     * @return this vector
+     */
+    public Vec3f normalize() {
+        final float factor = 1.0f / norm();
+        return set(factor * x, factor * y, factor * z);
+    }
+
+    /**
+     * Reflects this vector at a surface with the given normal, see
+     * {@link Vec3#reflect(Vec3)}.
+     *
+     * @param normal reflection normal (normalized)
+     * @return this vector
+     */
+    public Vec3f reflect(final Vec3f normal) {
+        final float r = 2 * dot(normal);
+        return set(x - r * normal.x, y - r * normal.y, z - r * normal.z);
+    }
+
+    public float dot(final Vec3f v) {
+        return VecMath.dot(x, y, z, v.x, v.y, v.z);
+    }
+
+    public float dot(final Vec3 v) {
+        return VecMath.dot(x, y, z, v.x, v.y, v.z);
+    }
+
+    /**
+     * Computes the (euclidean) length of this vector.
+     *
+     * @return length of this vector
+     */
+    public float norm() {
+        return VecMath.norm(x, y, z);
+    }
+
+    /**
+     * Creates an immutable copy of this vector.
+     *
+     * @return the immutable vector
+     */
+    public Vec3 toVec3() {
+        return new Vec3(x, y, z);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%f %f %f]", x, y, z);
+    }
+}
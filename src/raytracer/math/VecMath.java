@@ -0,0 +1,71 @@
+package raytracer.math;
+
+/**
+ * Vector operations on raw float components for hot paths. Every method uses
+ * the same operations in the same order as the corresponding method of
+ * {@link Vec3}, so both compute identical values, but no objects are created.
+ */
+public final class VecMath {
+
+    private VecMath() {
+    }
+
+    /**
+     * Computes the dot product of the vectors a and b.
+     *
+     * @return dot product of a and b
+     */
+    public static float dot(final float ax, final float ay, final float az,
+            final float bx, final float by, final float bz) {
+        return ax * bx + ay * by + az * bz;
+    }
+
+    /**
+     * Computes the squared length of a vector.
+     *
+     * @return squared length of the vector
+     */
+    public static float sdot(final float x, final float y, final float z) {
+        return x * x + y * y + z * z;
+    }
+
+    /**
+     * Computes the (euclidean) length of a vector, see {@link Vec3#norm()}.
+     *
+     * @return length of the vector
+     */
+    public static float norm(final float x, final float y, final float z) {
+        final float sdot = sdot(x, y, z);
+        return sdot == 1.0f ? 1.0f : (float) Math.sqrt(sdot);
+    }
+
+    /**
+     * Computes the x component of the cross product a x b.
+     *
+     * @return x component of a x b
+     */
+    public static float crossX(final float ay, final float az, final float by,
+            final float bz) {
+        return ay * bz - az * by;
+    }
+
+    /**
+     * Computes the y component of the cross product a x b.
+     *
+     * @return y component of a x b
+     */
+    public static float crossY(final float ax, final float az, final float bx,
+            final float bz) {
+        return az * bx - ax * bz;
+    }
+
+    /**
+     * Computes the z component of the cross product a x b.
+     *
+     * @return z component of a x b
+     */
+    public static float crossZ(final float ax, final float ay, final float bx,
+            final float by) {
+        return ax * by - ay * bx;
+    }
+}
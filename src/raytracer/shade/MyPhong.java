@@ -80,10 +80,18 @@ import raytracer.core.LightSource;
 import raytracer.core.Shader;
 import raytracer.core.Trace;
 import raytracer.math.Color;
-import raytracer.math.Vec3;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec3f;
 
 public class MyPhong implements Shader {
 
+  /**
+   * The distance a shadow ray has to travel before an intersection counts as
+   * occluding the light (avoids self-shadowing of the hit surface)
+   */
+  private static final float SHADOW_EPS = 0.001f;
+
   private final Shader Myinner;
   private final Color ambient;
   private final float diffuse;
@@ -110,36 +118,44 @@ public class MyPhong implements Shader {
     Color ambientColor = ambient.mul(surfaceColor);
 
     Color diffuseColor = Color.BLACK;
-    Vec3 normal = hit.getNormal().normalized();
-    Vec3 viewDirection = trace.getRay().dir().neg().normalized();
+    Color specularColor = Color.BLACK;
+    // scratch vectors, they do not leave this method
+    final Vec3f normal = new Vec3f().set(hit.getNormal()).normalize();
+    final Vec3f viewDirection = new Vec3f()
+      .set(trace.getRay().dir())
+      .neg()
+      .normalize();
+    final Vec3f toLight = new Vec3f();
+    Point point = hit.getPoint();
     for (LightSource lightSource : trace.getScene().getLightSources()) {
-      Vec3 lightDirection = lightSource
-        .getLocation()
-        .sub(hit.getPoint())
-        .normalized();
-      float intensity = Math.max(0, normal.dot(lightDirection));
+      toLight.sub(lightSource.getLocation(), point);
+      float distance = toLight.norm();
+      toLight.normalize();
+      // lights hidden behind other objects contribute neither term
+      if (
+        trace
+          .getScene()
+          .occluded(new Ray(point, toLight.toVec3()), SHADOW_EPS, distance)
+      ) {
+        continue;
+      }
+
+      float intensity = Math.max(0, normal.dot(toLight));
       diffuseColor =
         diffuseColor.add(
           lightSource.getColor().mul(surfaceColor).scale(intensity)
         );
-    }
-    diffuseColor = diffuseColor.scale(diffuse);
 
-    Color specularColor = Color.BLACK;
-    for (LightSource lightSource : trace.getScene().getLightSources()) {
-      Vec3 lightDirection = lightSource
-        .getLocation()
-        .sub(hit.getPoint())
-        .normalized();
-      Vec3 reflectionDirection = lightDirection.reflect(normal);
-      float intensity = (float) Math.pow(
-        Math.max(0, reflectionDirection.dot(viewDirection)),
+      // the light direction is not needed any more, reflect it in place
+      float highlight = (float) Math.pow(
+        Math.max(0, toLight.reflect(normal).dot(viewDirection)),
         shininess
       );
       // Use light source color in the specular term as well
       specularColor =
-        specularColor.add(lightSource.getColor().scale(intensity));
+        specularColor.add(lightSource.getColor().scale(highlight));
     }
+    diffuseColor = diffuseColor.scale(diffuse);
     specularColor = specularColor.scale(specular);
 
     return ambientColor.add(diffuseColor).add(specularColor);
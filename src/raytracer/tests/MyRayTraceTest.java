@@ -1,9 +1,69 @@
 package raytracer.tests;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
 
 import org.junit.Test;
 
+import raytracer.core.Camera;
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.ImageOutput;
+import raytracer.core.LightSource;
+import raytracer.core.MeshCache;
+import raytracer.core.OBJReader;
+import raytracer.core.Obj;
+import raytracer.core.PerspectiveCamera;
+import raytracer.core.RenderStats;
+import raytracer.core.Renderer;
+import raytracer.core.Scene;
+import raytracer.core.TileScheduler;
+import raytracer.core.def.Accelerator;
+import raytracer.core.def.BVH;
+import raytracer.core.def.ImageIOOutput;
+import raytracer.core.def.LBVH;
+import raytracer.core.def.LinearBVH;
+import raytracer.core.def.SAHBVH;
+import raytracer.core.def.SimpleAccelerator;
+import raytracer.core.def.StandardMesh;
+import raytracer.core.def.StandardObj;
+import raytracer.core.def.StandardScene;
+import raytracer.core.def.StreamingOutput;
+import raytracer.core.def.WideBVH;
+import raytracer.core.def.WideKernel;
+import raytracer.geom.BBox;
+import raytracer.geom.GeomFactory;
+import raytracer.geom.Primitive;
+import raytracer.geom.TriangleMesh;
+import raytracer.geom.Util;
+import raytracer.math.Color;
+import raytracer.math.ONB;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec2;
+import raytracer.math.Vec3;
+import raytracer.math.Vec3f;
+import raytracer.shade.SingleColor;
+
 
 /**
  * Within this class and/or package you can implement your own tests that will
@@ -19,4 +79,1041 @@ public class MyRayTraceTest {
 		assert(42 == 42);
 	}
 
+	private static Obj[] createSpheres(final int n, final long seed) {
+		final Random random = new Random(seed);
+		final Obj[] objs = new Obj[n];
+		for (int i = 0; i < n; i++) {
+			final Point m = new Point(random.nextFloat() * 100,
+					random.nextFloat() * 100, random.nextFloat() * 100);
+			objs[i] = new StandardObj(
+					GeomFactory.createSphere(m, random.nextFloat()),
+					new SingleColor(Color.WHITE));
+		}
+		return objs;
+	}
+
+	private static Ray createRay(final Random random) {
+		final Point base = new Point(-10, random.nextFloat() * 100,
+				random.nextFloat() * 100);
+		final Point target = new Point(110, random.nextFloat() * 100,
+				random.nextFloat() * 100);
+		return new Ray(base, target.sub(base).normalized());
+	}
+
+	private static void assertSameHit(final Hit expected, final Hit actual) {
+		assertEquals(expected.hits(), actual.hits());
+		if (expected.hits())
+			assertEquals(expected.getParameter(), actual.getParameter(), 1e-4);
+	}
+
+	private static void assertSameHits(final Accelerator expected,
+			final Accelerator actual) {
+		final Random random = new Random(7);
+		for (int i = 0; i < 1000; i++) {
+			final Ray ray = createRay(random);
+			assertSameHit(expected.hit(ray, null, 0, Float.POSITIVE_INFINITY),
+					actual.hit(ray, null, 0, Float.POSITIVE_INFINITY));
+		}
+	}
+
+	private static void assertSameOcclusion(final Accelerator expected,
+			final Accelerator actual) {
+		final Random random = new Random(9);
+		for (int i = 0; i < 1000; i++) {
+			final Ray ray = createRay(random);
+			final float tMax = random.nextFloat() * 150;
+			assertEquals(expected.hit(ray, null, 0, tMax).hits(),
+					actual.occluded(ray, 0, tMax));
+		}
+	}
+
+	@Test
+	public void testSAHBVHMatchesSimpleAccelerator() {
+		final Accelerator simple = new SimpleAccelerator();
+		final BVH sah = new SAHBVH();
+		for (final Obj obj : createSpheres(5000, 23)) {
+			simple.add(obj);
+			sah.add(obj);
+		}
+		sah.buildBVH();
+		assertSameHits(simple, sah);
+		assertSameOcclusion(simple, sah);
+	}
+
+	@Test
+	public void testLinearBVHMatchesSimpleAccelerator() {
+		final Accelerator simple = new SimpleAccelerator();
+		final BVH bvh = new SAHBVH();
+		for (final Obj obj : createSpheres(5000, 29)) {
+			simple.add(obj);
+			bvh.add(obj);
+		}
+		bvh.buildBVH();
+		final LinearBVH linear = new LinearBVH(bvh);
+		assertSameHits(simple, linear);
+		assertSameOcclusion(simple, linear);
+	}
+
+	@Test
+	public void testBVHMatchesSimpleAcceleratorInWindows() {
+		final Accelerator simple = new SimpleAccelerator();
+		final BVH bvh = new BVH();
+		for (final Obj obj : createSpheres(2000, 31)) {
+			simple.add(obj);
+			bvh.add(obj);
+		}
+		bvh.buildBVH();
+		assertSameHits(simple, bvh);
+		assertSameOcclusion(simple, bvh);
+
+		// bounded windows cut the clipped traversal off at both ends
+		final Random random = new Random(13);
+		for (int i = 0; i < 1000; i++) {
+			final Ray ray = createRay(random);
+			final float tMin = random.nextFloat() * 100;
+			final float tMax = tMin + random.nextFloat() * 50;
+			assertSameHit(simple.hit(ray, null, tMin, tMax),
+					bvh.hit(ray, null, tMin, tMax));
+		}
+	}
+
+	@Test
+	public void testOccludedMatchesSimpleAccelerator() {
+		final Accelerator simple = new SimpleAccelerator();
+		final BVH bvh = new SAHBVH();
+		final Random random = new Random(37);
+		for (final Obj obj : createSpheres(1000, 37)) {
+			simple.add(obj);
+			bvh.add(obj);
+		}
+		for (int i = 0; i < 1000; i++) {
+			final Point a = new Point(random.nextFloat() * 100,
+					random.nextFloat() * 100, random.nextFloat() * 100);
+			final Obj obj = new StandardObj(GeomFactory.createTriangle(a,
+					a.add(new Vec3(random.nextFloat() * 5, random.nextFloat() * 5, 0)),
+					a.add(new Vec3(0, random.nextFloat() * 5, random.nextFloat() * 5))),
+					new SingleColor(Color.WHITE));
+			simple.add(obj);
+			bvh.add(obj);
+		}
+		bvh.buildBVH();
+		final LinearBVH linear = new LinearBVH(bvh);
+
+		// the windows start in front of and behind some of the objects
+		for (int i = 0; i < 2000; i++) {
+			final Ray ray = createRay(random);
+			final float tMin = random.nextFloat() * 100;
+			final float tMax = tMin + random.nextFloat() * 50;
+			final boolean expected = simple.hit(ray, null, tMin, tMax).hits();
+			assertEquals(expected, simple.occluded(ray, tMin, tMax));
+			assertEquals(expected, bvh.occluded(ray, tMin, tMax));
+			assertEquals(expected, linear.occluded(ray, tMin, tMax));
+		}
+	}
+
+	@Test
+	public void testParallelBuildMatchesSerial() {
+		final Obj[] objs = createSpheres(3 * BVH.PARALLEL_CUTOFF, 42);
+		final BVH serial = new SAHBVH();
+		final BVH parallel = new SAHBVH();
+		for (final Obj obj : objs) {
+			serial.add(obj);
+			parallel.add(obj);
+		}
+		serial.buildBVH();
+		parallel.buildBVHParallel();
+
+		assertTrue(serial.bbox().equals(parallel.bbox()));
+		assertEquals(new LinearBVH(serial).getNodeCount(),
+				new LinearBVH(parallel).getNodeCount());
+
+		assertSameHits(serial, parallel);
+	}
+
+	@Test
+	public void testLBVHMatchesSimpleAccelerator() {
+		final Accelerator simple = new SimpleAccelerator();
+		final BVH lbvh = new LBVH();
+		for (final Obj obj : createSpheres(5000, 3)) {
+			simple.add(obj);
+			lbvh.add(obj);
+		}
+		lbvh.buildBVH();
+		assertSameHits(simple, lbvh);
+	}
+
+	@Test
+	public void testBatchMatchesSingleAdds() {
+		final Obj[] objs = createSpheres(5000, 11);
+		final BVH single = new SAHBVH();
+		for (final Obj obj : objs)
+			single.add(obj);
+		single.buildBVH();
+
+		// batches of 1000 objects, the arrays are reused
+		final BVH batched = new SAHBVH();
+		final Obj[] batch = new Obj[1000];
+		final float[] bounds = new float[6 * 1000];
+		for (int first = 0; first < objs.length; first += batch.length) {
+			for (int k = 0; k < batch.length; k++) {
+				batch[k] = objs[first + k];
+				for (int d = 0; d < 3; d++) {
+					bounds[6 * k + d] = batch[k].bbox().getMin().get(d);
+					bounds[6 * k + 3 + d] = batch[k].bbox().getMax().get(d);
+				}
+			}
+			batched.addAll(batch, bounds, batch.length);
+		}
+		assertEquals(objs.length, batched.getObjects().size());
+		batched.buildBVH();
+
+		assertTrue(single.bbox().equals(batched.bbox()));
+		assertEquals(new LinearBVH(single).getNodeCount(),
+				new LinearBVH(batched).getNodeCount());
+		assertSameHits(single, batched);
+	}
+
+	private static void moveSpheres(final Obj[] objs, final int step,
+			final float distance, final long seed) {
+		final Random random = new Random(seed);
+		for (int i = 0; i < objs.length; i += step) {
+			final Point min = objs[i].bbox().getMin();
+			final Point max = objs[i].bbox().getMax();
+			final Vec3 offset = new Vec3(random.nextFloat() - 0.5f,
+					random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+			final Point m = min.add(max.sub(min).scale(0.5f))
+					.add(offset.scale(distance));
+			((StandardObj) objs[i]).setPrimitive(GeomFactory.createSphere(m,
+					(max.x() - min.x()) / 2));
+		}
+	}
+
+	@Test
+	public void testRefitMovedObjects() {
+		final Obj[] objs = createSpheres(2000, 5);
+		final BVH bvh = new SAHBVH();
+		final Accelerator simple = new SimpleAccelerator();
+		final List<Obj> moved = new ArrayList<>();
+		for (int i = 0; i < objs.length; i++) {
+			bvh.add(objs[i]);
+			simple.add(objs[i]);
+			if (i % 50 == 0)
+				moved.add(objs[i]);
+		}
+		bvh.buildBVH();
+		final LinearBVH linear = new LinearBVH(bvh);
+
+		moveSpheres(objs, 50, 2, 11);
+		assertFalse(bvh.refit(moved));
+		linear.refit();
+		assertSameHits(simple, bvh);
+		assertSameHits(simple, linear);
+	}
+
+	@Test
+	public void testRefitMovedOntoEqualObject() {
+		final Obj[] objs = createSpheres(200, 5);
+		final Point center = new Point(50, 50, 50);
+		objs[1] = new StandardObj(GeomFactory.createSphere(center, 1),
+				new SingleColor(Color.WHITE));
+		final BVH bvh = new SAHBVH();
+		for (final Obj obj : objs)
+			bvh.add(obj);
+		bvh.buildBVH();
+		final LinearBVH linear = new LinearBVH(bvh);
+
+		// the moved object becomes equal to another one
+		final int hash = objs[0].hashCode();
+		((StandardObj) objs[0]).setPrimitive(GeomFactory.createSphere(center, 1));
+		assertTrue(objs[0].equals(objs[1]));
+		assertFalse(hash == objs[0].hashCode());
+
+		bvh.refit(Arrays.asList(objs[0]));
+		linear.refit();
+		final Accelerator simple = new SimpleAccelerator();
+		for (final Obj obj : objs)
+			simple.add(obj);
+		assertSameHits(simple, bvh);
+		assertSameHits(simple, linear);
+	}
+
+	@Test
+	public void testRefitRebuildsDegradedTree() {
+		final Obj[] objs = createSpheres(2000, 5);
+		final BVH bvh = new SAHBVH();
+		for (final Obj obj : objs)
+			bvh.add(obj);
+		bvh.buildBVH();
+		assertEquals(1f, bvh.getDegradation(), 1e-4);
+
+		moveSpheres(objs, 1, 200, 13);
+		assertTrue(bvh.refit(Arrays.asList(objs)));
+		assertEquals(1f, bvh.getDegradation(), 1e-4);
+
+		final Accelerator simple = new SimpleAccelerator();
+		for (final Obj obj : objs)
+			simple.add(obj);
+		assertSameHits(simple, bvh);
+	}
+
+	@Test
+	public void testMeshMatchesTriangles() {
+		final Random random = new Random(17);
+		final float[] positions = new float[3 * 3000];
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = random.nextFloat() * 100;
+		final int[] indices = new int[3 * 2000];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = random.nextInt(3000);
+
+		final Accelerator simple = new SimpleAccelerator();
+		for (int i = 0; i < indices.length; i += 3) {
+			final Point[] corners = new Point[3];
+			for (int k = 0; k < 3; k++) {
+				final int v = 3 * indices[i + k];
+				corners[k] = new Point(positions[v], positions[v + 1],
+						positions[v + 2]);
+			}
+			simple.add(new StandardObj(GeomFactory.createTriangle(corners[0],
+					corners[1], corners[2]), new SingleColor(Color.WHITE)));
+		}
+
+		final StandardMesh mesh = new StandardMesh(
+				new TriangleMesh(positions, indices),
+				new SingleColor(Color.WHITE));
+		final BVH bvh = new SAHBVH();
+		mesh.addTo(bvh);
+		bvh.buildBVH();
+		assertSameHits(simple, new LinearBVH(bvh));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMeshRejectsInvalidIndex() {
+		new TriangleMesh(new float[9], new int[] { 0, 1, 3 });
+	}
+
+	private static void assertSameVector(final Vec3 expected, final Vec3f actual) {
+		assertEquals(expected.x(), actual.x(), 0);
+		assertEquals(expected.y(), actual.y(), 0);
+		assertEquals(expected.z(), actual.z(), 0);
+	}
+
+	@Test
+	public void testDefaultCreateHit() {
+		final Primitive sphere = GeomFactory.createSphere(Point.ORIGIN, 1);
+		// fills the record itself but leaves creating the hit to the default
+		final Primitive custom = new Primitive() {
+			@Override
+			public BBox bbox() {
+				return sphere.bbox();
+			}
+
+			@Override
+			public Hit hit(final Ray ray, final Obj obj, final float tmin,
+					final float tmax) {
+				return sphere.hit(ray, obj, tmin, tmax);
+			}
+
+			@Override
+			public boolean intersect(final Ray ray, final Obj obj,
+					final float tmin, final float tmax, final HitRecord rec) {
+				final Hit hit = sphere.hit(ray, obj, tmin, tmax);
+				if (!hit.hits())
+					return false;
+				rec.set(hit.getParameter(), 0, 0, this, obj);
+				return true;
+			}
+		};
+
+		final Ray ray = new Ray(new Point(0, 0, -5), Vec3.Z);
+		final HitRecord rec = new HitRecord();
+		assertTrue(custom.intersect(ray, null, 0, Float.POSITIVE_INFINITY, rec));
+		final Hit hit = rec.toHit(ray);
+		assertTrue(hit.hits());
+		assertEquals(4, hit.getParameter(), 1e-4);
+	}
+
+	@Test
+	public void testVec3fMatchesVec3() {
+		final Random random = new Random(5);
+		for (int i = 0; i < 1000; i++) {
+			final Vec3 a = new Vec3(random.nextFloat() - 0.5f,
+					random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+			final Vec3 b = new Vec3(random.nextFloat() * 10,
+					random.nextFloat() * 10, random.nextFloat() * 10);
+			final Vec3 n = b.normalized();
+
+			assertSameVector(a.normalized(), new Vec3f().set(a).normalize());
+			assertSameVector(a.neg().scale(3),
+					new Vec3f().set(a).neg().scale(3));
+			assertSameVector(a.cross(b),
+					new Vec3f().set(a).cross(new Vec3f().set(b)));
+			assertSameVector(a.reflect(n),
+					new Vec3f().set(a).reflect(new Vec3f().set(n)));
+			assertEquals(a.dot(b), new Vec3f().set(a).dot(b), 0);
+			assertEquals(b.norm(), new Vec3f().set(b).norm(), 0);
+
+			// the plane texture coordinates are computed on raw floats
+			final Point p = Point.ORIGIN.add(b);
+			final Vec3 v = p.sub(Point.ORIGIN.add(a));
+			final ONB base = ONB.fromW(a);
+			final Vec2 uv = Util.computePlaneUV(a, Point.ORIGIN.add(a), p);
+			assertEquals(v.dot(base.u()), uv.x(), 0);
+			assertEquals(v.dot(base.v()), uv.y(), 0);
+		}
+	}
+
+	@Test
+	public void testTileSchedulerCoversImage() {
+		final Accelerator accel = new SimpleAccelerator();
+		for (final Obj obj : createSpheres(50, 11))
+			accel.add(obj);
+		final Camera cam = new PerspectiveCamera(new Point(50, 50, -100),
+				new Point(50, 50, 50), Vec3.Y, 3, 4, 3);
+		final Scene scene = new StandardScene(cam,
+				new ArrayList<LightSource>(), accel);
+		final int xRes = 53, yRes = 37;
+		final Renderer renderer = new Renderer(scene, xRes, yRes, 1);
+
+		final int[] image = new int[xRes * yRes];
+		final int[] covered = new int[xRes * yRes];
+		new TileScheduler(renderer, xRes, yRes, 8, 3).render(w -> {
+			synchronized (image) {
+				for (int y = 0; y < w.h; y++) {
+					for (int x = 0; x < w.w; x++) {
+						image[(w.y + y) * xRes + w.x + x] = w.pixels[y * w.w + x];
+						covered[(w.y + y) * xRes + w.x + x]++;
+					}
+				}
+			}
+		});
+
+		for (final int c : covered)
+			assertEquals(1, c);
+		assertTrue(Arrays.equals(renderer.renderTile(0, 0, xRes, yRes).pixels,
+				image));
+	}
+
+	private static int[] renderTiled(final Renderer renderer, final int xRes,
+			final int yRes, final int tileSize, final int threads) {
+		final int[] image = new int[xRes * yRes];
+		new TileScheduler(renderer, xRes, yRes, tileSize, threads).render(w -> {
+			for (int y = 0; y < w.h; y++)
+				System.arraycopy(w.pixels, y * w.w, image, (w.y + y) * xRes + w.x, w.w);
+		});
+		return image;
+	}
+
+	@Test
+	public void testRenderIndependentOfTiling() {
+		// many colored spheres, so tile edges cross many color edges
+		final Random random = new Random(11);
+		final Accelerator accel = new SimpleAccelerator();
+		for (int i = 0; i < 500; i++) {
+			final Point m = new Point(random.nextFloat() * 100,
+					random.nextFloat() * 100, random.nextFloat() * 100);
+			accel.add(new StandardObj(
+					GeomFactory.createSphere(m, random.nextFloat() * 5),
+					new SingleColor(new Color(random.nextFloat(),
+							random.nextFloat(), random.nextFloat()))));
+		}
+		final Camera cam = new PerspectiveCamera(new Point(50, 50, -100),
+				new Point(50, 50, 50), Vec3.Y, 3, 4, 3);
+		final Scene scene = new StandardScene(cam,
+				new ArrayList<LightSource>(), accel);
+		final int xRes = 53, yRes = 37;
+
+		for (final Renderer renderer : new Renderer[] {
+				new Renderer(scene, xRes, yRes, 2),
+				new Renderer(scene, xRes, yRes, 3, 0.5f) }) {
+			final int[] whole = renderer.renderTile(0, 0, xRes, yRes).pixels;
+			assertTrue(Arrays.equals(whole, renderTiled(renderer, xRes, yRes, 8, 1)));
+			assertTrue(Arrays.equals(whole, renderTiled(renderer, xRes, yRes, 8, 4)));
+			assertTrue(Arrays.equals(whole, renderTiled(renderer, xRes, yRes, 16, 3)));
+		}
+	}
+
+	@Test
+	public void testStreamingOutputMatchesImageIO() throws IOException {
+		final Accelerator accel = new SimpleAccelerator();
+		for (final Obj obj : createSpheres(50, 11))
+			accel.add(obj);
+		final Camera cam = new PerspectiveCamera(new Point(50, 50, -100),
+				new Point(50, 50, 50), Vec3.Y, 3, 4, 3);
+		final Scene scene = new StandardScene(cam,
+				new ArrayList<LightSource>(), accel);
+		final int xRes = 53, yRes = 37;
+		final Renderer renderer = new Renderer(scene, xRes, yRes, 2);
+		final Path ppm = Files.createTempFile("stream", ".ppm");
+		final Path png = Files.createTempFile("imageio", ".png");
+		try {
+			try (ImageOutput out = new StreamingOutput(ppm,
+					StreamingOutput.Format.PPM, xRes, yRes, 8)) {
+				new TileScheduler(renderer, xRes, yRes, 8, 3).renderRows(w -> {
+					try {
+						out.write(w);
+					} catch (final IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+			try (ImageOutput out = new ImageIOOutput(png.toFile(), "png", xRes,
+					yRes)) {
+				out.write(renderer.renderTile(0, 0, xRes, yRes));
+			}
+
+			final byte[] header = ("P6\n" + xRes + " " + yRes + "\n255\n")
+					.getBytes(StandardCharsets.US_ASCII);
+			final byte[] expected = Arrays.copyOf(header,
+					header.length + 3 * xRes * yRes);
+			final BufferedImage img = ImageIO.read(png.toFile());
+			for (int y = 0, i = header.length; y < yRes; y++) {
+				for (int x = 0; x < xRes; x++) {
+					final int rgb = img.getRGB(x, y);
+					expected[i++] = (byte) (rgb >> 16);
+					expected[i++] = (byte) (rgb >> 8);
+					expected[i++] = (byte) rgb;
+				}
+			}
+			assertTrue(Arrays.equals(expected, Files.readAllBytes(ppm)));
+		} finally {
+			Files.deleteIfExists(ppm);
+			Files.deleteIfExists(png);
+		}
+	}
+
+	@Test
+	public void testStreamingOutputPFM() throws IOException {
+		final Camera cam = new PerspectiveCamera(new Point(0, 0, -10),
+				Point.ORIGIN, Vec3.Y, 3, 4, 3);
+		final Scene scene = new StandardScene(cam,
+				new ArrayList<LightSource>(), new SimpleAccelerator());
+		final Renderer renderer = new Renderer(scene, 5, 3, 1);
+		// two pieces in two bands, with colors between the 8 bit levels
+		final Renderer.Work top = renderer.new Work(0, 0, 5, 2);
+		final Renderer.Work bottom = renderer.new Work(0, 2, 5, 1);
+		final Random random = new Random(3);
+		for (final Renderer.Work w : new Renderer.Work[] { top, bottom }) {
+			for (int p = 0; p < w.w * w.h; p++)
+				w.set(p, new Color(random.nextFloat(), random.nextFloat(),
+						random.nextFloat()));
+		}
+
+		final Path file = Files.createTempFile("stream", ".pfm");
+		try {
+			try (ImageOutput out = new StreamingOutput(file,
+					StreamingOutput.Format.PFM, 5, 3, 2)) {
+				out.write(bottom);
+				out.write(top);
+			}
+			final byte[] bytes = Files.readAllBytes(file);
+			final byte[] header = "PF\n5 3\n-1.0\n"
+					.getBytes(StandardCharsets.US_ASCII);
+			assertTrue(Arrays.equals(header,
+					Arrays.copyOf(bytes, header.length)));
+			assertEquals(header.length + 3 * 4 * 5 * 3, bytes.length);
+
+			// little endian, bottom row first
+			final ByteBuffer buf = ByteBuffer.wrap(bytes, header.length,
+					bytes.length - header.length).order(ByteOrder.LITTLE_ENDIAN);
+			for (int y = 2; y >= 0; y--) {
+				final Renderer.Work w = y < 2 ? top : bottom;
+				for (int x = 0; x < 5; x++) {
+					for (int d = 0; d < 3; d++)
+						assertEquals(w.colors[3 * ((y - w.y) * 5 + x) + d],
+								buf.getFloat(), 0);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testAdaptiveTilesNotSubdivided() {
+		final Accelerator accel = new SimpleAccelerator();
+		for (final Obj obj : createSpheres(50, 11))
+			accel.add(obj);
+		final Camera cam = new PerspectiveCamera(new Point(50, 50, -100),
+				new Point(50, 50, 50), Vec3.Y, 3, 4, 3);
+		final Scene scene = new StandardScene(cam,
+				new ArrayList<LightSource>(), accel);
+		final int xRes = 53, yRes = 37;
+		final Renderer renderer = new Renderer(scene, xRes, yRes, 3, 0.05f);
+
+		final List<Renderer.Work> works = new ArrayList<>();
+		new TileScheduler(renderer, xRes, yRes, 8, 4).render(w -> {
+			synchronized (works) {
+				works.add(w);
+			}
+		});
+		assertEquals(7 * 5, works.size());
+		for (final Renderer.Work w : works) {
+			assertEquals(0, w.x % 8);
+			assertEquals(0, w.y % 8);
+			assertEquals(Math.min(8, xRes - w.x), w.w);
+			assertEquals(Math.min(8, yRes - w.y), w.h);
+		}
+	}
+
+	@Test
+	public void testRenderStats() {
+		final Camera cam = new PerspectiveCamera(new Point(0, 0, -10),
+				Point.ORIGIN, Vec3.Y, 3, 4, 3);
+		final Scene scene = new StandardScene(cam,
+				new ArrayList<LightSource>(), new SimpleAccelerator());
+		final Renderer.Work work = new Renderer(scene, 4, 4, 1).renderTile(0, 4, 4, 4);
+
+		final RenderStats stats = new RenderStats();
+		stats.ray(0, true);
+		stats.ray(0, false);
+		stats.ray(2, true);
+		stats.shadowRay(true);
+		stats.shadowRay(false);
+		stats.traversal(3, 5, 7);
+		stats.traversal(1, 1, 0);
+		stats.tile(work, 2000000);
+		stats.tile(work, 1000000);
+
+		assertEquals(2, stats.getPrimaryRays());
+		assertEquals(1, stats.getSecondaryRays());
+		assertTrue(Arrays.equals(new long[] { 2, 0, 1, 0, 0 },
+				stats.getRaysByGeneration()));
+		assertEquals(2, stats.getHits());
+		assertEquals(2, stats.getShadowRays());
+		assertEquals(1, stats.getOccludedShadowRays());
+		assertEquals(4, stats.getNodesVisited());
+		assertEquals(6, stats.getBoxTests());
+		assertEquals(7, stats.getPrimitiveTests());
+		assertEquals(2, stats.getTiles());
+		assertEquals(3, stats.getTileMillis(), 1e-9);
+		assertEquals(2, stats.getMaxTileMillis(), 1e-9);
+
+		final String json = stats.toJson();
+		assertTrue(json.contains("\"byGeneration\": [2, 0, 1, 0, 0]"));
+		assertTrue(json.contains("\"primitiveTests\": 7"));
+		assertTrue(json.contains(
+				"{ \"x\": 0, \"y\": 4, \"w\": 4, \"h\": 4, \"millis\": 2.000 }"));
+
+		stats.reset();
+		assertEquals(0, stats.getPrimaryRays());
+		assertEquals(0, stats.getTiles());
+		assertEquals(0, stats.getMaxTileMillis(), 0);
+		assertTrue(stats.toJson().contains("\"times\": []"));
+	}
+
+	@Test
+	public void testAdaptiveSupersampling() {
+		final Accelerator accel = new SimpleAccelerator();
+		accel.add(new StandardObj(GeomFactory.createSphere(new Point(0, 0, 0), 1),
+				new SingleColor(Color.WHITE)));
+		final Camera cam = new PerspectiveCamera(new Point(0, 0, -5),
+				Point.ORIGIN, Vec3.Y, 3, 4, 3);
+		final Scene scene = new StandardScene(cam,
+				new ArrayList<LightSource>(), accel);
+		final Renderer full = new Renderer(scene, 32, 24, 4);
+		final Renderer adaptive = new Renderer(scene, 32, 24, 4, 0.01f);
+
+		final Renderer.Work expected = full.renderTile(0, 0, 32, 24);
+		final Renderer.Work actual = adaptive.renderTile(0, 0, 32, 24);
+		assertEquals(32 * 24 * 16, expected.rays);
+		assertEquals(32 * 24 * 16, actual.rays + actual.savedRays);
+		assertTrue(actual.savedRays > 0);
+		// flat pixels are not refined, the edge of the sphere is
+		for (int i = 0; i < expected.pixels.length; i++) {
+			for (int shift = 0; shift < 24; shift += 8) {
+				assertEquals(expected.pixels[i] >> shift & 0xFF,
+						actual.pixels[i] >> shift & 0xFF, 1);
+			}
+		}
+	}
+
+	private static void assertSamePacketHits(final Accelerator accel,
+			final Ray[] rays) {
+		final HitRecord[] recs = new HitRecord[rays.length];
+		for (int k = 0; k < recs.length; k++)
+			recs[k] = new HitRecord();
+		accel.intersect(rays, rays.length, null, 0, recs);
+		for (int k = 0; k < rays.length; k++) {
+			final HitRecord single = new HitRecord();
+			assertEquals(accel.intersect(rays[k], null, 0,
+					Float.POSITIVE_INFINITY, single), recs[k].hits());
+			assertEquals(single.getParameter(), recs[k].getParameter(), 0);
+			assertTrue(single.getObj() == recs[k].getObj());
+		}
+	}
+
+	@Test
+	public void testPacketMatchesSingleRays() {
+		final BVH bvh = new SAHBVH();
+		for (final Obj obj : createSpheres(2000, 5))
+			bvh.add(obj);
+		bvh.buildBVH();
+		final LinearBVH accel = new LinearBVH(bvh);
+
+		// coherent packets of a pinhole camera
+		final Point eye = new Point(50, 50, -100);
+		final Ray[] rays = new Ray[64];
+		for (int py = 0; py < 100; py += 8) {
+			for (int px = 0; px < 100; px += 8) {
+				for (int k = 0; k < rays.length; k++) {
+					final Point target = new Point(px + k % 8, py + k / 8, 50);
+					rays[k] = new Ray(eye, target.sub(eye).normalized());
+				}
+				assertSamePacketHits(accel, rays);
+			}
+		}
+
+		// incoherent packets fall back to single rays
+		final Random random = new Random(3);
+		for (int i = 0; i < 20; i++) {
+			for (int k = 0; k < rays.length; k++)
+				rays[k] = createRay(random);
+			assertSamePacketHits(accel, rays);
+		}
+	}
+
+	@Test
+	public void testWideKernelMatchesScalar() {
+		final WideKernel kernel = WideKernel.get();
+		final WideKernel scalar = WideKernel.scalar();
+		final Random random = new Random(23);
+		final float[] hit = new float[3], scalarHit = new float[3];
+		final float[] tNear = new float[8], scalarNear = new float[8];
+		for (final int width : new int[] { 4, 8 }) {
+			final float[] boxes = new float[6 * width];
+			final float[] tris = new float[9 * width];
+			final float[] positions = new float[9 * width];
+			final int[] indices = new int[3 * width];
+			for (int i = 0; i < 1000; i++) {
+				for (int lane = 0; lane < width; lane++) {
+					for (int d = 0; d < 3; d++) {
+						final float a = random.nextFloat() * 100;
+						final float b = random.nextFloat() * 100;
+						boxes[d * width + lane] = Math.min(a, b);
+						boxes[(3 + d) * width + lane] = Math.max(a, b);
+						for (int c = 0; c < 3; c++)
+							positions[9 * lane + 3 * c + d] = random.nextFloat() * 100;
+						tris[d * width + lane] = positions[9 * lane + d];
+						tris[(3 + d) * width + lane] = positions[9 * lane + 3 + d]
+								- positions[9 * lane + d];
+						tris[(6 + d) * width + lane] = positions[9 * lane + 6 + d]
+								- positions[9 * lane + d];
+					}
+					indices[3 * lane] = 3 * lane;
+					indices[3 * lane + 1] = 3 * lane + 1;
+					indices[3 * lane + 2] = 3 * lane + 2;
+				}
+				// unused lanes are filled with NaN
+				if (i % 10 == 0) {
+					for (int d = 0; d < 6; d++)
+						boxes[d * width + width - 1] = Float.NaN;
+				}
+				final Ray ray = createRay(random);
+				final Point o = ray.base();
+				final Vec3 dir = ray.dir(), inv = ray.invDir();
+
+				final int mask = kernel.intersectBoxes(boxes, 0, width, o.x(), o.y(),
+						o.z(), inv.x(), inv.y(), inv.z(), 0, 150, tNear);
+				assertEquals(scalar.intersectBoxes(boxes, 0, width, o.x(), o.y(),
+						o.z(), inv.x(), inv.y(), inv.z(), 0, 150, scalarNear), mask);
+				for (int lane = 0; lane < width; lane++) {
+					if ((mask & 1 << lane) != 0)
+						assertEquals(scalarNear[lane], tNear[lane], 0);
+				}
+
+				final int lane = kernel.intersectTriangles(tris, 0, width, o.x(),
+						o.y(), o.z(), dir.x(), dir.y(), dir.z(), 0,
+						Float.POSITIVE_INFINITY, hit);
+				assertEquals(scalar.intersectTriangles(tris, 0, width, o.x(), o.y(),
+						o.z(), dir.x(), dir.y(), dir.z(), 0, Float.POSITIVE_INFINITY,
+						scalarHit), lane);
+				// the nearest triangle of the mesh is the one found by the kernel
+				final TriangleMesh mesh = new TriangleMesh(positions, indices);
+				float nearest = Float.POSITIVE_INFINITY;
+				for (int tri = 0; tri < width; tri++) {
+					final float t = mesh.intersect(tri, ray, 0, nearest);
+					if (!Float.isNaN(t))
+						nearest = t;
+				}
+				if (lane >= 0) {
+					assertTrue(Arrays.equals(scalarHit, hit));
+					assertEquals(nearest, hit[0], 0);
+				} else {
+					assertTrue(Float.isInfinite(nearest));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testWideBVHMatchesSimpleAccelerator() {
+		final Accelerator simple = new SimpleAccelerator();
+		final BVH bvh = new SAHBVH();
+		final StandardMesh mesh = new StandardMesh(new TriangleMesh(
+				new float[] { 0, 0, 50, 100, 0, 50, 0, 100, 50, 100, 100, 60 },
+				new int[] { 0, 1, 2, 1, 3, 2 }), new SingleColor(Color.WHITE));
+		mesh.addTo(simple);
+		mesh.addTo(bvh);
+		for (final Obj obj : createSpheres(500, 13)) {
+			simple.add(obj);
+			bvh.add(obj);
+		}
+		bvh.buildBVH();
+		for (final int width : new int[] { 4, 8 }) {
+			final WideBVH wide = new WideBVH(bvh, width);
+			assertTrue(wide.getDepth() < 10);
+			assertSameHits(simple, wide);
+			final Random random = new Random(9);
+			for (int i = 0; i < 1000; i++) {
+				final Ray ray = createRay(random);
+				assertEquals(simple.occluded(ray, 0, 50),
+						wide.occluded(ray, 0, 50));
+			}
+		}
+	}
+
+	@Test
+	public void testOBJReaderNumbers() {
+		final Random random = new Random(19);
+		final List<String> numbers = new ArrayList<>(Arrays.asList("0", "-0",
+				"1", "+2.5", "-.5", "3.", "1e3", "1.5E-3", "-0.000000", "16777216",
+				"16777217", "123456789.123", "0.1234567890123", "1e-30", "3e38",
+				"-7.0e+2", "0.3000000119", "NaN", "Infinity"));
+		for (int i = 0; i < 2000; i++) {
+			final double value = (random.nextDouble() - 0.5)
+					* Math.pow(10, random.nextInt(12) - 6);
+			numbers.add(String.format(Locale.ENGLISH,
+					"%." + random.nextInt(10) + (i % 3 == 0 ? "e" : "f"), value));
+		}
+		final StringBuilder text = new StringBuilder("# numbers\r\n");
+		for (int i = 0; i + 3 <= numbers.size(); i += 3) {
+			text.append("v " + numbers.get(i) + "\t" + numbers.get(i + 1) + "  "
+					+ numbers.get(i + 2) + (i % 2 == 0 ? "\r\n" : "\n"));
+		}
+		text.append("vn 0 0 1\nvt 0 0\nf 1 2 3\nf 2 3 1");
+
+		final TriangleMesh mesh = OBJReader.readMesh(new ByteArrayInputStream(
+				text.toString().getBytes(StandardCharsets.US_ASCII)), 2,
+				new Vec3(1, -1, 0.5f));
+		final float[] positions = mesh.getPositions();
+		final float[] translate = { 1, -1, 0.5f };
+		assertEquals(numbers.size() / 3 * 3, positions.length);
+		for (int i = 0; i < positions.length; i++) {
+			final float expected = Float.parseFloat(numbers.get(i)) * 2
+					+ translate[i % 3];
+			assertEquals(numbers.get(i), Float.floatToIntBits(expected),
+					Float.floatToIntBits(positions[i]));
+		}
+		assertTrue(Arrays.equals(new int[] { 0, 1, 2, 1, 2, 0 },
+				mesh.getIndices()));
+	}
+
+	@Test
+	public void testOBJReaderChunks() throws IOException {
+		// large enough to be split into several chunks
+		final StringBuilder text = new StringBuilder();
+		final List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 60000; i++) {
+			text.append("v " + i + ".25 " + (i % 7) + " -" + i + "e-2\n");
+			if (i >= 3) {
+				// relative and absolute corners
+				text.append("f -1 " + (i - 1) + " -4\n");
+				expected.addAll(Arrays.asList(i, i - 2, i - 3));
+			}
+		}
+		final Path obj = Files.createTempFile("chunks", ".obj");
+		try {
+			Files.write(obj, text.toString().getBytes(StandardCharsets.US_ASCII));
+			assertTrue(Files.size(obj) > 2 << 20);
+			final Vec3 translate = new Vec3(1, 2, 3);
+			final TriangleMesh mesh = OBJReader.readMesh(obj.toString(), 2,
+					translate);
+			final TriangleMesh stream = OBJReader.readMesh(new ByteArrayInputStream(
+					Files.readAllBytes(obj)), 2, translate);
+			assertTrue(Arrays.equals(stream.getPositions(), mesh.getPositions()));
+			final int[] indices = mesh.getIndices();
+			assertEquals(expected.size(), indices.length);
+			for (int i = 0; i < indices.length; i++) {
+				assertEquals((int) expected.get(i), indices[i]);
+			}
+			assertTrue(Arrays.equals(indices, stream.getIndices()));
+
+			// relative texture coordinate and normal indices
+			final StringBuilder shaded = new StringBuilder();
+			for (int i = 0; i < 40000; i++) {
+				shaded.append("v " + i + " " + (i % 5) + " 0\nvt 0." + i
+						+ " 1\nvn 0 " + (i % 3) + " 1\n");
+				if (i >= 2) {
+					shaded.append("f -3/1/-3 -2/-2/-2 -1/-1/" + (i + 1) + "\n");
+				}
+			}
+			Files.write(obj, shaded.toString().getBytes(StandardCharsets.US_ASCII));
+			final TriangleMesh mapped = OBJReader.readMesh(obj.toString(), 1,
+					Vec3.ZERO);
+			final TriangleMesh streamed = OBJReader.readMesh(
+					new ByteArrayInputStream(Files.readAllBytes(obj)), 1, Vec3.ZERO);
+			assertTrue(Arrays.equals(streamed.getPositions(),
+					mapped.getPositions()));
+			assertTrue(Arrays.equals(streamed.getNormals(), mapped.getNormals()));
+			assertTrue(Arrays.equals(streamed.getUVs(), mapped.getUVs()));
+			assertTrue(Arrays.equals(streamed.getIndices(), mapped.getIndices()));
+
+			// line numbers count from the start of the file
+			Files.write(obj, text.append("f 1 0 2\n").toString()
+					.getBytes(StandardCharsets.US_ASCII));
+			try {
+				OBJReader.readMesh(obj.toString(), 1, Vec3.ZERO);
+				assertTrue(false);
+			} catch (final IllegalArgumentException e) {
+				assertEquals("Malformed vertex index in line 119998.",
+						e.getMessage());
+			}
+		} finally {
+			Files.deleteIfExists(obj);
+		}
+	}
+
+	@Test
+	public void testOBJReaderFaces() {
+		final String text = "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nv 2 0 0\n"
+				+ "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n"
+				+ "vn 0 0 2\nvn 0 0 -1\n"
+				// a quad sharing the texture coordinates and normals
+				+ "f 1/1/1 2/2/1 3/3/1 4/4/1\n"
+				// a triangle using vertices 2 and 3 with another normal and
+				// relative indices
+				+ "f 2/-3/-1 5/-4/-1 3/-2/-1 # comment\n"
+				// a pentagon without normals
+				+ "f 1/1 2/2 5/2 3/3 4/4\n";
+		final TriangleMesh mesh = OBJReader.readMesh(new ByteArrayInputStream(
+				text.getBytes(StandardCharsets.US_ASCII)), 1, Vec3.ZERO);
+		assertEquals(6, mesh.getTriangleCount());
+		assertTrue(Arrays.equals(new int[] { 0, 1, 2, 0, 2, 3, 4, 5, 6, 7, 8, 9,
+				7, 9, 10, 7, 10, 11 }, mesh.getIndices()));
+		assertTrue(mesh.hasNormals());
+		assertTrue(mesh.hasUVs());
+		// the corners of the quad share their vertices (positions 1-4, normal 1)
+		final float[] normals = mesh.getNormals();
+		final float[] uvs = mesh.getUVs();
+		assertEquals(1, normals[2], 0);
+		assertEquals(-1, normals[3 * 4 + 2], 0);
+		assertEquals(1, uvs[2 * 4], 0);
+		assertEquals(0, uvs[2 * 4 + 1], 0);
+		// vertices without normal get the smooth normal of their position
+		final float[] smooth = new TriangleMesh(new float[] { 0, 0, 0, 1, 0, 0,
+				1, 1, 0 }, new int[] { 0, 1, 2 }).withSmoothNormals().getNormals();
+		assertEquals(smooth[2], normals[3 * 7 + 2], 1e-6);
+
+		// the shading normal is interpolated and faces like the triangle normal
+		final Ray ray = new Ray(new Point(0.75f, 0.25f, 1), new Vec3(0, 0, -1));
+		final Hit hit = mesh.hit(0, ray, null, 0, Float.POSITIVE_INFINITY);
+		assertTrue(hit.hits());
+		assertEquals(mesh.normal(0), hit.getNormal());
+		assertEquals(0.75f, hit.getUV().x(), 1e-6);
+		assertEquals(0.25f, hit.getUV().y(), 1e-6);
+
+		try {
+			OBJReader.readMesh(new ByteArrayInputStream(
+					"v 0 0 0\nf 1 1\n".getBytes(StandardCharsets.US_ASCII)), 1,
+					Vec3.ZERO);
+			assertTrue(false);
+		} catch (final IllegalArgumentException e) {
+			assertEquals("Face with less than three corners in line 2.",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void testLinearBVHRejectsInvalidTopology() {
+		final Obj[] objs = createSpheres(2, 5);
+		assertEquals(3, new LinearBVH(new int[] { 2, -1, 0, 1, 1, 1 }, objs)
+				.getNodeCount());
+		final int[][] invalid = {
+				// an unreachable node after the tree
+				{ 2, -1, 0, 1, 1, 1, 0, 0 },
+				// overlapping leaves
+				{ 2, -1, 0, 1, 0, 1 },
+				// a skipped object
+				{ 2, -1, 0, 1, 1, 0 },
+				// a leaf whose end overflows
+				{ 2, -1, 0, 1, 1, Integer.MAX_VALUE } };
+		for (final int[] nodes : invalid) {
+			try {
+				new LinearBVH(nodes, objs);
+				assertTrue(false);
+			} catch (final IllegalArgumentException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testMeshCache() throws IOException {
+		final Path dir = Files.createTempDirectory("meshcache");
+		final Path obj = dir.resolve("quads.obj");
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			text.append("v " + i + " 0 0\nv " + i + " 1 0\nv " + i + " 0 1\n");
+			text.append("f " + (3 * i + 1) + " " + (3 * i + 2) + " " + (3 * i + 3)
+					+ "\n");
+		}
+		Files.write(obj, text.toString().getBytes(StandardCharsets.US_ASCII));
+		final Path file = dir.resolve("quads.obj" + MeshCache.EXTENSION);
+		try {
+			final Vec3 translate = new Vec3(1, 2, 3);
+			final TriangleMesh expected = OBJReader.readMesh(
+					new ByteArrayInputStream(Files.readAllBytes(obj)), 2, translate);
+
+			final MeshCache first = MeshCache.open(obj.toString());
+			assertFalse(first.isCached());
+			assertTrue(Files.exists(file));
+			final StandardMesh mesh = new StandardMesh(
+					first.createMesh(2, translate), new SingleColor(Color.WHITE));
+			assertTrue(Arrays.equals(expected.getPositions(),
+					mesh.getTriangles().getPositions()));
+			final LinearBVH built = first.createHierarchy(mesh, new SAHBVH());
+
+			final MeshCache second = MeshCache.open(obj.toString());
+			assertTrue(second.isCached());
+			assertTrue(second.hasHierarchy());
+			final StandardMesh loaded = new StandardMesh(
+					second.createMesh(2, translate), new SingleColor(Color.WHITE));
+			assertTrue(Arrays.equals(expected.getIndices(),
+					loaded.getTriangles().getIndices()));
+			final LinearBVH cached = second.createHierarchy(loaded, new SAHBVH());
+			assertTrue(Arrays.equals(built.getNodes(), cached.getNodes()));
+			assertEquals(built.bbox(), cached.bbox());
+
+			// another builder does not reuse the topology
+			final BVH median = new BVH();
+			loaded.addTo(median);
+			median.buildBVH();
+			final int[] expectedNodes = new LinearBVH(median).getNodes();
+			assertTrue(Arrays.equals(expectedNodes,
+					second.createHierarchy(loaded, new BVH()).getNodes()));
+			final MeshCache third = MeshCache.open(obj.toString());
+			assertTrue(third.isCached());
+			assertTrue(Arrays.equals(expectedNodes,
+					third.createHierarchy(loaded, new BVH()).getNodes()));
+
+			// a damaged index is noticed and the OBJ file parsed again
+			final byte[] bytes = Files.readAllBytes(file);
+			bytes[MeshCache.HEADER_SIZE + 4 * 3 * 150 + 2] ^= 0x40;
+			Files.write(file, bytes);
+			final MeshCache damaged = MeshCache.open(obj.toString());
+			assertFalse(damaged.isCached());
+			assertTrue(Arrays.equals(expected.getIndices(),
+					damaged.createMesh(2, translate).getIndices()));
+
+			// a changed OBJ file invalidates the cache
+			Files.write(obj, text.append("v 0 0 0\n").toString()
+					.getBytes(StandardCharsets.US_ASCII));
+			assertFalse(MeshCache.open(obj.toString()).isCached());
+		} finally {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(obj);
+			Files.deleteIfExists(dir);
+		}
+	}
+
 }
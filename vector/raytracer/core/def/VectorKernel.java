@@ -0,0 +1,184 @@
+package raytracer.core.def;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import raytracer.math.Constants;
+
+/**
+ * Tests the lanes of a block four at a time using the incubating Vector API
+ * (128 bit vectors, SSE or NEON and up). The species is a constant, which
+ * the JIT requires to compile the operations into vector instructions; blocks
+ * of 8 lanes are processed in two steps. The arithmetic matches the scalar
+ * kernel operation by operation, so both kernels compute the same results.
+ * <p>
+ * This class lives outside of the regular sources because it needs the module
+ * {@code jdk.incubator.vector} at compile time; it is picked up by
+ * {@link WideKernel#get()} if it is on the class path.
+ */
+final class VectorKernel extends WideKernel {
+
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_128;
+  private static final int LANES = 4;
+
+  @Override
+  public String getName() {
+    return "vector";
+  }
+
+  @Override
+  public int intersectBoxes(
+    final float[] boxes,
+    final int offset,
+    final int width,
+    final float ox,
+    final float oy,
+    final float oz,
+    final float ix,
+    final float iy,
+    final float iz,
+    final float tMin,
+    final float tMax,
+    final float[] tNear
+  ) {
+    if (width % LANES != 0) {
+      return scalar()
+        .intersectBoxes(boxes, offset, width, ox, oy, oz, ix, iy, iz, tMin,
+          tMax, tNear);
+    }
+    int mask = 0;
+    for (int lane = 0; lane < width; lane += LANES) {
+      final int b = offset + lane;
+      final FloatVector t1 = load(boxes, b, 0, width).sub(ox).mul(ix);
+      final FloatVector t2 = load(boxes, b, 3, width).sub(ox).mul(ix);
+      final FloatVector t3 = load(boxes, b, 1, width).sub(oy).mul(iy);
+      final FloatVector t4 = load(boxes, b, 4, width).sub(oy).mul(iy);
+      final FloatVector t5 = load(boxes, b, 2, width).sub(oz).mul(iz);
+      final FloatVector t6 = load(boxes, b, 5, width).sub(oz).mul(iz);
+
+      final FloatVector tMinNew = t1.min(t2).max(t3.min(t4)).max(t5.min(t6));
+      final FloatVector tMaxNew = t1.max(t2).min(t3.max(t4)).min(t5.max(t6));
+      final VectorMask<Float> hits = tMaxNew
+        .compare(VectorOperators.GE, tMinNew.max(tMin))
+        .and(tMinNew.compare(VectorOperators.LE, tMax));
+      tMinNew.intoArray(tNear, lane);
+      mask |= (int) hits.toLong() << lane;
+    }
+    return mask;
+  }
+
+  @Override
+  public int intersectTriangles(
+    final float[] triangles,
+    final int offset,
+    final int width,
+    final float ox,
+    final float oy,
+    final float oz,
+    final float dx,
+    final float dy,
+    final float dz,
+    final float tMin,
+    float tMax,
+    final float[] hit
+  ) {
+    if (width % LANES != 0) {
+      return scalar()
+        .intersectTriangles(triangles, offset, width, ox, oy, oz, dx, dy, dz,
+          tMin, tMax, hit);
+    }
+    int nearest = -1;
+    for (int lane = 0; lane < width; lane += LANES) {
+      final int a = offset + lane;
+      final FloatVector ux = load(triangles, a, 3, width);
+      final FloatVector uy = load(triangles, a, 4, width);
+      final FloatVector uz = load(triangles, a, 5, width);
+      final FloatVector vx = load(triangles, a, 6, width);
+      final FloatVector vy = load(triangles, a, 7, width);
+      final FloatVector vz = load(triangles, a, 8, width);
+
+      // pvec = dir x v
+      final FloatVector px = vz.mul(dy).sub(vy.mul(dz));
+      final FloatVector py = vx.mul(dz).sub(vz.mul(dx));
+      final FloatVector pz = vy.mul(dx).sub(vx.mul(dy));
+      final FloatVector det = px.mul(ux).add(py.mul(uy)).add(pz.mul(uz));
+      VectorMask<Float> valid = det
+        .compare(VectorOperators.LT, -Constants.EPS)
+        .or(det.compare(VectorOperators.GT, Constants.EPS));
+      if (!valid.anyTrue()) {
+        continue;
+      }
+      final FloatVector invDet = FloatVector.broadcast(SPECIES, 1f).div(det);
+
+      final FloatVector tx = FloatVector
+        .broadcast(SPECIES, ox)
+        .sub(load(triangles, a, 0, width));
+      final FloatVector ty = FloatVector
+        .broadcast(SPECIES, oy)
+        .sub(load(triangles, a, 1, width));
+      final FloatVector tz = FloatVector
+        .broadcast(SPECIES, oz)
+        .sub(load(triangles, a, 2, width));
+      final FloatVector s = tx
+        .mul(px)
+        .add(ty.mul(py))
+        .add(tz.mul(pz))
+        .mul(invDet);
+      valid =
+        valid
+          .and(s.compare(VectorOperators.GE, 0f))
+          .and(s.compare(VectorOperators.LE, 1f));
+
+      // qvec = tvec x u
+      final FloatVector qx = ty.mul(uz).sub(tz.mul(uy));
+      final FloatVector qy = tz.mul(ux).sub(tx.mul(uz));
+      final FloatVector qz = tx.mul(uy).sub(ty.mul(ux));
+      final FloatVector t = qx
+        .mul(dx)
+        .add(qy.mul(dy))
+        .add(qz.mul(dz))
+        .mul(invDet);
+      valid =
+        valid
+          .and(t.compare(VectorOperators.GE, 0f))
+          .and(s.add(t).compare(VectorOperators.LE, 1f));
+
+      final FloatVector r = vx
+        .mul(qx)
+        .add(vy.mul(qy))
+        .add(vz.mul(qz))
+        .mul(invDet);
+      valid =
+        valid
+          .and(r.compare(VectorOperators.GE, Constants.EPS))
+          .and(r.compare(VectorOperators.GE, tMin))
+          .and(r.compare(VectorOperators.LE, tMax));
+      if (!valid.anyTrue()) {
+        continue;
+      }
+
+      // the last of the nearest lanes, like the scalar kernel
+      final float r0 = r.reduceLanes(VectorOperators.MIN, valid);
+      final int i = r.compare(VectorOperators.EQ, r0).and(valid).lastTrue();
+      tMax = r0;
+      hit[0] = r0;
+      hit[1] = s.lane(i);
+      hit[2] = t.lane(i);
+      nearest = lane + i;
+    }
+    return nearest;
+  }
+
+  /**
+   * Loads four lanes of the given row (coordinate) of a block
+   */
+  private static FloatVector load(
+    final float[] array,
+    final int index,
+    final int row,
+    final int width
+  ) {
+    return FloatVector.fromArray(SPECIES, array, index + row * width);
+  }
+}